@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.data.ConditionsField;
+import com.controlj.addon.weather.data.ForecastField;
+import com.controlj.addon.weather.data.StationField;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The station, conditions and forecast fields that an equipment has points for, so that only the data that will
+ * actually be written needs to be read from the weather service.  See {@link EquipmentHandler#getBoundFields()}.
+ */
+public final class BoundFields {
+    private final Set<StationField> stationFields;
+    private final Set<ConditionsField> conditionsFields;
+    private final Set<ForecastField> forecastFields;
+    private final int forecastDays;
+
+    /**
+     * @param forecastDays the number of forecast days with points, one more than the highest N in the wfN_ points.
+     */
+    public BoundFields(Set<StationField> stationFields, Set<ConditionsField> conditionsFields,
+                       Set<ForecastField> forecastFields, int forecastDays) {
+        this.stationFields = Collections.unmodifiableSet(copy(stationFields, StationField.class));
+        this.conditionsFields = Collections.unmodifiableSet(copy(conditionsFields, ConditionsField.class));
+        this.forecastFields = Collections.unmodifiableSet(copy(forecastFields, ForecastField.class));
+        this.forecastDays = forecastDays;
+    }
+
+    public Set<StationField> getStationFields() {
+        return stationFields;
+    }
+
+    public Set<ConditionsField> getConditionsFields() {
+        return conditionsFields;
+    }
+
+    public Set<ForecastField> getForecastFields() {
+        return forecastFields;
+    }
+
+    public int getForecastDays() {
+        return forecastDays;
+    }
+
+    public boolean hasStationFields() {
+        return !stationFields.isEmpty();
+    }
+
+    public boolean hasConditionsFields() {
+        return !conditionsFields.isEmpty();
+    }
+
+    public boolean hasForecastFields() {
+        return !forecastFields.isEmpty();
+    }
+
+    @Override public String toString() {
+        return "ws" + stationFields + " wc" + conditionsFields + " wf" + forecastFields + " (" + forecastDays + " days)";
+    }
+
+    private static <E extends Enum<E>> Set<E> copy(Set<E> fields, Class<E> fieldClass) {
+        return fields.isEmpty() ? EnumSet.noneOf(fieldClass) : EnumSet.copyOf(fields);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.data.ConditionsField;
+import com.controlj.addon.weather.data.ForecastField;
+import com.controlj.addon.weather.data.StationField;
+import com.controlj.green.addonsupport.access.*;
+import com.controlj.green.addonsupport.access.aspect.PresentValue;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The points of an equipment that weather data is written to, each already matched to the field it takes.  Finding
+ * the points means resolving the equipment in the geographic tree and matching the reference name of every present
+ * value against the field name patterns, so plans are cached by control program path and shared by every
+ * {@link EquipmentHandler} for that path.
+ * <p/>
+ * A cached plan is rebuilt after {@link #RESCAN_INTERVAL} (to pick up points added to or removed from the control
+ * program), after a write to it fails, or when its path is dropped from the configuration.  The plan also remembers
+ * the value last written to each point, so rebuilding it means every point is written again once, which keeps the
+ * control program up to date if it was reset or downloaded.
+ */
+final class EquipmentBindingPlan {
+    static final long RESCAN_INTERVAL = 15 * 60000;
+
+    private static final Pattern WEATHER_STATION_PATTERN = Pattern.compile("ws_(.+)");
+    private static final Pattern WEATHER_CONDITIONS_PATTERN = Pattern.compile("wc_(.+)");
+    private static final Pattern WEATHER_FORECAST_PATTERN = Pattern.compile("wf(\\d+)_(.+)");
+
+    private static final Map<String, EquipmentBindingPlan> plans = new ConcurrentHashMap<String, EquipmentBindingPlan>();
+
+    /**
+     * A present value and the field written to it, along with the value last written to it.
+     */
+    static final class Binding<F extends Enum<F>> {
+        private final PresentValue presentValue;
+        private final F field;
+        private final int day;
+        private final String fieldName;
+        private volatile float lastWritten = Float.NaN;
+
+        private Binding(PresentValue presentValue, F field, int day, String fieldName) {
+            this.presentValue = presentValue;
+            this.field = field;
+            this.day = day;
+            this.fieldName = fieldName;
+        }
+
+        PresentValue getPresentValue() { return presentValue; }
+
+        F getField() { return field; }
+
+        /**
+         * Returns the forecast day (the N in wfN_), or 0 for station and conditions fields.
+         */
+        int getDay() { return day; }
+
+        /**
+         * Returns the name of the field, the same for every forecast day (ws_latitude, wc_temperature,
+         * wfN_lowestTemperature).
+         */
+        String getFieldName() { return fieldName; }
+
+        /**
+         * Returns true if the value should be written: nothing has been written yet, or the value differs from the
+         * last one written by at least the deadband (by any amount if the deadband is 0).
+         */
+        boolean needsWrite(float value, float deadband) {
+            float last = lastWritten;
+            if (Float.isNaN(last))
+                return true;
+            if (deadband > 0)
+                return Math.abs(value - last) >= deadband;
+            return Float.compare(value, last) != 0;
+        }
+
+        void setLastWritten(float value) {
+            lastWritten = value;
+        }
+    }
+
+    private final List<Binding<StationField>> stationBindings;
+    private final List<Binding<ConditionsField>> conditionsBindings;
+    private final List<Binding<ForecastField>> forecastBindings;
+    private final BoundFields boundFields;
+    private final long created;
+
+    private EquipmentBindingPlan(List<Binding<StationField>> stationBindings, List<Binding<ConditionsField>> conditionsBindings,
+                                 List<Binding<ForecastField>> forecastBindings, long created) {
+        this.stationBindings = Collections.unmodifiableList(stationBindings);
+        this.conditionsBindings = Collections.unmodifiableList(conditionsBindings);
+        this.forecastBindings = Collections.unmodifiableList(forecastBindings);
+        this.created = created;
+
+        Set<StationField> stationFields = EnumSet.noneOf(StationField.class);
+        for (Binding<StationField> binding : stationBindings)
+            stationFields.add(binding.getField());
+        Set<ConditionsField> conditionsFields = EnumSet.noneOf(ConditionsField.class);
+        for (Binding<ConditionsField> binding : conditionsBindings)
+            conditionsFields.add(binding.getField());
+        Set<ForecastField> forecastFields = EnumSet.noneOf(ForecastField.class);
+        int forecastDays = 0;
+        for (Binding<ForecastField> binding : forecastBindings) {
+            forecastFields.add(binding.getField());
+            forecastDays = Math.max(forecastDays, binding.getDay() + 1);
+        }
+        boundFields = new BoundFields(stationFields, conditionsFields, forecastFields, forecastDays);
+    }
+
+    /**
+     * Returns the plan for the equipment at the given path, from the cache if it is there and not due for a rescan.
+     */
+    static EquipmentBindingPlan get(SystemConnection systemConn, String path) throws EquipmentWriteException {
+        return get(systemConn, path, System.currentTimeMillis());
+    }
+
+    static EquipmentBindingPlan get(SystemConnection systemConn, String path, long now) throws EquipmentWriteException {
+        EquipmentBindingPlan plan = plans.get(path);
+        if (plan == null || now - plan.created >= RESCAN_INTERVAL || now < plan.created) {
+            plan = build(systemConn, path, now);
+            plans.put(path, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Drops the cached plan for the given path, so that it is rebuilt the next time it is used.
+     */
+    static void invalidate(String path) {
+        plans.remove(path);
+    }
+
+    /**
+     * Drops the cached plans for any path that isn't in the given paths.
+     */
+    static void retain(Collection<String> paths) {
+        plans.keySet().retainAll(new HashSet<String>(paths));
+    }
+
+    List<Binding<StationField>> getStationBindings() { return stationBindings; }
+
+    List<Binding<ConditionsField>> getConditionsBindings() { return conditionsBindings; }
+
+    List<Binding<ForecastField>> getForecastBindings() { return forecastBindings; }
+
+    BoundFields getBoundFields() { return boundFields; }
+
+    boolean isEmpty() {
+        return stationBindings.isEmpty() && conditionsBindings.isEmpty() && forecastBindings.isEmpty();
+    }
+
+    private static EquipmentBindingPlan build(SystemConnection systemConn, String path, final long now) throws EquipmentWriteException {
+        try {
+            final String lookupString = "ABSPATH:1:" + path;
+            return systemConn.runReadAction(new ReadActionResult<EquipmentBindingPlan>() {
+                //@Override
+                public EquipmentBindingPlan execute(@NotNull SystemAccess systemAccess) throws Exception {
+                    Location location = systemAccess.getTree(SystemTree.Geographic).resolve(lookupString);
+                    Collection<PresentValue> presentValues;
+                    if (location.getType() == LocationType.Equipment)
+                        presentValues = location.find(PresentValue.class, new FieldReferenceAcceptor());
+                    else
+                        presentValues = Collections.emptyList();
+                    return build(presentValues, now);
+                }
+            });
+        } catch (Exception e) {
+            throw new EquipmentWriteException(e);
+        }
+    }
+
+    /**
+     * Matches the given present values to the fields they take.
+     */
+    static EquipmentBindingPlan build(Collection<PresentValue> presentValues, long now) {
+        List<Binding<StationField>> stationBindings = new ArrayList<Binding<StationField>>();
+        List<Binding<ConditionsField>> conditionsBindings = new ArrayList<Binding<ConditionsField>>();
+        List<Binding<ForecastField>> forecastBindings = new ArrayList<Binding<ForecastField>>();
+        for (PresentValue presentValue : presentValues) {
+            String referenceName = presentValue.getLocation().getReferenceName();
+            Matcher matcher = WEATHER_STATION_PATTERN.matcher(referenceName);
+            if (matcher.matches()) {
+                StationField field = StationField.find(matcher.group(1));
+                if (field != null)
+                    stationBindings.add(new Binding<StationField>(presentValue, field, 0, field.getName()));
+                continue;
+            }
+            matcher = WEATHER_CONDITIONS_PATTERN.matcher(referenceName);
+            if (matcher.matches()) {
+                ConditionsField field = ConditionsField.find(matcher.group(1));
+                if (field != null)
+                    conditionsBindings.add(new Binding<ConditionsField>(presentValue, field, 0, field.getName()));
+                continue;
+            }
+            matcher = WEATHER_FORECAST_PATTERN.matcher(referenceName);
+            if (matcher.matches()) {
+                ForecastField field = ForecastField.find(matcher.group(2));
+                if (field != null) {
+                    try {
+                        int day = Integer.parseInt(matcher.group(1));
+                        forecastBindings.add(new Binding<ForecastField>(presentValue, field, day, field.getName('N')));
+                    } catch (NumberFormatException e) {
+                        // too many digits to be a real day, ignore it
+                    }
+                }
+            }
+        }
+        return new EquipmentBindingPlan(stationBindings, conditionsBindings, forecastBindings, now);
+    }
+
+    /**
+     * Accepts the present values that could be weather fields, leaving the full match for {@link #build}.
+     */
+    private static final class FieldReferenceAcceptor implements AspectAcceptor<PresentValue>
+    {
+        //@Override
+        public boolean accept(@NotNull PresentValue presentValue) {
+            String referenceName = presentValue.getLocation().getReferenceName();
+            return referenceName.startsWith("ws_") || referenceName.startsWith("wc_") || referenceName.startsWith("wf");
+        }
+    }
+}
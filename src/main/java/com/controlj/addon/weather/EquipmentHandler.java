@@ -31,10 +31,9 @@ import com.controlj.green.addonsupport.access.value.InvalidValueException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is responsible for inserting weather data into control programs.  If the
@@ -46,134 +45,177 @@ import java.util.regex.Pattern;
  * <p/>
  * Control programs are written to using a "FieldAccess", so any changes get automatically
  * downloaded to the field device.
+ * <p/>
+ * The points to write are found once for each control program and cached (see {@link EquipmentBindingPlan}),
+ * so creating a handler is cheap.
+ * <p/>
+ * Only values that changed since they were last written are written (a field can be given a deadband in the
+ * configuration, see {@link ConfigData#getDeadband}), and if none changed no write action is run at all.
  */
 public class EquipmentHandler {
-    private static final Pattern WEATHER_STATION_PATTERN = Pattern.compile("ws_(.+)");
-    private static final Pattern WEATHER_CONDITIONS_PATTERN = Pattern.compile("wc_(.+)");
-    private static final Pattern WEATHER_FORECAST_PATTERN = Pattern.compile("wf(\\d+)_(.+)");
+    private static final AtomicLong pointWriteCount = new AtomicLong();
+    private static final AtomicLong suppressedWriteCount = new AtomicLong();
 
     private final SystemConnection systemConnection;
-    private final Collection<PresentValue> presentValues;
+    private final ConfigData configData;
+    private final String path;
+    private final EquipmentBindingPlan plan;
 
-    public EquipmentHandler(SystemConnection systemConn, String path) throws EquipmentWriteException {
-        systemConnection = systemConn;
-        try {
-            final String lookupString = "ABSPATH:1:" + path;
-            presentValues = systemConnection.runReadAction(new ReadActionResult<Collection<PresentValue>>() {
-                //@Override
-                public Collection<PresentValue> execute(@NotNull SystemAccess systemAccess) throws Exception {
-                    Location location = systemAccess.getTree(SystemTree.Geographic).resolve(lookupString);
-                    if (location.getType() == LocationType.Equipment)
-                        return location.find(PresentValue.class, new FieldReferenceAcceptor());
-                    else
-                        return Collections.emptyList();
-                }
-            });
-        } catch (Exception e) {
-            throw new EquipmentWriteException(e);
-        }
+    public EquipmentHandler(ConfigData configData, String path) throws EquipmentWriteException {
+        this(configData, path, EquipmentBindingPlan.get(configData.getSystemConn(), path));
     }
 
-    public boolean hasFieldsToWrite() { return !presentValues.isEmpty(); }
+    EquipmentHandler(ConfigData configData, String path, EquipmentBindingPlan plan) {
+        systemConnection = configData.getSystemConn();
+        this.configData = configData;
+        this.path = path;
+        this.plan = plan;
+    }
 
-    public void writeStationData(final StationSource stationSource, final ConfigData configData) throws EquipmentWriteException {
-        if (!hasFieldsToWrite()) //short circuit if no data to update
-            return;
+    /**
+     * Returns the number of present values written since startup.
+     */
+    public static long getPointWriteCount() { return pointWriteCount.get(); }
 
-        try {
-            systemConnection.runWriteAction(FieldAccessFactory.newFieldAccess(), "Updating weather station data", new WriteAction() {
-                //@Override
-                public void execute(@NotNull WritableSystemAccess systemAccess) throws Exception {
-                    workaroundFor41SP1b(systemAccess);
-                    for (PresentValue presentValue : presentValues) {
-                        String referenceName = presentValue.getLocation().getReferenceName();
-                        Float value = getValueIfStation(referenceName, stationSource, configData);
-                        if (value != null)
-                            setValue(presentValue, value);
-                    }
-                }
-            });
-        } catch (Exception e) {
-            throw new EquipmentWriteException(e);
+    /**
+     * Returns the number of present values not written since startup because their value had not changed (or had
+     * changed by less than the field's deadband) since the last write.
+     */
+    public static long getSuppressedWriteCount() { return suppressedWriteCount.get(); }
+
+    public boolean hasFieldsToWrite() { return !plan.isEmpty(); }
+
+    /**
+     * Returns the fields that the equipment has points for.
+     */
+    public BoundFields getBoundFields() { return plan.getBoundFields(); }
+
+    public void writeStationData(StationSource stationSource, ConfigData configData) throws EquipmentWriteException {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        addStationWrites(writes, stationSource, configData);
+        write(writes, "Updating weather station data");
+    }
+
+    public void writeConditionsData(ConditionsSource conditionsSource) throws EquipmentWriteException {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        addConditionsWrites(writes, conditionsSource);
+        write(writes, "Updating current weather data");
+    }
+
+    public void writeForecastData(ForecastSource[] forecastSources) throws EquipmentWriteException {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        addForecastWrites(writes, forecastSources);
+        write(writes, "Updating weather forecast data");
+    }
+
+    /**
+     * Writes any mix of station, conditions and forecast data in a single write action.
+     *
+     * @param stationSource the station data to write, or null to not write it.
+     * @param conditionsSource the conditions data to write, or null to not write it.
+     * @param forecastSources the forecast data to write, or null to not write it.
+     */
+    public void writeData(StationSource stationSource, ConditionsSource conditionsSource, ForecastSource[] forecastSources) throws EquipmentWriteException {
+        write(getWrites(stationSource, conditionsSource, forecastSources), "Updating weather data");
+    }
+
+    /**
+     * Returns the changed values to write for the given data (any of which may be null), for writing them together
+     * with those of other equipment (see {@link WriteBehindQueue}).
+     */
+    List<PendingWrite> getWrites(StationSource stationSource, ConditionsSource conditionsSource, ForecastSource[] forecastSources) {
+        List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        if (stationSource != null)
+            addStationWrites(writes, stationSource, configData);
+        if (conditionsSource != null)
+            addConditionsWrites(writes, conditionsSource);
+        if (forecastSources != null)
+            addForecastWrites(writes, forecastSources);
+        return writes;
+    }
+
+    /**
+     * Writes values gathered from this and other equipment on the same system in one write action (see
+     * {@link WriteBehindQueue}).
+     */
+    void writeGroup(List<PendingWrite> writes, String description) throws EquipmentWriteException {
+        write(systemConnection, writes, description);
+    }
+
+    String getPath() { return path; }
+
+    ConfigData getConfigData() { return configData; }
+
+    private void addStationWrites(List<PendingWrite> writes, StationSource stationSource, ConfigData configData) {
+        for (EquipmentBindingPlan.Binding<StationField> binding : plan.getStationBindings()) {
+            StationField field = binding.getField();
+            addIfChanged(writes, binding, sanitizeValue(field.getValue(stationSource, configData), field.getType()));
+        }
+    }
+
+    private void addConditionsWrites(List<PendingWrite> writes, ConditionsSource conditionsSource) {
+        for (EquipmentBindingPlan.Binding<ConditionsField> binding : plan.getConditionsBindings()) {
+            ConditionsField field = binding.getField();
+            addIfChanged(writes, binding, sanitizeValue(field.getValue(conditionsSource), field.getType()));
         }
     }
 
-    public void writeConditionsData(final ConditionsSource conditionsSource) throws EquipmentWriteException {
-        if (!hasFieldsToWrite()) //short circuit if no data to update
+    private void addForecastWrites(List<PendingWrite> writes, ForecastSource[] forecastSources) {
+        for (EquipmentBindingPlan.Binding<ForecastField> binding : plan.getForecastBindings()) {
+            int day = binding.getDay();
+            if (day < forecastSources.length) {
+                ForecastField field = binding.getField();
+                addIfChanged(writes, binding, sanitizeValue(field.getValue(forecastSources[day]), field.getType()));
+            }
+        }
+    }
+
+    private void addIfChanged(List<PendingWrite> writes, EquipmentBindingPlan.Binding<?> binding, Float value) {
+        if (value == null)
             return;
 
+        if (binding.needsWrite(value, configData.getDeadband(binding.getFieldName())))
+            writes.add(new PendingWrite(binding, value));
+        else
+            suppressedWriteCount.incrementAndGet();
+    }
+
+    private void write(List<PendingWrite> writes, String description) throws EquipmentWriteException {
         try {
-            systemConnection.runWriteAction(FieldAccessFactory.newFieldAccess(), "Updating current weather data", new WriteAction() {
-                //@Override
-                public void execute(@NotNull WritableSystemAccess systemAccess) throws Exception {
-                    workaroundFor41SP1b(systemAccess);
-                    for (PresentValue presentValue : presentValues) {
-                        String referenceName = presentValue.getLocation().getReferenceName();
-                        Float value = getValueIfConditions(referenceName, conditionsSource);
-                        if (value != null)
-                            setValue(presentValue, value);
-                    }
-                }
-            });
-        } catch (Exception e) {
-            throw new EquipmentWriteException(e);
+            write(systemConnection, writes, description);
+        } catch (EquipmentWriteException e) {
+            EquipmentBindingPlan.invalidate(path);
+            throw e;
         }
     }
 
-    public void writeForecastData(final ForecastSource[] forecastSources) throws EquipmentWriteException {
-        if (!hasFieldsToWrite()) //short circuit if no data to update
+    /**
+     * Writes the changed values in one write action, or does nothing (no transaction at all) if none changed.  The
+     * values are remembered as written only once the action has completed.
+     */
+    static void write(SystemConnection systemConnection, final List<PendingWrite> writes, String description) throws EquipmentWriteException {
+        if (writes.isEmpty()) //short circuit if no data to update
             return;
 
         try {
-            systemConnection.runWriteAction(FieldAccessFactory.newFieldAccess(), "Updating weather forecast data", new WriteAction() {
+            systemConnection.runWriteAction(FieldAccessFactory.newFieldAccess(), description, new WriteAction() {
                 //@Override
                 public void execute(@NotNull WritableSystemAccess systemAccess) throws Exception {
                     workaroundFor41SP1b(systemAccess);
-                    for (PresentValue presentValue : presentValues) {
-                        String referenceName = presentValue.getLocation().getReferenceName();
-                        Float value = getValueIfForecast(referenceName, forecastSources);
-                        if (value != null)
-                            setValue(presentValue, value);
-                    }
+                    for (PendingWrite write : writes)
+                        write.written = setValue(write.binding.getPresentValue(), write.value);
                 }
             });
         } catch (Exception e) {
             throw new EquipmentWriteException(e);
         }
-    }
 
-    private Float getValueIfStation(String referenceName, StationSource stationSource, ConfigData configData) {
-        Matcher matcher = WEATHER_STATION_PATTERN.matcher(referenceName);
-        if (matcher.matches()) {
-            String fieldName = matcher.group(1);
-            StationField field = StationField.find(fieldName);
-            if (field != null)
-                return sanitizeValue(field.getValue(stationSource, configData), field.getType());
+        for (PendingWrite write : writes) {
+            if (write.written) {
+                write.binding.setLastWritten(write.value);
+                pointWriteCount.incrementAndGet();
+            }
         }
-        return null;
-    }
-
-    private Float getValueIfConditions(String referenceName, ConditionsSource conditionsSource) {
-        Matcher matcher = WEATHER_CONDITIONS_PATTERN.matcher(referenceName);
-        if (matcher.matches()) {
-            String fieldName = matcher.group(1);
-            ConditionsField field = ConditionsField.find(fieldName);
-            if (field != null)
-                return sanitizeValue(field.getValue(conditionsSource), field.getType());
-        }
-        return null;
-    }
-
-    private Float getValueIfForecast(String referenceName, ForecastSource[] forecastSources) {
-        Matcher matcher = WEATHER_FORECAST_PATTERN.matcher(referenceName);
-        if (matcher.matches()) {
-            int day = Integer.parseInt(matcher.group(1));
-            String fieldName = matcher.group(2);
-            ForecastField field = ForecastField.find(fieldName);
-            if (field != null && day < forecastSources.length)
-                return sanitizeValue(field.getValue(forecastSources[day]), field.getType());
-        }
-        return null;
     }
 
     private Float sanitizeValue(Object value, FieldType type) {
@@ -192,35 +234,32 @@ public class EquipmentHandler {
         return null; // if it's a type we don't recognize, ignore it
     }
 
-    private void setValue(PresentValue pv, Float value) {
+    private static boolean setValue(PresentValue pv, float value) {
         try {
             ((FloatValue) pv.getValue()).set(value);
+            return true;
         } catch (InvalidValueException e) {
             Logging.println("Error writing weather data (" + value + ") into present value (" + pv.getLocation() + ')', e);
+            return false;
         }
     }
 
-    private void workaroundFor41SP1b(SystemAccess systemAccess) throws IOException {
+    private static void workaroundFor41SP1b(SystemAccess systemAccess) throws IOException {
         if (Logging.is41)
             systemAccess.getSystemDataStore("not_real").getOutputStream();
     }
 
-    private static final class FieldReferenceAcceptor implements AspectAcceptor<PresentValue>
-    {
-        //@Override
-        public boolean accept(@NotNull PresentValue presentValue) {
-            String referenceName = presentValue.getLocation().getReferenceName();
-            Matcher stationPatternMatcher = WEATHER_STATION_PATTERN.matcher(referenceName);
-            if (stationPatternMatcher.matches())
-                return true;
-            Matcher conditionsPatternMatcher = WEATHER_CONDITIONS_PATTERN.matcher(referenceName);
-            if (conditionsPatternMatcher.matches())
-                return true;
-            Matcher forecastPatternMatcher = WEATHER_FORECAST_PATTERN.matcher(referenceName);
-            if (forecastPatternMatcher.matches())
-                return true;
+    /**
+     * A changed value waiting to be written to a point.
+     */
+    static final class PendingWrite {
+        private final EquipmentBindingPlan.Binding<?> binding;
+        private final float value;
+        private boolean written;
 
-            return false;
+        private PendingWrite(EquipmentBindingPlan.Binding<?> binding, float value) {
+            this.binding = binding;
+            this.value = value;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.service.WeatherServiceException;
+import com.controlj.addon.weather.service.WeatherServices;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares weather service fetches between config entries during one update cycle.  Many entries usually map
+ * to the same station, and they all get identical data for it, so the first entry to ask for a given
+ * (service, station, service configuration) does the fetch and every other entry waits for and reuses its
+ * result.  A coalescer is meant to live for one cycle only; results are never refreshed once fetched.
+ */
+public class FetchCoalescer {
+    private static final AtomicLong totalFetches = new AtomicLong();
+    private static final AtomicLong totalSaved = new AtomicLong();
+
+    private final ConcurrentMap<Key, FutureTask<Object>> results = new ConcurrentHashMap<Key, FutureTask<Object>>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+
+    /**
+     * A single request to the weather service.
+     */
+    public interface Fetch<T> {
+        T fetch() throws WeatherServiceException;
+    }
+
+    /**
+     * Returns the result of the fetch for the given key, performing the fetch only if no other caller in this
+     * cycle has already done so (or is doing so).  If the shared fetch failed, every caller gets its exception.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, final Fetch<T> fetch) throws WeatherServiceException {
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            //@Override
+            public Object call() throws Exception {
+                return fetch.fetch();
+            }
+        });
+
+        FutureTask<Object> existing = results.putIfAbsent(key, task);
+        if (existing == null) {
+            fetches.incrementAndGet();
+            totalFetches.incrementAndGet();
+            task.run();
+        } else {
+            saved.incrementAndGet();
+            totalSaved.incrementAndGet();
+            task = existing;
+        }
+
+        return (T) getResult(task);
+    }
+
+    /**
+     * Waits for the given task and returns its result, rethrowing its exception as the weather service exception
+     * (or runtime exception or error) it was.
+     */
+    static Object getResult(Future<?> task) throws WeatherServiceException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WeatherServiceException("Interrupted while waiting for weather data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WeatherServiceException)
+                throw (WeatherServiceException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new WeatherServiceException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Reserves the given keys for results that will be supplied later through {@link #complete} or
+     * {@link #fail}, so callers asking for them wait instead of making their own requests.  Returns the keys
+     * that were reserved; keys another caller is already fetching are left alone.  Every reserved key must
+     * eventually be completed or failed.
+     */
+    public List<Key> reserve(Collection<Key> keys) {
+        List<Key> reserved = new ArrayList<Key>();
+        for (Key key : keys) {
+            if (results.putIfAbsent(key, new SuppliedResult()) == null)
+                reserved.add(key);
+        }
+        return reserved;
+    }
+
+    /**
+     * Supplies the result for a key reserved with {@link #reserve}.
+     */
+    public void complete(Key key, Object result) {
+        FutureTask<Object> task = results.get(key);
+        if (task instanceof SuppliedResult)
+            ((SuppliedResult) task).set(result);
+    }
+
+    /**
+     * Supplies the failure for a key reserved with {@link #reserve}.  Every caller waiting for it gets the
+     * exception.
+     */
+    public void fail(Key key, WeatherServiceException e) {
+        FutureTask<Object> task = results.get(key);
+        if (task instanceof SuppliedResult)
+            ((SuppliedResult) task).setException(e);
+    }
+
+    /**
+     * Records requests made to the weather service on behalf of reserved keys (a batch request counts as one).
+     */
+    public void recordFetches(int count) {
+        fetches.addAndGet(count);
+        totalFetches.addAndGet(count);
+    }
+
+    /**
+     * Returns the number of requests actually made to the weather service through this coalescer.
+     */
+    public int getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * Returns the number of requests that were avoided by reusing another entry's result.
+     */
+    public int getSavedCount() {
+        return saved.get();
+    }
+
+    /**
+     * Returns the number of requests made through all coalescers since the add-on started.
+     */
+    public static long getTotalFetchCount() {
+        return totalFetches.get();
+    }
+
+    /**
+     * Returns the number of requests avoided by all coalescers since the add-on started.
+     */
+    public static long getTotalSavedCount() {
+        return totalSaved.get();
+    }
+
+    /**
+     * A result that is set from outside rather than computed.  Setting it again after it is done has no effect.
+     */
+    private static class SuppliedResult extends FutureTask<Object> {
+        private SuppliedResult() {
+            super(new Callable<Object>() {
+                //@Override
+                public Object call() throws Exception {
+                    throw new IllegalStateException("Supplied results are never run");
+                }
+            });
+        }
+
+        @Override public void set(Object result) {
+            super.set(result);
+        }
+
+        @Override public void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+
+    /**
+     * Identifies one distinct request to a weather service.  The service configuration is part of the key
+     * because it selects the unit system the data is returned in.
+     */
+    public static final class Key {
+        private final String dataKind;
+        private final WeatherServices service;
+        private final String stationId;
+        private final Map<String, String> serviceConfig;
+
+        public Key(String dataKind, WeatherServices service, String stationId, Map<String, String> serviceConfig) {
+            this.dataKind = dataKind;
+            this.service = service;
+            this.stationId = stationId;
+            this.serviceConfig = serviceConfig;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+            return dataKind.equals(key.dataKind) && service == key.service && stationId.equals(key.stationId) &&
+                   (serviceConfig == null ? key.serviceConfig == null : serviceConfig.equals(key.serviceConfig));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = dataKind.hashCode();
+            result = 31 * result + service.hashCode();
+            result = 31 * result + stationId.hashCode();
+            result = 31 * result + (serviceConfig != null ? serviceConfig.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return service + " " + dataKind + " for station " + stationId;
+        }
+    }
+}
@@ -22,14 +22,26 @@
 package com.controlj.addon.weather;
 
 import com.controlj.addon.weather.config.WeatherConfigEntry;
+import com.controlj.addon.weather.data.ConditionsField;
 import com.controlj.addon.weather.data.ForecastSource;
 import com.controlj.addon.weather.data.ConditionsSource;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Stores information about the most recent updates to weather data for each entry.
+ * <p/>
+ * The information for an entry is kept in an immutable {@link Snapshot}, keyed by the entry's control program path,
+ * that is replaced as a whole (with a compare and set) whenever it changes.  Readers never lock and always see a
+ * consistent snapshot, so the servlets never wait for the scheduled updates.  The information for entries that are
+ * removed from the configuration is dropped with {@link #retain}.
  */
 public class RuntimeInformation
 {
@@ -40,35 +52,165 @@ public class RuntimeInformation
     */
    public static RuntimeInformation getSingleton() { return singleton; }
 
-   private final Map<WeatherConfigEntry, RuntimeData> runtimeDataMap = new HashMap<WeatherConfigEntry, RuntimeData>();
+   private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+   /**
+    * Returns the runtime information for the given entry, never null.
+    */
+   public Snapshot getSnapshot(WeatherConfigEntry entry)
+   {
+      Snapshot snapshot = snapshots.get(entry.getCpPath());
+      return snapshot == null ? Snapshot.EMPTY : snapshot;
+   }
 
    /**
     * Updates the runtime information for the given entry with new conditions data.
     */
-   public void updateConditionsData(WeatherConfigEntry entry, ConditionsSource conditionsSource, String message)
+   public void updateConditionsData(WeatherConfigEntry entry, final ConditionsSource conditionsSource, final String message)
+   {
+      final long now = System.currentTimeMillis();
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            return snapshot.withConditions(conditionsSource, message, now);
+         }
+      });
+   }
+
+   /**
+    * Updates the runtime information for the given entry with new {@link ConditionsSource#isPartial partial}
+    * conditions data, read for the given fields.  Partial data is kept apart from the full conditions data, so it
+    * never replaces the data the view pages use.
+    */
+   public void updatePartialConditionsData(WeatherConfigEntry entry, final ConditionsSource conditionsSource,
+                                           Set<ConditionsField> fields, final String message)
    {
-      getOrCreateRuntimeData(entry).setConditionsSource(conditionsSource, message);
+      EnumSet<ConditionsField> copy = EnumSet.noneOf(ConditionsField.class);
+      copy.addAll(fields);
+      final Set<ConditionsField> partialFields = Collections.unmodifiableSet(copy);
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            return snapshot.withPartialConditions(conditionsSource, partialFields, message);
+         }
+      });
    }
 
    /**
-    * Returns the last updated conditions data for the given entry.
+    * Records an error for the given conditions data, but only if it is still the last (full or partial)
+    * conditions data for the given entry (so an error writing old data doesn't replace newer data).
+    */
+   public void updateConditionsError(WeatherConfigEntry entry, final ConditionsSource conditionsSource, final String message)
+   {
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            if (snapshot.conditionsSource == conditionsSource)
+               return snapshot.withConditions(conditionsSource, message, snapshot.conditionsUpdated);
+            if (snapshot.partialConditionsSource == conditionsSource)
+               return snapshot.withPartialConditions(conditionsSource, snapshot.partialConditionsFields, message);
+            return snapshot;
+         }
+      });
+   }
+
+   /**
+    * Returns the last updated (full) conditions data for the given entry.
     */
    public ConditionsSource getLastConditionsData(WeatherConfigEntry entry)
    {
-      return getOrCreateRuntimeData(entry).getConditionsSource();
+      return getSnapshot(entry).getConditionsSource();
+   }
+
+   /**
+    * Returns the most recent conditions data for the given entry that has all of the given fields: the last partial
+    * data if it was read for (at least) these fields and is newer than the last full data, otherwise the last full
+    * data.
+    */
+   public ConditionsSource getLastConditionsData(WeatherConfigEntry entry, Set<ConditionsField> fields)
+   {
+      Snapshot snapshot = getSnapshot(entry);
+      ConditionsSource full = snapshot.conditionsSource;
+      ConditionsSource partial = snapshot.partialConditionsSource;
+      if (partial == null || !snapshot.partialConditionsFields.containsAll(fields))
+         return full;
+      if (full == null || partial.getUpdateTime().after(full.getUpdateTime()))
+         return partial;
+      return full;
    }
 
    public String getLastConditionsError(WeatherConfigEntry entry)
    {
-      return getOrCreateRuntimeData(entry).getConditionsError();
+      return getSnapshot(entry).getConditionsError();
+   }
+
+   /**
+    * Returns true if conditions with the given observation time have already been written to the
+    * equipment for the given entry.  Always false for a null observation time, since there is then
+    * no way to tell whether the data has changed.
+    */
+   public boolean isObservationWritten(WeatherConfigEntry entry, Date observationTime)
+   {
+      if (observationTime == null)
+         return false;
+      Date written = getSnapshot(entry).getWrittenObservationTime();
+      return written != null && written.getTime() == observationTime.getTime();
+   }
+
+   /**
+    * Records the observation time of the conditions last written to the equipment for the given entry,
+    * or null if the last write failed and the next conditions must be written regardless.
+    */
+   public void setObservationWritten(WeatherConfigEntry entry, final Date observationTime)
+   {
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            return snapshot.withWrittenObservationTime(observationTime);
+         }
+      });
    }
 
    /**
     * Updates the runtime information for the given entry with new forecast data.
     */
-   public void updateForecastData(WeatherConfigEntry entry, ForecastSource[] forecastSources, String message)
+   public void updateForecastData(WeatherConfigEntry entry, final ForecastSource[] forecastSources, final String message)
+   {
+      final long now = System.currentTimeMillis();
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            return snapshot.withForecasts(forecastSources, message, now);
+         }
+      });
+   }
+
+   /**
+    * Records an error for the given forecast data, but only if it is still the last forecast data for the
+    * given entry.
+    */
+   public void updateForecastError(WeatherConfigEntry entry, final ForecastSource[] forecastSources, final String message)
    {
-      getOrCreateRuntimeData(entry).setForecastSources(forecastSources, message);
+      update(entry, new Change()
+      {
+         //@Override
+         public Snapshot apply(Snapshot snapshot)
+         {
+            if (snapshot.forecastSources != forecastSources)
+               return snapshot;
+            return snapshot.withForecasts(forecastSources, message, snapshot.forecastsUpdated);
+         }
+      });
    }
 
    /**
@@ -76,62 +218,127 @@ public class RuntimeInformation
     */
    public ForecastSource[] getLastForecastData(WeatherConfigEntry entry)
    {
-      return getOrCreateRuntimeData(entry).getForecastSources();
+      return getSnapshot(entry).getForecastSources();
    }
 
    public String getLastForecastError(WeatherConfigEntry entry)
    {
-      return getOrCreateRuntimeData(entry).getForecastError();
+      return getSnapshot(entry).getForecastError();
+   }
+
+   /**
+    * Drops the information for every entry whose control program path is not in the given collection (the
+    * entries that are still configured).
+    */
+   public void retain(Collection<String> cpPaths)
+   {
+      Set<String> keep = new HashSet<String>(cpPaths);
+      snapshots.keySet().retainAll(keep);
    }
 
-   private synchronized RuntimeData getOrCreateRuntimeData(WeatherConfigEntry entry)
+   private void update(WeatherConfigEntry entry, Change change)
    {
-      RuntimeData runtimeData = runtimeDataMap.get(entry);
-      if (runtimeData == null)
+      String cpPath = entry.getCpPath();
+      while (true)
       {
-         runtimeData = new RuntimeData();
-         runtimeDataMap.put(entry, runtimeData);
+         Snapshot current = snapshots.get(cpPath);
+         Snapshot updated = change.apply(current == null ? Snapshot.EMPTY : current);
+         if (updated == current)
+            return;
+         if (current == null ? snapshots.putIfAbsent(cpPath, updated) == null : snapshots.replace(cpPath, current, updated))
+            return;
       }
-      return runtimeData;
    }
 
-   private static class RuntimeData
+   private interface Change
    {
-      private ConditionsSource conditionsSource;
-      private String conditionsError;
-      private ForecastSource[] forecastSources;
-      private String forecastError;
+      Snapshot apply(Snapshot snapshot);
+   }
 
-      public synchronized ConditionsSource getConditionsSource()
-      {
-         return conditionsSource;
-      }
+   /**
+    * The runtime information for one entry at one point in time.  Snapshots are never changed, a change to the
+    * information makes a new one.  The forecast array is shared, and must not be modified.
+    */
+   public static final class Snapshot
+   {
+      private static final Snapshot EMPTY = new Snapshot(null, null, 0, null, null, null, null, null, 0);
+
+      private final ConditionsSource conditionsSource;
+      private final String conditionsError;
+      private final long conditionsUpdated;
+      private final ConditionsSource partialConditionsSource;
+      private final Set<ConditionsField> partialConditionsFields;
+      private final Date writtenObservationTime;
+      private final ForecastSource[] forecastSources;
+      private final String forecastError;
+      private final long forecastsUpdated;
 
-      public synchronized void setConditionsSource(ConditionsSource conditionsSource, String errorMsg)
+      private Snapshot(ConditionsSource conditionsSource, String conditionsError, long conditionsUpdated,
+                       ConditionsSource partialConditionsSource, Set<ConditionsField> partialConditionsFields,
+                       Date writtenObservationTime, ForecastSource[] forecastSources, String forecastError,
+                       long forecastsUpdated)
       {
          this.conditionsSource = conditionsSource;
-         conditionsError = errorMsg;
+         this.conditionsError = conditionsError;
+         this.conditionsUpdated = conditionsUpdated;
+         this.partialConditionsSource = partialConditionsSource;
+         this.partialConditionsFields = partialConditionsFields;
+         this.writtenObservationTime = writtenObservationTime;
+         this.forecastSources = forecastSources;
+         this.forecastError = forecastError;
+         this.forecastsUpdated = forecastsUpdated;
       }
 
-      public synchronized String getConditionsError()
+      /**
+       * Returns the last full conditions data (partial data is never returned here).
+       */
+      public ConditionsSource getConditionsSource() { return conditionsSource; }
+
+      public String getConditionsError() { return conditionsError; }
+
+      /**
+       * Returns when the conditions (or their error) were last updated, in milliseconds, or 0 if never.
+       */
+      public long getConditionsUpdated() { return conditionsUpdated; }
+
+      public Date getWrittenObservationTime() { return writtenObservationTime; }
+
+      public ForecastSource[] getForecastSources() { return forecastSources; }
+
+      public String getForecastError() { return forecastError; }
+
+      /**
+       * Returns when the forecasts (or their error) were last updated, in milliseconds, or 0 if never.
+       */
+      public long getForecastsUpdated() { return forecastsUpdated; }
+
+      private Snapshot withConditions(ConditionsSource conditionsSource, String conditionsError, long conditionsUpdated)
       {
-         return conditionsError;
+         return new Snapshot(conditionsSource, conditionsError, conditionsUpdated, partialConditionsSource,
+                             partialConditionsFields, writtenObservationTime, forecastSources, forecastError,
+                             forecastsUpdated);
       }
 
-      public synchronized ForecastSource[] getForecastSources()
+      private Snapshot withPartialConditions(ConditionsSource partialConditionsSource,
+                                             Set<ConditionsField> partialConditionsFields, String conditionsError)
       {
-         return forecastSources;
+         return new Snapshot(conditionsSource, conditionsError, conditionsUpdated, partialConditionsSource,
+                             partialConditionsFields, writtenObservationTime, forecastSources, forecastError,
+                             forecastsUpdated);
       }
 
-      public synchronized void setForecastSources(ForecastSource[] forecastSources, String errorMsg)
+      private Snapshot withWrittenObservationTime(Date writtenObservationTime)
       {
-         this.forecastSources = forecastSources;
-         forecastError = errorMsg;
+         return new Snapshot(conditionsSource, conditionsError, conditionsUpdated, partialConditionsSource,
+                             partialConditionsFields, writtenObservationTime, forecastSources, forecastError,
+                             forecastsUpdated);
       }
 
-      public synchronized String getForecastError()
+      private Snapshot withForecasts(ForecastSource[] forecastSources, String forecastError, long forecastsUpdated)
       {
-         return forecastError;
+         return new Snapshot(conditionsSource, conditionsError, conditionsUpdated, partialConditionsSource,
+                             partialConditionsFields, writtenObservationTime, forecastSources, forecastError,
+                             forecastsUpdated);
       }
    }
-}
\ No newline at end of file
+}
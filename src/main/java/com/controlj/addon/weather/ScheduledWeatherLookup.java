@@ -23,16 +23,20 @@ package com.controlj.addon.weather;
 
 import com.controlj.addon.weather.config.ConfigData;
 import com.controlj.addon.weather.config.ConfigDataFactory;
-import com.controlj.addon.weather.config.WeatherConfigEntry;
+import com.controlj.addon.weather.noaa.StationCatalog;
+import com.controlj.addon.weather.service.WeatherService;
+import com.controlj.addon.weather.service.WeatherServiceException;
+import com.controlj.addon.weather.service.WeatherServiceRegistry;
 import com.controlj.addon.weather.util.Logging;
-import com.controlj.green.addonsupport.LicensedFeatures;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.io.File;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -40,28 +44,60 @@ import java.util.concurrent.atomic.AtomicReference;
  * updating the associated control program and/or storing that data for later use on graphics
  * pages.  This class implements ServletContextListener so that it can be started up when the
  * web server starts.
+ * <p/>
+ * An {@link UpdateScheduler} keeps track of when each entry is next due and hands the updates to a
+ * pool of update threads.  Requests to the weather service are limited by a
+ * {@link com.controlj.addon.weather.util.RequestThrottle} per service, so the upstream server sees a
+ * smooth, polite load no matter how many entries are configured.  The fetched data is written into the
+ * equipment by a {@link WriteBehindQueue} with its own thread.
  */
 public class ScheduledWeatherLookup implements ServletContextListener {
     private static final AtomicReference<ScheduledWeatherLookup> ref = new AtomicReference<ScheduledWeatherLookup>();
-    private ScheduledExecutorService scheduledExecutorService;
-    private ScheduledFuture<?> conditionsUpdateFuture;
-    private ScheduledFuture<?> forecastsUpdateFuture;
+    private static final int WRITE_QUEUE_CAPACITY = 500;
+    private static final int WRITE_THREADS = 1;
+    private static final String TEMP_DIR_ATTRIBUTE = "javax.servlet.context.tempdir";
+    private ThreadPoolExecutor updateExecutor;
+    private WriteBehindQueue writeQueue;
+    private UpdateScheduler scheduler;
+    private Thread schedulerThread;
 
     /**
      * Starts the scheduled update of weather information when the context starts.
      */
     //@Override
     public synchronized void contextInitialized(ServletContextEvent sce) {
+        // the servlet container gives each web application (so each add-on) a directory of its own
+        StationCatalog.getSingleton().setDataDir((File) sce.getServletContext().getAttribute(TEMP_DIR_ATTRIBUTE));
         if (!Licensing.isLicensed()) {
             return;
         }
-        ref.set(this);
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        ConfigData configData = ConfigDataFactory.getSharedConfigData();
+        preloadStations(configData);
+
+        int threads = configData.getUpdateThreads();
+        updateExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new UpdateThreadFactory());
 
-        ConfigData configData = ConfigDataFactory.loadConfigData();
         int conditionsRefresh = configData.getConditionsRefreshInMinutes();
         int forecastsRefresh = configData.getForecastsRefreshInMinutes();
-        rescheduleUpdates(1, conditionsRefresh, forecastsRefresh);
+        logRefreshRates(conditionsRefresh, forecastsRefresh);
+        writeQueue = new WriteBehindQueue(WRITE_QUEUE_CAPACITY, WRITE_THREADS);
+        scheduler = new UpdateScheduler(updateExecutor, writeQueue, conditionsRefresh, forecastsRefresh);
+
+        schedulerThread = new Thread(scheduler, "Weather update scheduler");
+        schedulerThread.setDaemon(true);
+        schedulerThread.start();
+        ref.set(this);
+    }
+
+    private void preloadStations(ConfigData configData) {
+        try {
+            WeatherService service = configData.getWeatherService();
+            if (service instanceof com.controlj.addon.weather.noaa.WeatherServiceImpl)
+                ((com.controlj.addon.weather.noaa.WeatherServiceImpl) service).preloadStations();
+        } catch (WeatherServiceException e) {
+            Logging.println("Error loading weather station list", e);
+        }
     }
 
     /**
@@ -70,78 +106,50 @@ public class ScheduledWeatherLookup implements ServletContextListener {
      */
     //@Override
     public synchronized void contextDestroyed(ServletContextEvent sce) {
-        scheduledExecutorService.shutdownNow();
+        if (schedulerThread != null)
+            schedulerThread.interrupt();
+        if (updateExecutor != null)
+            updateExecutor.shutdownNow();
+        if (writeQueue != null)
+            writeQueue.shutdown();
+        WeatherServiceRegistry.getSingleton().shutdown();
     }
 
+    /**
+     * Applies new refresh rates.  Updates already scheduled are moved to match the new rates, measured
+     * from when each entry was last updated.
+     */
     public static void rescheduleUpdates(int conditionsRefresh, int forecastsRefresh) {
-        ref.get().rescheduleUpdates(1, conditionsRefresh, forecastsRefresh);
+        ScheduledWeatherLookup lookup = ref.get();
+        if (lookup != null) {
+            logRefreshRates(conditionsRefresh, forecastsRefresh);
+            lookup.scheduler.setRefreshRates(conditionsRefresh, forecastsRefresh);
+        }
     }
 
     /**
-     * Stops any running updates and reschedules them based on the current saved configuration data.
-     * The updates have an initial delay as specified.
+     * Returns the queue that writes the scheduled updates into the equipment, or null if the scheduled updates
+     * aren't running.
      */
-    private synchronized void rescheduleUpdates(int initialDelay, int conditionsRefresh, int forecastsRefresh) {
-        if (conditionsUpdateFuture != null)
-            conditionsUpdateFuture.cancel(false);
-        if (forecastsUpdateFuture != null)
-            forecastsUpdateFuture.cancel(false);
-
-        Logging.println("Starting scheduled update of weather information:");
-
-        Logging.println("    current conditions updated at a fixed rate of every " + conditionsRefresh + " minutes");
-        conditionsUpdateFuture = scheduledExecutorService.scheduleAtFixedRate(new ConditionsUpdate(), initialDelay * 60, conditionsRefresh * 60, TimeUnit.SECONDS);
-
-        Logging.println("    forecasts updated at a fixed rate of every " + forecastsRefresh + " minutes");
-        forecastsUpdateFuture = scheduledExecutorService.scheduleAtFixedRate(new ForecastsUpdate(), initialDelay * 60, forecastsRefresh * 60, TimeUnit.SECONDS);
+    public static WriteBehindQueue getWriteQueue() {
+        ScheduledWeatherLookup lookup = ref.get();
+        return lookup == null ? null : lookup.writeQueue;
     }
 
-    private static class ConditionsUpdate implements Runnable {
-        //@Override
-        public void run() {
-            try {
-                ConfigData configData = ConfigDataFactory.loadConfigData();
-                WeatherLookup weatherLookup = new WeatherLookup(configData);
-                for (WeatherConfigEntry entry : configData.getList()) {
-                    try {
-                        EquipmentHandler handler = new EquipmentHandler(configData.getSystemConn(), entry.getCpPath());
-                        if (handler.hasFieldsToWrite())
-                            weatherLookup.lookupConditionsData(entry, true);
-                    } catch (Exception e) {
-                        if (e.getMessage().equals("Missing station content"))
-                            Logging.println("Conditions data missing station content for entry " + entry);
-                        else
-                            Logging.println("Error writing conditions data for entry " + entry, e);
-                    }
-
-                    Thread.sleep(2000);
-                }
-            } catch (InterruptedException ignored) {
-                // we must be being rescheduled, so just return from the run()
-            }
-        }
+    private static void logRefreshRates(int conditionsRefresh, int forecastsRefresh) {
+        Logging.println("Scheduled update of weather information:");
+        Logging.println("    current conditions updated every " + conditionsRefresh + " minutes");
+        Logging.println("    forecasts updated every " + forecastsRefresh + " minutes");
     }
 
-    private static class ForecastsUpdate implements Runnable {
-        //@Override
-        public void run() {
-            try {
-                ConfigData configData = ConfigDataFactory.loadConfigData();
-                WeatherLookup weatherLookup = new WeatherLookup(configData);
-                for (WeatherConfigEntry entry : configData.getList()) {
-                    try {
-                        EquipmentHandler handler = new EquipmentHandler(configData.getSystemConn(), entry.getCpPath());
-                        if (handler.hasFieldsToWrite())
-                            weatherLookup.lookupForecastsData(entry, true);
-                    } catch (Exception e) {
-                        Logging.println("Error writing forecasts data for entry " + entry, e);
-                    }
+    private static class UpdateThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
 
-                    Thread.sleep(2000);
-                }
-            } catch (InterruptedException ignored) {
-                // we must be being rescheduled, so just return from the run()
-            }
+        //@Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Weather update " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.service.WeatherServiceException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one lookup at a time for each key.  A caller that asks for a key while a lookup for it is already
+ * running waits for that lookup and gets its result (or its exception) instead of running its own.  Unlike a
+ * {@link FetchCoalescer}, nothing is kept once the lookup has finished, so the next caller runs a new lookup.
+ */
+final class SingleFlight {
+    private final ConcurrentMap<String, FutureTask<Object>> running = new ConcurrentHashMap<String, FutureTask<Object>>();
+    private final AtomicLong shared = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    <T> T run(String key, final FetchCoalescer.Fetch<T> lookup) throws WeatherServiceException {
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            //@Override
+            public Object call() throws Exception {
+                return lookup.fetch();
+            }
+        });
+
+        FutureTask<Object> existing = running.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                running.remove(key, task);
+            }
+        } else {
+            shared.incrementAndGet();
+            task = existing;
+        }
+        return (T) FetchCoalescer.getResult(task);
+    }
+
+    /**
+     * Returns the number of callers that shared another caller's lookup.
+     */
+    long getSharedCount() {
+        return shared.get();
+    }
+}
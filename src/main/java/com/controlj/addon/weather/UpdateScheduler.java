@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.config.ConfigData;
+import com.controlj.addon.weather.config.ConfigDataFactory;
+import com.controlj.addon.weather.config.WeatherConfigEntry;
+import com.controlj.addon.weather.service.WeatherServiceException;
+import com.controlj.addon.weather.service.WeatherServiceRegistry;
+import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestThrottle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Keeps a queue of the next due time for the conditions and forecasts update of every config entry and hands
+ * each update to the update pool when it comes due.  After an update completes, the next one for the same entry
+ * is due one refresh period later (the entry's own rate if it has one, otherwise the configured rate).
+ * <p/>
+ * To keep the load on the weather service smooth, the period is stretched or shrunk by up to
+ * {@link #JITTER} depending on the entry's station, so updates for different stations drift apart instead of all
+ * firing together.  Entries that share a station get the same adjustment, so they stay aligned and are updated in
+ * the same batch, where they share a single request through a {@link FetchCoalescer}.  Forecasts that come due
+ * within {@link #FORECAST_BATCH_AHEAD} of their period are also brought forward into a batch that has forecasts,
+ * because services that support it can return the forecasts for all the batch's stations in one request.
+ * <p/>
+ * Changing the refresh rates only moves the due times of the pending updates, measured from when each entry was
+ * last updated; nothing is cancelled or restarted.  The configuration version is checked every
+ * {@link #SYNC_INTERVAL} milliseconds, and the configuration re-read if it has been saved, to pick up entries that
+ * were added or removed.
+ * <p/>
+ * The update threads only fetch the weather data; it is written into the equipment by a {@link WriteBehindQueue}, so
+ * a busy database doesn't hold up the fetches.
+ */
+class UpdateScheduler implements Runnable {
+    private static final long INITIAL_DELAY = 60000;
+    private static final long STARTUP_SPREAD = 5 * 60000;
+    private static final long SYNC_INTERVAL = 60000;
+    private static final long ERROR_PAUSE = 5000;
+    private static final long BATCH_WINDOW = 2000;
+    private static final double JITTER = 0.05;
+    private static final double FORECAST_BATCH_AHEAD = 0.1;
+
+    enum Kind { conditions, forecasts }
+
+    private final ThreadPoolExecutor updateExecutor;
+    private final WriteBehindQueue writeQueue;
+    private final PriorityQueue<Update> queue = new PriorityQueue<Update>();
+    private final Map<String, Update> updates = new HashMap<String, Update>();
+    private ConfigData configData;
+    private int conditionsRefreshInMinutes;
+    private int forecastsRefreshInMinutes;
+    private long nextSync;
+    private boolean fallingBehind;
+
+    UpdateScheduler(ThreadPoolExecutor updateExecutor, WriteBehindQueue writeQueue, int conditionsRefreshInMinutes,
+                    int forecastsRefreshInMinutes) {
+        this.updateExecutor = updateExecutor;
+        this.writeQueue = writeQueue;
+        this.conditionsRefreshInMinutes = conditionsRefreshInMinutes;
+        this.forecastsRefreshInMinutes = forecastsRefreshInMinutes;
+    }
+
+    /**
+     * Changes the configured refresh rates.  Pending updates are moved to one new period after the entry was last
+     * updated (or left alone if the entry has its own rate).
+     */
+    synchronized void setRefreshRates(int conditionsRefreshInMinutes, int forecastsRefreshInMinutes) {
+        this.conditionsRefreshInMinutes = conditionsRefreshInMinutes;
+        this.forecastsRefreshInMinutes = forecastsRefreshInMinutes;
+
+        List<Update> pending = new ArrayList<Update>(queue);
+        queue.clear();
+        for (Update update : pending) {
+            if (update.lastStart != 0)
+                update.due = update.lastStart + getPeriod(update);
+            queue.add(update);
+        }
+        notifyAll();
+    }
+
+    //@Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (isSyncDue()) {
+                        if (isConfigChanged())
+                            sync(ConfigDataFactory.getSharedConfigData());
+                        else
+                            syncDone();
+                    }
+
+                    List<Update> batch = takeDueUpdates();
+                    if (!batch.isEmpty())
+                        dispatch(batch);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (RejectedExecutionException ignored) {
+                    return; // the update pool has been shut down
+                } catch (Exception e) {
+                    // one failure (reading the configuration, say) mustn't stop the updates for good
+                    Logging.println("Error scheduling weather updates", e);
+                    syncDone();
+                    Thread.sleep(ERROR_PAUSE);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // we are being shut down
+        }
+    }
+
+    private synchronized boolean isSyncDue() {
+        return System.currentTimeMillis() >= nextSync;
+    }
+
+    /**
+     * Returns true if the configuration has been saved since it was last synced.
+     */
+    private synchronized boolean isConfigChanged() {
+        return configData == null || configData.getVersion() != ConfigDataFactory.getVersion();
+    }
+
+    private synchronized void syncDone() {
+        nextSync = System.currentTimeMillis() + SYNC_INTERVAL;
+    }
+
+    /**
+     * Brings the queue in line with the entries in the configuration, scheduling any new entries and dropping
+     * any that have been removed.
+     */
+    private void sync(ConfigData newConfigData) {
+        resizeUpdateExecutor(newConfigData.getUpdateThreads());
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            boolean starting = configData == null;
+            configData = newConfigData;
+            nextSync = now + SYNC_INTERVAL;
+
+            Set<String> current = new HashSet<String>();
+            for (WeatherConfigEntry entry : newConfigData.getList()) {
+                for (Kind kind : Kind.values()) {
+                    String id = kind + ":" + entry.getCpPath();
+                    current.add(id);
+
+                    Update update = updates.get(id);
+                    if (update == null) {
+                        update = new Update(id, entry.getCpPath(), kind);
+                        update.jitter = getJitter(entry);
+                        long spread = Math.min(getPeriod(update), STARTUP_SPREAD);
+                        update.due = now + (starting ? INITIAL_DELAY : 0) + (long) ((update.jitter + 1) / 2 * spread);
+                        updates.put(id, update);
+                        queue.add(update);
+                    } else {
+                        // the station or the entry's own rate may have changed
+                        update.jitter = getJitter(entry);
+                        if (!update.running && update.lastStart != 0) {
+                            queue.remove(update);
+                            update.due = update.lastStart + getPeriod(update);
+                            queue.add(update);
+                        }
+                    }
+                }
+            }
+
+            for (Iterator<Map.Entry<String, Update>> it = updates.entrySet().iterator(); it.hasNext();) {
+                Update update = it.next().getValue();
+                if (!current.contains(update.id)) {
+                    queue.remove(update);
+                    it.remove();
+                }
+            }
+        }
+
+        List<String> cpPaths = new ArrayList<String>();
+        for (WeatherConfigEntry entry : newConfigData.getList())
+            cpPaths.add(entry.getCpPath());
+        EquipmentBindingPlan.retain(cpPaths);
+        RuntimeInformation.getSingleton().retain(cpPaths);
+    }
+
+    /**
+     * Waits until either updates come due or the configuration needs to be re-read.  Returns the updates that are
+     * due (along with any that are due within {@link #BATCH_WINDOW} so they can share fetches), or an empty list if
+     * it is time to re-read the configuration.
+     */
+    private synchronized List<Update> takeDueUpdates() throws InterruptedException {
+        List<Update> batch = new ArrayList<Update>();
+        long now = System.currentTimeMillis();
+        Update head = queue.peek();
+        long wakeAt = head == null ? nextSync : Math.min(nextSync, head.due);
+        if (wakeAt > now) {
+            wait(wakeAt - now);
+            return batch;
+        }
+
+        if (head != null && now - head.due > getPeriod(head)) {
+            if (!fallingBehind)
+                Logging.println("Weather updates are falling behind, consider increasing the number of update threads or the refresh rates");
+            fallingBehind = true;
+        } else {
+            fallingBehind = false;
+        }
+
+        boolean hasForecasts = false;
+        while (head != null && head.due <= now + BATCH_WINDOW) {
+            queue.poll();
+            start(head, now, batch);
+            hasForecasts |= head.kind == Kind.forecasts;
+            head = queue.peek();
+        }
+
+        // forecasts for several stations can be fetched with a single request, so pull in the forecasts that
+        // would come due soon anyway rather than making a separate request for each of them
+        if (hasForecasts) {
+            for (Iterator<Update> it = queue.iterator(); it.hasNext();) {
+                Update update = it.next();
+                if (update.kind == Kind.forecasts && update.due <= now + getPeriod(update) * FORECAST_BATCH_AHEAD) {
+                    it.remove();
+                    start(update, now, batch);
+                }
+            }
+        }
+        return batch;
+    }
+
+    private void start(Update update, long now, List<Update> batch) {
+        update.running = true;
+        update.started = now;
+        batch.add(update);
+    }
+
+    private void dispatch(List<Update> batch) {
+        // if the batch can't all be handed to the update pool, the rest are put back in the queue for their next period
+        List<Update> notStarted = new ArrayList<Update>(batch);
+        try {
+            dispatch(batch, notStarted);
+        } finally {
+            for (Update update : notStarted)
+                completed(update);
+        }
+    }
+
+    private void dispatch(List<Update> batch, List<Update> notStarted) {
+        final ConfigData batchConfigData;
+        synchronized (this) {
+            batchConfigData = configData;
+        }
+        FetchCoalescer coalescer = new FetchCoalescer();
+        final WeatherLookup weatherLookup = new WeatherLookup(batchConfigData, getThrottle(batchConfigData), coalescer, writeQueue);
+
+        final List<WeatherConfigEntry> forecastEntries = new ArrayList<WeatherConfigEntry>();
+        for (Update update : batch) {
+            WeatherConfigEntry entry = batchConfigData.getEntryForCpPath(update.cpPath);
+            if (entry != null && update.kind == Kind.forecasts)
+                forecastEntries.add(entry);
+        }
+
+        // queued ahead of the entry updates, so the forecasts are being fetched before they need them (entries
+        // without forecast points are included, they only add a point to the request)
+        if (forecastEntries.size() > 1) {
+            updateExecutor.execute(new Runnable() {
+                //@Override
+                public void run() {
+                    try {
+                        weatherLookup.prefetchForecasts(forecastEntries);
+                    } catch (WeatherServiceException ignored) {
+                        // handed to the entry updates, which report it
+                    } catch (Exception e) {
+                        Logging.println("Error reading forecasts for " + forecastEntries.size() + " entries", e);
+                    }
+                }
+            });
+        }
+
+        for (final Update update : batch) {
+            final WeatherConfigEntry entry = batchConfigData.getEntryForCpPath(update.cpPath);
+            if (entry == null)
+                continue;   // completed along with any not started
+
+            updateExecutor.execute(new Runnable() {
+                //@Override
+                public void run() {
+                    try {
+                        // only read what the equipment has points for: conditions are skipped without wc_ points
+                        // and forecasts without wfN_ points (the station data is still written)
+                        EquipmentHandler handler = new EquipmentHandler(batchConfigData, entry.getCpPath());
+                        if (handler.hasFieldsToWrite()) {
+                            if (update.kind == Kind.conditions) {
+                                if (handler.getBoundFields().hasConditionsFields())
+                                    weatherLookup.lookupConditionsData(entry, true, handler);
+                            } else {
+                                weatherLookup.lookupForecastsData(entry, true, handler);
+                            }
+                        }
+                    } catch (Exception e) {
+                        logError(update.kind, entry, e);
+                    } finally {
+                        completed(update);
+                    }
+                }
+            });
+            notStarted.remove(update);
+        }
+    }
+
+    private synchronized void completed(Update update) {
+        update.running = false;
+        update.lastStart = update.started;
+        if (updates.get(update.id) == update) {
+            update.due = update.lastStart + getPeriod(update);
+            queue.add(update);
+            notifyAll();
+        }
+    }
+
+    private void logError(Kind kind, WeatherConfigEntry entry, Exception e) {
+        if (kind == Kind.conditions) {
+            if ("Missing station content".equals(e.getMessage()))
+                Logging.println("Conditions data missing station content for entry " + entry);
+            else
+                Logging.println("Error writing conditions data for entry " + entry, e);
+        } else {
+            Logging.println("Error writing forecasts data for entry " + entry, e);
+        }
+    }
+
+    /**
+     * Returns the time between updates in milliseconds, including the station's jitter.  Must be called with the
+     * lock held.
+     */
+    private long getPeriod(Update update) {
+        int minutes = update.kind == Kind.conditions ? conditionsRefreshInMinutes : forecastsRefreshInMinutes;
+        WeatherConfigEntry entry = configData == null ? null : configData.getEntryForCpPath(update.cpPath);
+        if (entry != null) {
+            int entryMinutes = update.kind == Kind.conditions ? entry.getConditionsRefreshInMinutes() : entry.getForecastsRefreshInMinutes();
+            if (entryMinutes > 0)
+                minutes = entryMinutes;
+        }
+        return (long) (Math.max(minutes, 1) * 60000L * (1 + JITTER * update.jitter));
+    }
+
+    /**
+     * Returns a value from -1 to 1 that is fixed for a station, so that all entries for a station get the same
+     * jitter.
+     */
+    private static double getJitter(WeatherConfigEntry entry) {
+        String key = entry.getStationSource() != null && entry.getStationSource().getId() != null ?
+                entry.getStationSource().getId() : entry.getCpPath();
+        return (key.hashCode() & 0xffff) / (double) 0x8000 - 1;
+    }
+
+    /**
+     * Returns the throttle for the configured service, replacing it if the configured limits have changed.
+     * Conditions and forecasts share the same throttle, so the limits apply to the service as a whole.
+     */
+    private RequestThrottle getThrottle(ConfigData configData) {
+        return WeatherServiceRegistry.getSingleton().getThrottle(configData.getWeatherServiceEnum(),
+                configData.getMaxConcurrentRequests(), configData.getRequestSpacingMillis());
+    }
+
+    private void resizeUpdateExecutor(int threads) {
+        synchronized (updateExecutor) {
+            if (threads > updateExecutor.getMaximumPoolSize()) {
+                updateExecutor.setMaximumPoolSize(threads);
+                updateExecutor.setCorePoolSize(threads);
+            } else if (threads < updateExecutor.getMaximumPoolSize()) {
+                updateExecutor.setCorePoolSize(threads);
+                updateExecutor.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
+    /**
+     * One kind of update for one config entry.  Identity (not the id) is used for equality, so an update
+     * that was removed from the configuration while running can be recognized when it completes.
+     */
+    private static class Update implements Comparable<Update> {
+        private final String id;
+        private final String cpPath;
+        private final Kind kind;
+        private double jitter;
+        private long due;
+        private long started;
+        private long lastStart;
+        private boolean running;
+
+        private Update(String id, String cpPath, Kind kind) {
+            this.id = id;
+            this.cpPath = cpPath;
+            this.kind = kind;
+        }
+
+        //@Override
+        public int compareTo(Update other) {
+            return due < other.due ? -1 : (due == other.due ? 0 : 1);
+        }
+    }
+}
@@ -23,24 +23,86 @@ package com.controlj.addon.weather;
 
 import com.controlj.addon.weather.config.ConfigData;
 import com.controlj.addon.weather.config.WeatherConfigEntry;
+import com.controlj.addon.weather.data.ConditionsField;
 import com.controlj.addon.weather.data.ConditionsSource;
 import com.controlj.addon.weather.data.ForecastSource;
+import com.controlj.addon.weather.data.StationSource;
+import com.controlj.addon.weather.service.BatchForecastService;
+import com.controlj.addon.weather.service.SelectiveConditionsService;
 import com.controlj.addon.weather.service.WeatherService;
 import com.controlj.addon.weather.service.WeatherServiceException;
 import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestThrottle;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WeatherLookup {
+    private static final SingleFlight lookups = new SingleFlight();
+    private static final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+    private static final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(0, 2, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                //@Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Weather refresh " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final AtomicLong staleCount = new AtomicLong();
+
     private final ConfigData configData;
+    private final RequestThrottle throttle;
+    private final FetchCoalescer coalescer;
+    private final WriteBehindQueue writeQueue;
 
     public WeatherLookup(ConfigData configData) {
+        this(configData, null, null);
+    }
+
+    /**
+     * Creates a lookup whose requests to the weather service are limited by the given throttle and, if a
+     * coalescer is given, shared with any other entries for the same station.  Only the service request is
+     * throttled or shared, writing the results into the equipment is still done for every entry.
+     */
+    public WeatherLookup(ConfigData configData, RequestThrottle throttle, FetchCoalescer coalescer) {
+        this(configData, throttle, coalescer, null);
+    }
+
+    /**
+     * Creates a lookup as above that, if a write queue is given, hands the data to the queue to be written into the
+     * equipment instead of writing it itself.  The lookup then returns before the data is written, and write errors
+     * are reported to the runtime information when the queue gets to it.
+     */
+    WeatherLookup(ConfigData configData, RequestThrottle throttle, FetchCoalescer coalescer, WriteBehindQueue writeQueue) {
         this.configData = configData;
+        this.throttle = throttle;
+        this.coalescer = coalescer;
+        this.writeQueue = writeQueue;
     }
 
     /**
      * Reads weather conditions data from the WeatherService, inserts it into the associated control program
      * for the given entry (if any) and saves this data for later use by a view page.
+     * <p/>
+     * If the latest data has expired, but by no more than the configured
+     * {@link ConfigData#getMaxStaleMinutes maximum staleness}, it is returned right away and new data is read in the
+     * background.
      *
      * @param entry the config entry for which this update is occurring.
      * @param force if true, will lookup data even if the latest data has not yet expired.
@@ -48,32 +110,108 @@ public class WeatherLookup {
      * @throws WeatherServiceException if the data could not be read from the weather service.
      */
     public ConditionsSource lookupConditionsData(WeatherConfigEntry entry, boolean force) throws WeatherServiceException {
+        return lookupConditionsData(entry, force, null);
+    }
+
+    /**
+     * Reads weather conditions data from the WeatherService for writing into the given equipment, reading only the
+     * fields the equipment has points for if the service supports that (the result is then
+     * {@link ConditionsSource#isPartial partial}).
+     *
+     * @param entry the config entry for which this update is occurring.
+     * @param force if true, will lookup data even if the latest data has not yet expired.
+     * @param equipmentHandler the equipment for the entry, or null to read all fields.
+     * @return the conditions data read from the weather service.
+     * @throws WeatherServiceException if the data could not be read from the weather service.
+     */
+    public ConditionsSource lookupConditionsData(final WeatherConfigEntry entry, final boolean force, EquipmentHandler equipmentHandler) throws WeatherServiceException {
+        if (equipmentHandler != null)
+            return readConditionsData(entry, force, equipmentHandler);
+
+        // for the view pages: viewers of the same entry share one lookup (and one write into the equipment), and
+        // don't wait for it at all if the last data isn't too old
+        FetchCoalescer.Fetch<ConditionsSource> refresh = new FetchCoalescer.Fetch<ConditionsSource>() {
+            //@Override
+            public ConditionsSource fetch() throws WeatherServiceException {
+                return readConditionsData(entry, true, null);
+            }
+        };
+        String key = getLookupKey("conditions", entry);
+        if (!force) {
+            ConditionsSource conditionsData = RuntimeInformation.getSingleton().getLastConditionsData(entry);
+            if (conditionsData != null) {
+                Date updateTime = conditionsData.getUpdateTime();
+                if (updateTime.after(getConditionDataExpirary()))
+                    return conditionsData;
+                if (updateTime.after(getStaleLimit(getConditionDataExpirary()))) {
+                    refreshInBackground(key, refresh);
+                    return conditionsData;
+                }
+            }
+        }
+        return lookups.run(key, refresh);
+    }
+
+    private ConditionsSource readConditionsData(final WeatherConfigEntry entry, boolean force, EquipmentHandler equipmentHandler) throws WeatherServiceException {
         RuntimeInformation rti = RuntimeInformation.getSingleton();
+        final Set<ConditionsField> fields = equipmentHandler == null ? null : equipmentHandler.getBoundFields().getConditionsFields();
         if (!force) {
-            ConditionsSource conditionsData = rti.getLastConditionsData(entry);
+            // partial data is only used if it was read for all the fields the equipment has points for now
+            ConditionsSource conditionsData = fields == null ? rti.getLastConditionsData(entry) : rti.getLastConditionsData(entry, fields);
             if (conditionsData != null && conditionsData.getUpdateTime().after(getConditionDataExpirary()))
                 return conditionsData;
         }
 
         ConditionsSource conditionsSource = null;
+        boolean isPartial = false;
         try {
-            WeatherService weatherService = configData.getWeatherService();
-            conditionsSource = weatherService.getConditionsSource(configData.getServiceConfigData(),
-                    entry.getStationSource(), entry.getServiceEntryData());
+            final WeatherService weatherService = configData.getWeatherService();
+            isPartial = fields != null && weatherService instanceof SelectiveConditionsService &&
+                    ((SelectiveConditionsService) weatherService).isPartial(fields);
+            // entries for the same station only share partial data read for the same fields
+            conditionsSource = fetch(isPartial ? "partial conditions " + fields : "conditions", entry, new FetchCoalescer.Fetch<ConditionsSource>() {
+                //@Override
+                public ConditionsSource fetch() throws WeatherServiceException {
+                    if (fields != null && weatherService instanceof SelectiveConditionsService)
+                        return ((SelectiveConditionsService) weatherService).getConditionsSource(configData.getServiceConfigData(),
+                                entry.getStationSource(), entry.getServiceEntryData(), fields);
+                    return weatherService.getConditionsSource(configData.getServiceConfigData(),
+                            entry.getStationSource(), entry.getServiceEntryData());
+                }
+            });
 
-            String errorMessage = null;
-            try {
-                EquipmentHandler equipmentHandler = new EquipmentHandler(configData.getSystemConn(), entry.getCpPath());
-                equipmentHandler.writeConditionsData(conditionsSource);
-            } catch (EquipmentWriteException e) {
-                Logging.println("Error writing current conditions to CP " + entry.getCpPath(), e);
-                errorMessage = "Error writing data";
-            }
+            // partial data is kept apart, so it doesn't replace the full data the view pages use
+            if (conditionsSource.isPartial())
+                rti.updatePartialConditionsData(entry, conditionsSource, fields, null);
+            else
+                rti.updateConditionsData(entry, conditionsSource, null);
 
-            RuntimeInformation.getSingleton().updateConditionsData(entry, conditionsSource, errorMessage);
+            // the service usually only has a new observation about once an hour, so don't tie up the
+            // database with a write transaction if this is the same observation we wrote last time
+            final Date observationTime = conditionsSource.getObservationTime();
+            if (!rti.isObservationWritten(entry, observationTime)) {
+                final ConditionsSource written = conditionsSource;
+                write(entry, equipmentHandler, null, conditionsSource, null, new WriteBehindQueue.Completion() {
+                    //@Override
+                    public void completed(EquipmentWriteException e) {
+                        RuntimeInformation rti = RuntimeInformation.getSingleton();
+                        if (e == null) {
+                            rti.setObservationWritten(entry, observationTime);
+                        } else {
+                            Logging.println("Error writing current conditions to CP " + entry.getCpPath(), e);
+                            rti.setObservationWritten(entry, null);
+                            rti.updateConditionsError(entry, written, "Error writing data");
+                        }
+                    }
+                });
+            }
             return conditionsSource;
         } catch (WeatherServiceException e) {
-            RuntimeInformation.getSingleton().updateConditionsData(entry, null, "Error reading data");
+            // a failed partial read only drops the partial data, the full data the view pages use is kept
+            if (isPartial)
+                rti.updatePartialConditionsData(entry, null, fields, "Error reading data");
+            else
+                rti.updateConditionsData(entry, null, "Error reading data");
             throw e;
         }
     }
@@ -81,6 +219,8 @@ public class WeatherLookup {
     /**
      * Reads weather forecast data from the WeatherService, inserts it into the associated control program
      * for the given entry (if any) and saves this data for later use by a view page.
+     * <p/>
+     * Expired data is returned while new data is read in the background, as for {@link #lookupConditionsData}.
      *
      * @param entry the config entry for which this update is occurring.
      * @param force if true, will lookup data even if the latest data has not yet expired.
@@ -88,6 +228,57 @@ public class WeatherLookup {
      * @throws WeatherServiceException if the data could not be read from the weather service.
      */
     public ForecastSource[] lookupForecastsData(WeatherConfigEntry entry, boolean force) throws WeatherServiceException {
+        return lookupForecastsData(entry, force, null);
+    }
+
+    /**
+     * Reads weather forecast data from the WeatherService for writing into the given equipment.  If the equipment
+     * has no forecast points, nothing is read and only the station data is written.
+     *
+     * @param entry the config entry for which this update is occurring.
+     * @param force if true, will lookup data even if the latest data has not yet expired.
+     * @param equipmentHandler the equipment for the entry, or null to always read the forecasts.
+     * @return the forecast data read from the weather service, or null if the equipment has no forecast points.
+     * @throws WeatherServiceException if the data could not be read from the weather service.
+     */
+    public ForecastSource[] lookupForecastsData(final WeatherConfigEntry entry, final boolean force, EquipmentHandler equipmentHandler) throws WeatherServiceException {
+        if (equipmentHandler != null)
+            return readForecastsData(entry, force, equipmentHandler);
+
+        FetchCoalescer.Fetch<ForecastSource[]> refresh = new FetchCoalescer.Fetch<ForecastSource[]>() {
+            //@Override
+            public ForecastSource[] fetch() throws WeatherServiceException {
+                return readForecastsData(entry, true, null);
+            }
+        };
+        String key = getLookupKey("forecasts", entry);
+        if (!force) {
+            ForecastSource[] forecastData = RuntimeInformation.getSingleton().getLastForecastData(entry);
+            if (forecastData != null) {
+                Date updateTime = forecastData[0].getUpdateTime();
+                if (updateTime.after(getForecastDataExpirary()))
+                    return forecastData;
+                if (updateTime.after(getStaleLimit(getForecastDataExpirary()))) {
+                    refreshInBackground(key, refresh);
+                    return forecastData;
+                }
+            }
+        }
+        return lookups.run(key, refresh);
+    }
+
+    private ForecastSource[] readForecastsData(final WeatherConfigEntry entry, boolean force, EquipmentHandler equipmentHandler) throws WeatherServiceException {
+        if (equipmentHandler != null && !equipmentHandler.getBoundFields().hasForecastFields()) {
+            write(entry, equipmentHandler, entry.getStationSource(), null, null, new WriteBehindQueue.Completion() {
+                //@Override
+                public void completed(EquipmentWriteException e) {
+                    if (e != null)
+                        Logging.println("Error writing station data to CP " + entry.getCpPath(), e);
+                }
+            });
+            return null;
+        }
+
         RuntimeInformation rti = RuntimeInformation.getSingleton();
         if (!force) {
             ForecastSource[] forecastData = rti.getLastForecastData(entry);
@@ -96,24 +287,29 @@ public class WeatherLookup {
         }
 
         try {
-            WeatherService weatherService = configData.getWeatherService();
-            ForecastSource[] forecastSources = weatherService.getForecastSources(configData.getServiceConfigData(),
-                    entry.getStationSource(), entry.getServiceEntryData());
+            final WeatherService weatherService = configData.getWeatherService();
+            ForecastSource[] forecastSources = fetch("forecasts", entry, new FetchCoalescer.Fetch<ForecastSource[]>() {
+                //@Override
+                public ForecastSource[] fetch() throws WeatherServiceException {
+                    return weatherService.getForecastSources(configData.getServiceConfigData(),
+                            entry.getStationSource(), entry.getServiceEntryData());
+                }
+            });
 
-            String errorMessage = null;
-            try {
-                EquipmentHandler equipmentHandler = new EquipmentHandler(configData.getSystemConn(), entry.getCpPath());
-                equipmentHandler.writeForecastData(forecastSources);
-
-                // periodically push this just so that it's kept up to date in the module (in case the equipment is reset to definition
-                // defaults or recreated or something)
-                equipmentHandler.writeStationData(entry.getStationSource(), configData);
-            } catch (EquipmentWriteException e) {
-                Logging.println("Error writing forecast data to CP " + entry.getCpPath(), e);
-                errorMessage = "Error writing data";
-            }
+            RuntimeInformation.getSingleton().updateForecastData(entry, forecastSources, null);
 
-            RuntimeInformation.getSingleton().updateForecastData(entry, forecastSources, errorMessage);
+            // periodically push the station data along with the forecasts just so that it's kept up to date in the module
+            // (in case the equipment is reset to definition defaults or recreated or something)
+            final ForecastSource[] written = forecastSources;
+            write(entry, equipmentHandler, entry.getStationSource(), null, forecastSources, new WriteBehindQueue.Completion() {
+                //@Override
+                public void completed(EquipmentWriteException e) {
+                    if (e != null) {
+                        Logging.println("Error writing forecast data to CP " + entry.getCpPath(), e);
+                        RuntimeInformation.getSingleton().updateForecastError(entry, written, "Error writing data");
+                    }
+                }
+            });
             return forecastSources;
         } catch (WeatherServiceException e) {
             RuntimeInformation.getSingleton().updateForecastData(entry, null, "Error reading data");
@@ -121,6 +317,200 @@ public class WeatherLookup {
         }
     }
 
+    /**
+     * Returns the number of view page lookups that shared a lookup already running for the same entry.
+     */
+    public static long getSharedLookupCount() {
+        return lookups.getSharedCount();
+    }
+
+    /**
+     * Returns the number of view page lookups that were given expired data while new data was read in the
+     * background.
+     */
+    public static long getStaleLookupCount() {
+        return staleCount.get();
+    }
+
+    /**
+     * Forced and unforced lookups share a key on purpose: the shared lookup always reads from the weather service
+     * (only the check of the last data before it depends on force), so a forced caller that joins one still gets
+     * newly read data.
+     */
+    private static String getLookupKey(String dataKind, WeatherConfigEntry entry) {
+        return dataKind + " for " + entry.getCpPath();
+    }
+
+    /**
+     * Starts the given lookup on a background thread, unless one is already running for the key.  If the background
+     * threads are all busy, nothing is started and the next request for the data tries again.
+     */
+    private static void refreshInBackground(final String key, final FetchCoalescer.Fetch<?> refresh) {
+        staleCount.incrementAndGet();
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null)
+            return;
+
+        try {
+            refreshExecutor.execute(new Runnable() {
+                //@Override
+                public void run() {
+                    try {
+                        lookups.run(key, refresh);
+                    } catch (Exception e) {
+                        Logging.println("Error refreshing " + key, e);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Writes the given data (any of which may be null) into the entry's equipment, or hands it to the write queue if
+     * there is one, and tells the completion the outcome.
+     */
+    private void write(WeatherConfigEntry entry, EquipmentHandler equipmentHandler, StationSource stationSource,
+                       ConditionsSource conditionsSource, ForecastSource[] forecastSources, WriteBehindQueue.Completion completion) {
+        try {
+            if (equipmentHandler == null)
+                equipmentHandler = new EquipmentHandler(configData, entry.getCpPath());
+            if (writeQueue != null) {
+                writeQueue.submit(equipmentHandler, stationSource, conditionsSource, forecastSources, completion);
+                return;
+            }
+            equipmentHandler.writeData(stationSource, conditionsSource, forecastSources);
+        } catch (EquipmentWriteException e) {
+            completion.completed(e);
+            return;
+        }
+        completion.completed(null);
+    }
+
+    /**
+     * Fetches the forecasts for the given entries with as few requests as the weather service allows, handing the
+     * results to the coalescer so that the following {@link #lookupForecastsData} calls for these entries use them
+     * instead of making their own requests.  Does nothing unless the service supports batch requests, there is a
+     * coalescer and the entries cover more than one station.  Stations the batch doesn't return a forecast for are
+     * then requested individually.
+     */
+    public void prefetchForecasts(List<WeatherConfigEntry> entries) throws WeatherServiceException {
+        WeatherService weatherService = configData.getWeatherService();
+        if (coalescer == null || !(weatherService instanceof BatchForecastService))
+            return;
+
+        Map<FetchCoalescer.Key, WeatherConfigEntry> entriesByKey = new LinkedHashMap<FetchCoalescer.Key, WeatherConfigEntry>();
+        for (WeatherConfigEntry entry : entries) {
+            FetchCoalescer.Key key = getKey("forecasts", entry);
+            if (key != null && !entriesByKey.containsKey(key))
+                entriesByKey.put(key, entry);
+        }
+        if (entriesByKey.size() < 2)
+            return;
+
+        List<FetchCoalescer.Key> reserved = coalescer.reserve(entriesByKey.keySet());
+        try {
+            if (reserved.isEmpty())
+                return;
+
+            List<StationSource> stations = new ArrayList<StationSource>(reserved.size());
+            for (FetchCoalescer.Key key : reserved)
+                stations.add(entriesByKey.get(key).getStationSource());
+
+            Map<String, ForecastSource[]> forecasts;
+            acquireThrottle();
+            try {
+                forecasts = ((BatchForecastService) weatherService).getForecastSources(configData.getServiceConfigData(), stations);
+            } finally {
+                releaseThrottle();
+            }
+            coalescer.recordFetches(1);
+
+            for (FetchCoalescer.Key key : reserved) {
+                WeatherConfigEntry entry = entriesByKey.get(key);
+                ForecastSource[] forecastSources = forecasts.get(entry.getStationSource().getId());
+                if (forecastSources == null) {
+                    try {
+                        acquireThrottle();
+                        try {
+                            forecastSources = weatherService.getForecastSources(configData.getServiceConfigData(),
+                                    entry.getStationSource(), entry.getServiceEntryData());
+                        } finally {
+                            releaseThrottle();
+                        }
+                        coalescer.recordFetches(1);
+                    } catch (WeatherServiceException e) {
+                        coalescer.fail(key, e);
+                        continue;
+                    }
+                }
+                coalescer.complete(key, forecastSources);
+            }
+        } catch (WeatherServiceException e) {
+            for (FetchCoalescer.Key key : reserved)
+                coalescer.fail(key, e);
+            throw e;
+        } finally {
+            // never leave an entry waiting on a result that isn't coming (this does nothing to keys already done)
+            for (FetchCoalescer.Key key : reserved)
+                coalescer.fail(key, new WeatherServiceException("Batch forecast request did not complete"));
+        }
+    }
+
+    /**
+     * Performs the request to the weather service under the throttle, going through the coalescer (if any) so
+     * that entries for the same station share a single request.
+     */
+    private <T> T fetch(String dataKind, WeatherConfigEntry entry, final FetchCoalescer.Fetch<T> fetch) throws WeatherServiceException {
+        FetchCoalescer.Fetch<T> throttledFetch = new FetchCoalescer.Fetch<T>() {
+            //@Override
+            public T fetch() throws WeatherServiceException {
+                acquireThrottle();
+                try {
+                    return fetch.fetch();
+                } finally {
+                    releaseThrottle();
+                }
+            }
+        };
+
+        FetchCoalescer.Key key = getKey(dataKind, entry);
+        if (coalescer == null || key == null)
+            return throttledFetch.fetch();
+
+        return coalescer.get(key, throttledFetch);
+    }
+
+    /**
+     * Returns the key under which requests for the entry's station are shared, or null if the entry has no station.
+     */
+    private FetchCoalescer.Key getKey(String dataKind, WeatherConfigEntry entry) {
+        String stationId = entry.getStationSource() == null ? null : entry.getStationSource().getId();
+        if (stationId == null)
+            return null;
+
+        return new FetchCoalescer.Key(dataKind, configData.getWeatherServiceEnum(), stationId,
+                configData.getServiceConfigData());
+    }
+
+    private void acquireThrottle() throws WeatherServiceException {
+        if (throttle != null) {
+            try {
+                throttle.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WeatherServiceException("Interrupted while waiting to contact weather service", e);
+            }
+        }
+    }
+
+    private void releaseThrottle() {
+        if (throttle != null)
+            throttle.release();
+    }
+
     private Date getConditionDataExpirary() {
         return getDataExpirary(configData.getConditionsRefreshInMinutes());
     }
@@ -129,6 +519,13 @@ public class WeatherLookup {
         return getDataExpirary(configData.getForecastsRefreshInMinutes());
     }
 
+    /**
+     * Returns the time before which data that expired at the given time is too old to return while new data is read.
+     */
+    private Date getStaleLimit(Date expirary) {
+        return new Date(expirary.getTime() - configData.getMaxStaleMinutes() * 60000L);
+    }
+
     private Date getDataExpirary(int refreshInMinutes) {
         long refresh = refreshInMinutes * 60000;
         return new Date(System.currentTimeMillis() - refresh);
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather;
+
+import com.controlj.addon.weather.data.ConditionsSource;
+import com.controlj.addon.weather.data.ForecastSource;
+import com.controlj.addon.weather.data.StationSource;
+import com.controlj.addon.weather.util.Logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes weather data into the equipment on its own threads, so that the update threads can go on fetching
+ * weather data while the database is busy (and a slow fetch doesn't hold up writing the data already fetched).
+ * <p/>
+ * Data waiting to be written is kept per control program, and data submitted for a control program that is still
+ * waiting replaces the data of the same kind (latest wins), so a backlog never writes stale data.  The queue holds
+ * at most {@code capacity} control programs; submitting data for another one waits until there is room.  Data for a
+ * control program that is being written waits until that write is done, so the writes for a control program stay
+ * in order.
+ * <p/>
+ * If the configuration {@link com.controlj.addon.weather.config.ConfigData#isGroupWrites groups writes}, everything
+ * waiting when a drain thread becomes free (up to {@link #MAX_GROUP} control programs) is written in one write action.
+ * If that fails, each control program is written on its own so that one bad control program doesn't fail the
+ * others.
+ */
+public final class WriteBehindQueue {
+    /**
+     * Told the outcome of a write: null if the data was written, or the reason it couldn't be (including the queue
+     * being shut down before it was written).  Not told at all if the data was replaced by newer data before it was
+     * written.
+     */
+    interface Completion {
+        void completed(EquipmentWriteException e);
+    }
+
+    static final int MAX_GROUP = 50;
+
+    private final int capacity;
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private final Set<String> writing = new HashSet<String>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    WriteBehindQueue(int capacity, int drainThreads) {
+        this.capacity = Math.max(capacity, 1);
+        for (int i = 1; i <= Math.max(drainThreads, 1); i++) {
+            Thread thread = new Thread(new Runnable() {
+                //@Override
+                public void run() {
+                    drain();
+                }
+            }, "Weather write " + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues the given data (any of which may be null) for writing into the equipment, replacing any data of the
+     * same kind still waiting for the same control program.  Waits for room if the queue is full.  Once the queue
+     * has been shut down (or if interrupted while waiting), the data is written by the calling thread instead.
+     */
+    void submit(EquipmentHandler handler, StationSource stationSource, ConditionsSource conditionsSource,
+                ForecastSource[] forecastSources, Completion completion) {
+        String path = handler.getPath();
+        submitted.incrementAndGet();
+        boolean interrupted = false;
+        synchronized (this) {
+            if (running && !pending.containsKey(path) && pending.size() >= capacity) {
+                blocked.incrementAndGet();
+                while (running && !interrupted && !pending.containsKey(path) && pending.size() >= capacity) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (running && !interrupted) {
+                Pending update = pending.get(path);
+                if (update == null) {
+                    update = new Pending(handler);
+                    pending.put(path, update);
+                } else {
+                    coalesced.incrementAndGet();
+                }
+                update.add(handler, stationSource, conditionsSource, forecastSources, completion);
+                notifyAll();
+                return;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Pending update = new Pending(handler);
+        update.add(handler, stationSource, conditionsSource, forecastSources, completion);
+        write(Collections.singletonList(update));
+    }
+
+    /**
+     * Returns the number of control programs with data waiting to be written.
+     */
+    public synchronized int getDepth() { return pending.size(); }
+
+    /**
+     * Returns the number of submits that replaced (or added to) data already waiting for a control program.
+     */
+    public long getCoalescedCount() { return coalesced.get(); }
+
+    public long getSubmittedCount() { return submitted.get(); }
+
+    /**
+     * Returns the number of submits that had to wait for room in the queue.
+     */
+    public long getBlockedCount() { return blocked.get(); }
+
+    /**
+     * Returns the average time in milliseconds that data waited in the queue before being written.
+     */
+    public long getAverageWaitMillis() { return average(waitNanos); }
+
+    /**
+     * Returns the average time in milliseconds taken to write a control program's data.
+     */
+    public long getAverageWriteMillis() { return average(writeNanos); }
+
+    /**
+     * Stops the drain threads.  Data still waiting is not written, and the submitters are told so; later submits are
+     * written by the calling thread.
+     */
+    void shutdown() {
+        List<Pending> dropped;
+        synchronized (this) {
+            running = false;
+            dropped = new ArrayList<Pending>(pending.values());
+            pending.clear();
+            notifyAll();
+        }
+        for (Thread thread : threads)
+            thread.interrupt();
+
+        EquipmentWriteException stopped = new EquipmentWriteException("Weather data not written, the add-on was stopped");
+        for (Pending update : dropped)
+            update.complete(stopped);
+    }
+
+    private long average(AtomicLong nanos) {
+        long count = writes.get();
+        return count == 0 ? 0 : nanos.get() / count / 1000000;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                List<Pending> updates = take();
+                if (updates == null)
+                    return;
+                try {
+                    write(updates);
+                } catch (Exception e) {
+                    Logging.println("Error writing weather data", e);
+                } finally {
+                    synchronized (this) {
+                        for (Pending update : updates)
+                            writing.remove(update.handler.getPath());
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // shut down
+        }
+    }
+
+    /**
+     * Takes the oldest data whose control program isn't already being written, along with (if writes are grouped)
+     * any other such data.  Returns null once shut down.
+     */
+    private synchronized List<Pending> take() throws InterruptedException {
+        while (running) {
+            List<Pending> updates = new ArrayList<Pending>();
+            for (Iterator<Pending> it = pending.values().iterator(); it.hasNext() && updates.size() < MAX_GROUP; ) {
+                Pending update = it.next();
+                if (!writing.contains(update.handler.getPath()) &&
+                        (updates.isEmpty() || updates.get(0).isGroupWrites() && update.isGroupWrites())) {
+                    it.remove();
+                    writing.add(update.handler.getPath());
+                    updates.add(update);
+                    if (!update.isGroupWrites())
+                        break;
+                }
+            }
+            if (!updates.isEmpty()) {
+                notifyAll(); // there's room for waiting submits
+                return updates;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private void write(List<Pending> updates) {
+        long start = System.nanoTime();
+        for (Pending update : updates)
+            waitNanos.addAndGet(start - update.queued);
+
+        EquipmentWriteException groupException = null;
+        if (updates.size() > 1) {
+            List<EquipmentHandler.PendingWrite> pendingWrites = new ArrayList<EquipmentHandler.PendingWrite>();
+            for (Pending update : updates)
+                pendingWrites.addAll(update.getWrites());
+            try {
+                updates.get(0).handler.writeGroup(pendingWrites, "Updating weather data for " + updates.size() + " control programs");
+                for (Pending update : updates)
+                    update.complete(null);
+            } catch (EquipmentWriteException e) {
+                groupException = e;
+            }
+        }
+
+        if (updates.size() == 1 || groupException != null) {
+            for (Pending update : updates) {
+                try {
+                    update.handler.writeData(update.stationSource, update.conditionsSource, update.forecastSources);
+                    update.complete(null);
+                } catch (EquipmentWriteException e) {
+                    update.complete(e);
+                }
+            }
+        }
+
+        writes.addAndGet(updates.size());
+        writeNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * The data waiting to be written to one control program.  Each kind of data keeps the completion of the submit
+     * that supplied it (station data is usually submitted along with the forecasts, and then has no completion of
+     * its own).
+     */
+    private static class Pending {
+        private final long queued = System.nanoTime();
+        private EquipmentHandler handler;
+        private StationSource stationSource;
+        private ConditionsSource conditionsSource;
+        private ForecastSource[] forecastSources;
+        private Completion stationCompletion;
+        private Completion conditionsCompletion;
+        private Completion forecastCompletion;
+
+        private Pending(EquipmentHandler handler) {
+            this.handler = handler;
+        }
+
+        private void add(EquipmentHandler handler, StationSource stationSource, ConditionsSource conditionsSource,
+                         ForecastSource[] forecastSources, Completion completion) {
+            this.handler = handler; // the latest has the latest plan
+            if (stationSource != null)
+                this.stationSource = stationSource;
+            if (conditionsSource != null) {
+                this.conditionsSource = conditionsSource;
+                conditionsCompletion = completion;
+            }
+            if (forecastSources != null) {
+                this.forecastSources = forecastSources;
+                forecastCompletion = completion;
+            } else if (stationSource != null && conditionsSource == null) {
+                stationCompletion = completion;
+            }
+        }
+
+        private boolean isGroupWrites() {
+            return handler.getConfigData().isGroupWrites();
+        }
+
+        private List<EquipmentHandler.PendingWrite> getWrites() {
+            return handler.getWrites(stationSource, conditionsSource, forecastSources);
+        }
+
+        private void complete(EquipmentWriteException e) {
+            complete(stationCompletion, e);
+            complete(conditionsCompletion, e);
+            complete(forecastCompletion, e);
+        }
+
+        private static void complete(Completion completion, EquipmentWriteException e) {
+            if (completion == null)
+                return;
+            try {
+                completion.completed(e);
+            } catch (Exception ce) {
+                Logging.println("Error reporting the outcome of a weather data write", ce);
+            }
+        }
+    }
+}
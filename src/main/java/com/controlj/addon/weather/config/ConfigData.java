@@ -24,14 +24,14 @@ package com.controlj.addon.weather.config;
 import com.controlj.addon.weather.data.StationSource;
 import com.controlj.addon.weather.service.WeatherService;
 import com.controlj.addon.weather.service.WeatherServiceException;
-import com.controlj.addon.weather.service.WeatherServiceFactory;
+import com.controlj.addon.weather.service.WeatherServiceRegistry;
 import com.controlj.addon.weather.service.WeatherServices;
 import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestPolicy;
 import com.controlj.green.addonsupport.access.*;
 
 import java.util.*;
 import java.io.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Holds the configuration data for this add-on.  Get one of these from
@@ -39,14 +39,21 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class ConfigData {
     private static final String DATASTORE_NAME = "WeatherConfig";
-    private final AtomicReference<WeatherService> serviceRef = new AtomicReference<WeatherService>();
+    public static final int MAX_UPDATE_THREADS = 16;
     private final List<WeatherConfigEntry> list = new ArrayList<WeatherConfigEntry>();
     private final SystemConnection systemConn;
 
     private WeatherServices service = WeatherServices.nws; // the default is NWS
     private int conditionsRefreshInMinutes = 60;
     private int forecastsRefreshInMinutes = 120;
+    private int updateThreads = 4;
+    private int maxConcurrentRequests = 0;  // 0 means use the service default
+    private int requestSpacingMillis = -1;  // -1 means use the service default
+    private boolean groupWrites = false;
+    private int maxStaleMinutes = 60;
     private Map<String, String> serviceConfigData = new HashMap<String, String>();
+    private final Map<String, Float> deadbands = new HashMap<String, Float>();
+    private long version;
 
     ConfigData(SystemConnection systemConn) {
         this.systemConn = systemConn;
@@ -58,17 +65,39 @@ public class ConfigData {
     }
 
     /**
-     * Loads the configuration data from the datastore.  Called by {@link ConfigDataFactory}.
+     * Loads the configuration data from the datastore.
      *
      * @throws IOException if the datastore cannot be read.
      */
     public void load() throws IOException {
+        load(new ConfigSnapshot(readDatastore(systemConn), 0));
+    }
+
+    /**
+     * Loads the configuration data from a snapshot of the datastore.  Called by {@link ConfigDataFactory}.
+     *
+     * @throws IOException if the snapshot is not a supported version of the configuration data.
+     */
+    void load(ConfigSnapshot snapshot) throws IOException {
+        extractConfig(new ConfigProperties(snapshot.getProperties()));
+        version = snapshot.getVersion();
+    }
+
+    /**
+     * Returns the version of the saved configuration this was loaded from (see {@link ConfigSnapshot#getVersion}),
+     * or 0 if it was not loaded through the {@link ConfigDataFactory}.  Compare with
+     * {@link ConfigDataFactory#getVersion} to find out whether the configuration has been saved since.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    static Properties readDatastore(SystemConnection systemConn) throws IOException {
         try {
-            systemConn.runReadAction(new ReadAction() {
-                public void execute(SystemAccess systemAccess) throws Exception {
+            return systemConn.runReadAction(new ReadActionResult<Properties>() {
+                public Properties execute(SystemAccess systemAccess) throws Exception {
                     DataStore store = systemAccess.getSystemDataStore(DATASTORE_NAME);
-                    Properties properties = loadFile(store.getInputStream());
-                    extractConfig(new ConfigProperties(properties));
+                    return loadFile(store.getInputStream());
                 }
             });
         } catch (ActionExecutionException e) {
@@ -78,7 +107,7 @@ public class ConfigData {
         }
     }
 
-    private Properties loadFile(InputStream in) throws IOException {
+    private static Properties loadFile(InputStream in) throws IOException {
         Properties properties = new Properties();
         properties.load(new BufferedInputStream(in));
         return properties;
@@ -91,9 +120,16 @@ public class ConfigData {
 
         conditionsRefreshInMinutes = properties.getIntProperty("conditionsRefreshInMinutes", conditionsRefreshInMinutes);
         forecastsRefreshInMinutes = properties.getIntProperty("forecastsRefreshInMinutes", forecastsRefreshInMinutes);
+        setUpdateThreads(properties.getIntProperty("updateThreads", updateThreads));
+        maxConcurrentRequests = properties.getIntProperty("maxConcurrentRequests", maxConcurrentRequests);
+        requestSpacingMillis = properties.getIntProperty("requestSpacingMillis", requestSpacingMillis);
+        groupWrites = properties.getBooleanProperty("groupWrites", groupWrites);
+        setMaxStaleMinutes(properties.getIntProperty("maxStaleMinutes", maxStaleMinutes));
         String serviceName = properties.getStringProperty("service", service.name());
         service = WeatherServices.valueOf(serviceName);
         serviceConfigData = properties.getMap("servicedata.");
+        for (String fieldName : properties.getMap("deadband.").keySet())
+            setDeadband(fieldName, properties.getFloatProperty("deadband." + fieldName, 0f));
 
         synchronized (list) {
             int entryCount = properties.getIntProperty("entryCount", 0);
@@ -107,23 +143,19 @@ public class ConfigData {
                 stationSource.setLongitude(properties.getFloatProperty("entry" + i + ".station.longitude", 0f));
 
                 Map<String, String> map = properties.getMap("entry" + i + ".servicedata.");
-                list.add(new WeatherConfigEntry(cpPath, stationSource, map));
+                int conditionsRefresh = properties.getIntProperty("entry" + i + ".conditionsRefreshInMinutes", 0);
+                int forecastsRefresh = properties.getIntProperty("entry" + i + ".forecastsRefreshInMinutes", 0);
+                list.add(new WeatherConfigEntry(cpPath, stationSource, map, conditionsRefresh, forecastsRefresh));
             }
         }
     }
 
     /**
-     * Returns the weather service selected for the config data.  Right now the service
-     * is fixed, but this method (with some other changes) allows us to support user
-     * selectable weather services.
+     * Returns the weather service selected for the config data.  This is the instance shared by the whole
+     * add-on (see {@link WeatherServiceRegistry}), so it keeps its caches across config reloads.
      */
     public WeatherService getWeatherService() throws WeatherServiceException {
-        WeatherService service = serviceRef.get();
-        if (service == null) {
-            WeatherService newService = new WeatherServiceFactory().getService(this.service);
-            serviceRef.compareAndSet(null, newService);
-        }
-        return serviceRef.get(); // cannot be null now
+        return WeatherServiceRegistry.getSingleton().getService(service);
     }
 
 
@@ -171,6 +203,89 @@ public class ConfigData {
         this.forecastsRefreshInMinutes = Math.max(forecastsRefreshInMinutes, service.getMinForecastsRefresh());
     }
 
+    /**
+     * Returns the number of threads used to fetch and write weather data for the configured
+     * entries during a scheduled update.
+     */
+    public int getUpdateThreads() {
+        return updateThreads;
+    }
+
+    public void setUpdateThreads(int updateThreads) {
+        this.updateThreads = Math.min(Math.max(updateThreads, 1), MAX_UPDATE_THREADS);
+    }
+
+    /**
+     * Returns the maximum number of requests that a scheduled update may have outstanding against
+     * the weather service at one time.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests > 0 ? maxConcurrentRequests : service.getMaxConcurrentRequests();
+    }
+
+    /**
+     * Returns the minimum time between the start of two requests to the weather service during
+     * a scheduled update.
+     */
+    public int getRequestSpacingMillis() {
+        return requestSpacingMillis >= 0 ? requestSpacingMillis : service.getRequestSpacingMillis();
+    }
+
+    /**
+     * Returns true if the equipment writes of entries updated at the same time during a scheduled update are
+     * made in one write action instead of one per entry.
+     */
+    public boolean isGroupWrites() {
+        return groupWrites;
+    }
+
+    public void setGroupWrites(boolean groupWrites) {
+        this.groupWrites = groupWrites;
+    }
+
+    /**
+     * Returns how long, in minutes, a view page may be given data that is past its refresh time while new data is read
+     * in the background.  Data older than that is read while the page waits.  0 means the page always waits for
+     * new data once the data has expired.
+     */
+    public int getMaxStaleMinutes() {
+        return maxStaleMinutes;
+    }
+
+    public void setMaxStaleMinutes(int maxStaleMinutes) {
+        this.maxStaleMinutes = Math.max(maxStaleMinutes, 0);
+    }
+
+    /**
+     * Returns the timeouts and retries for requests to the weather service.  These are kept with the
+     * service config data.
+     */
+    public RequestPolicy getRequestPolicy() {
+        return RequestPolicy.fromServiceConfig(serviceConfigData);
+    }
+
+    /**
+     * Returns the smallest change in a field's value that is written to the equipment, or 0 to write any change.
+     *
+     * @param fieldName the name of the field as used for points, with N for the forecast day (wc_temperature,
+     *                  wfN_highestTemperature).
+     */
+    public float getDeadband(String fieldName) {
+        Float deadband = deadbands.get(fieldName);
+        return deadband == null ? 0f : deadband;
+    }
+
+    /**
+     * Sets the smallest change in a field's value that is written to the equipment.  A deadband of 0 (or less)
+     * removes the setting, so any change is written.
+     */
+    public void setDeadband(String fieldName, float deadband) {
+        if (deadband > 0)
+            deadbands.put(fieldName, deadband);
+        else
+            deadbands.remove(fieldName);
+    }
+
     public WeatherConfigEntry getEntryForCpPath(String path) {
         for (WeatherConfigEntry entry : list) {
             if (entry.getCpPath().equals(path)) {
@@ -200,32 +315,45 @@ public class ConfigData {
         }
     }
 
+    /**
+     * Writes the configuration data to the datastore and makes it the snapshot returned by the
+     * {@link ConfigDataFactory}.
+     *
+     * @throws IOException if the datastore cannot be written.
+     */
     public void save() throws IOException {
-        if (Logging.is41) {
-            // this is done in a runnable to workaround a 4.1 SP1b bug.
-            try {
-                SaveDataRunnable runnable = new SaveDataRunnable(systemConn, buildConfig());
-                Thread thread = new Thread(runnable);
-                thread.start();
-                thread.join();
-                runnable.checkException();
-            } catch (Exception e) {
-                throw new IOException("Error writing to data store");
+        final Properties properties = buildConfig();
+        try {
+            if (Logging.is41) {
+                // this is done in a runnable to workaround a 4.1 SP1b bug.
+                try {
+                    SaveDataRunnable runnable = new SaveDataRunnable(systemConn, properties);
+                    Thread thread = new Thread(runnable);
+                    thread.start();
+                    thread.join();
+                    runnable.checkException();
+                } catch (Exception e) {
+                    throw new IOException("Error writing to data store");
+                }
             }
-        }
-        else {
-            try {
-                systemConn.runWriteAction("Writing defaults to system datastore", new WriteAction() {
-                    public void execute(WritableSystemAccess systemAccess) throws Exception {
-                        DataStore store = systemAccess.getSystemDataStore(DATASTORE_NAME);
-                        Properties properties = buildConfig();
-                        properties.store(store.getOutputStream(), "");
-                    }
-                });
-            } catch (Exception e) {
-                throw (IOException)new IOException("Error writing to data store").initCause(e);
+            else {
+                try {
+                    systemConn.runWriteAction("Writing defaults to system datastore", new WriteAction() {
+                        public void execute(WritableSystemAccess systemAccess) throws Exception {
+                            DataStore store = systemAccess.getSystemDataStore(DATASTORE_NAME);
+                            properties.store(store.getOutputStream(), "");
+                        }
+                    });
+                } catch (Exception e) {
+                    throw (IOException)new IOException("Error writing to data store").initCause(e);
+                }
             }
+        } catch (IOException e) {
+            // the datastore may or may not have been written, so read it again next time
+            ConfigDataFactory.invalidate();
+            throw e;
         }
+        version = ConfigDataFactory.saved(properties).getVersion();
     }
 
     private static class SaveDataRunnable implements Runnable {
@@ -269,8 +397,18 @@ public class ConfigData {
         properties.setIntProperty("version", 2);
         properties.setIntProperty("conditionsRefreshInMinutes", conditionsRefreshInMinutes);
         properties.setIntProperty("forecastsRefreshInMinutes", forecastsRefreshInMinutes);
+        properties.setIntProperty("updateThreads", updateThreads);
+        if (maxConcurrentRequests > 0)
+            properties.setIntProperty("maxConcurrentRequests", maxConcurrentRequests);
+        if (requestSpacingMillis >= 0)
+            properties.setIntProperty("requestSpacingMillis", requestSpacingMillis);
+        if (groupWrites)
+            properties.setBooleanProperty("groupWrites", groupWrites);
+        properties.setIntProperty("maxStaleMinutes", maxStaleMinutes);
         properties.setStringProperty("service", service.name());
         properties.setMap(serviceConfigData, "servicedata.");
+        for (Map.Entry<String, Float> deadband : deadbands.entrySet())
+            properties.setFloatProperty("deadband." + deadband.getKey(), deadband.getValue());
 
         synchronized (list) {
             properties.setIntProperty("entryCount", list.size());
@@ -285,6 +423,10 @@ public class ConfigData {
                 properties.setFloatProperty("entry" + i + ".station.longitude", stationSource.getLongitude());
 
                 properties.setMap(entry.getServiceEntryData(), "entry" + i + ".servicedata.");
+                if (entry.getConditionsRefreshInMinutes() > 0)
+                    properties.setIntProperty("entry" + i + ".conditionsRefreshInMinutes", entry.getConditionsRefreshInMinutes());
+                if (entry.getForecastsRefreshInMinutes() > 0)
+                    properties.setIntProperty("entry" + i + ".forecastsRefreshInMinutes", entry.getForecastsRefreshInMinutes());
                 ++i;
             }
         }
@@ -25,32 +25,143 @@ package com.controlj.addon.weather.config;
 import com.controlj.addon.weather.service.WeatherServices;
 import com.controlj.addon.weather.util.Logging;
 import com.controlj.green.addonsupport.AddOnInfo;
+import com.controlj.green.addonsupport.access.SystemConnection;
+
 import java.io.IOException;
+import java.util.Properties;
 
 /**
- * Creates a {@link ConfigData} object by reading the configuration data from the datastore.
+ * Creates a {@link ConfigData} object from the configuration data in the datastore.
  * If there is no saved oonfiguration data (or the data cannot be read for some reason), an
  * empty ConfigData is returned.
+ * <p/>
+ * The datastore is only read the first time, after that the configuration is loaded from a
+ * {@link ConfigSnapshot} held in memory.  {@link ConfigData#save} replaces the snapshot, so
+ * the datastore is not read again unless a save fails.  Callers that only read the configuration share the
+ * ConfigData loaded from the snapshot (see {@link #getSharedConfigData}).
  */
 public class ConfigDataFactory
 {
+   private static final Object snapshotLock = new Object();
+   private static ConfigSnapshot snapshot;  // null until read from the datastore
+   private static long version = 1;         // the version of the current (or next read) snapshot
+   private static ConfigData shared;        // loaded from the snapshot of its version, see getSharedConfigData
+
+   /**
+    * Returns a new ConfigData loaded from the current snapshot, for callers that change the configuration.
+    */
    public static ConfigData loadConfigData()
    {
-      ConfigData data = new ConfigData(AddOnInfo.getAddOnInfo().getRootSystemConnection());
+      SystemConnection systemConn = AddOnInfo.getAddOnInfo().getRootSystemConnection();
+      ConfigData data = new ConfigData(systemConn);
+      load(data, systemConn);
+      return data;
+   }
+
+   /**
+    * Returns the ConfigData loaded from the current snapshot, shared by every caller until the configuration
+    * is saved again, so reading the configuration for each request doesn't build the entries again.  The
+    * returned data must not be changed; use {@link #loadConfigData} to get a copy to change and save.
+    */
+   public static ConfigData getSharedConfigData()
+   {
+      return getSharedConfigData(AddOnInfo.getAddOnInfo().getRootSystemConnection());
+   }
+
+   static ConfigData getSharedConfigData(SystemConnection systemConn)
+   {
+      synchronized (snapshotLock)
+      {
+         if (shared != null && shared.getVersion() == version)
+            return shared;
+      }
+
+      ConfigData data = new ConfigData(systemConn);
+      if (load(data, systemConn))
+      {
+         synchronized (snapshotLock)
+         {
+            if (data.getVersion() == version)
+               shared = data;
+         }
+      }
+      return data;
+   }
+
+   private static boolean load(ConfigData data, SystemConnection systemConn)
+   {
       try
       {
-         data.load();
+         data.load(getSnapshot(systemConn));
+         return true;
       }
       catch (IOException e)
       {
          Logging.println("Error reading configuration data.  Continuing as if no data.", e);
+         return false;
       }
-      return data;
    }
 
-
    public static ConfigData create(WeatherServices serviceEnum) {
        return new ConfigData(AddOnInfo.getAddOnInfo().getRootSystemConnection(), serviceEnum);
    }
-}
 
+   /**
+    * Returns the version of the saved configuration.  This doesn't read the datastore, so it is a cheap
+    * way to find out whether a {@link ConfigData} is out of date (see {@link ConfigData#getVersion}).
+    */
+   public static long getVersion()
+   {
+      synchronized (snapshotLock)
+      {
+         return version;
+      }
+   }
+
+   private static ConfigSnapshot getSnapshot(SystemConnection systemConn) throws IOException
+   {
+      long readVersion;
+      synchronized (snapshotLock)
+      {
+         if (snapshot != null)
+            return snapshot;
+         readVersion = version;
+      }
+
+      // read outside the lock, a slow datastore shouldn't hold up callers that only want the version
+      Properties properties = ConfigData.readDatastore(systemConn);
+      synchronized (snapshotLock)
+      {
+         if (snapshot != null)
+            return snapshot;   // saved (or read by someone else) while we were reading
+         ConfigSnapshot result = new ConfigSnapshot(properties, readVersion);
+         if (version == readVersion)
+            snapshot = result;
+         return result;
+      }
+   }
+
+   /**
+    * Makes the properties just written to the datastore the current snapshot.  Called by {@link ConfigData#save}.
+    */
+   static ConfigSnapshot saved(Properties properties)
+   {
+      synchronized (snapshotLock)
+      {
+         snapshot = new ConfigSnapshot(properties, ++version);
+         return snapshot;
+      }
+   }
+
+   /**
+    * Drops the current snapshot, so that the next load reads the datastore.
+    */
+   static void invalidate()
+   {
+      synchronized (snapshotLock)
+      {
+         snapshot = null;
+         ++version;
+      }
+   }
+}
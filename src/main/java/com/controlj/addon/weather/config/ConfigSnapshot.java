@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.config;
+
+import java.util.Properties;
+
+/**
+ * The saved configuration as it was read from (or written to) the datastore, held in memory by
+ * {@link ConfigDataFactory} so that loading the configuration doesn't have to read the datastore each time.
+ * A snapshot never changes; saving the configuration replaces it with a new snapshot with a higher version.
+ */
+public final class ConfigSnapshot
+{
+   private final Properties properties;
+   private final long version;
+
+   ConfigSnapshot(Properties properties, long version)
+   {
+      this.properties = new Properties();
+      this.properties.putAll(properties);
+      this.version = version;
+   }
+
+   /**
+    * Returns the version of the saved configuration.  Versions only increase, so two snapshots (or two
+    * {@link ConfigData}s loaded from them) with the same version hold the same configuration.
+    */
+   public long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Returns the properties of the snapshot.  These are shared and must not be modified.
+    */
+   Properties getProperties()
+   {
+      return properties;
+   }
+}
@@ -22,11 +22,13 @@
 package com.controlj.addon.weather.config;
 
 import com.controlj.addon.weather.RuntimeInformation;
+import com.controlj.addon.weather.data.ConditionsField;
 import com.controlj.addon.weather.data.ConditionsSource;
 import com.controlj.addon.weather.data.StationSource;
 import com.controlj.addon.weather.servlets.PrimitiveServletBase;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
 
 /**
@@ -39,12 +41,26 @@ public class WeatherConfigEntry
    private final String cpPath;
    private final StationSource stationSource;
    private final Map<String, String> serviceEntryData;
+   private final int conditionsRefreshInMinutes;
+   private final int forecastsRefreshInMinutes;
 
    public WeatherConfigEntry(String cpPath, StationSource stationSource, Map<String, String> serviceEntryData)
+   {
+      this(cpPath, stationSource, serviceEntryData, 0, 0);
+   }
+
+   /**
+    * Creates an entry with its own refresh rates.  A rate of 0 means the entry uses the refresh rate
+    * from the configuration data.
+    */
+   public WeatherConfigEntry(String cpPath, StationSource stationSource, Map<String, String> serviceEntryData,
+                             int conditionsRefreshInMinutes, int forecastsRefreshInMinutes)
    {
       this.cpPath = cpPath.trim();
       this.stationSource = stationSource;
       this.serviceEntryData = Collections.unmodifiableMap(serviceEntryData);
+      this.conditionsRefreshInMinutes = Math.max(conditionsRefreshInMinutes, 0);
+      this.forecastsRefreshInMinutes = Math.max(forecastsRefreshInMinutes, 0);
    }
 
    public String getCpPath()
@@ -62,6 +78,22 @@ public class WeatherConfigEntry
       return stationSource;
    }
 
+   /**
+    * Returns the conditions refresh rate for just this entry, or 0 if it uses the configured rate.
+    */
+   public int getConditionsRefreshInMinutes()
+   {
+      return conditionsRefreshInMinutes;
+   }
+
+   /**
+    * Returns the forecasts refresh rate for just this entry, or 0 if it uses the configured rate.
+    */
+   public int getForecastsRefreshInMinutes()
+   {
+      return forecastsRefreshInMinutes;
+   }
+
    public String getLastUpdate() // doesn't belong here, but I don't know how else to get it on the page.  Remove when we switch to using AJAX
    {
       RuntimeInformation rti = RuntimeInformation.getSingleton();
@@ -69,7 +101,7 @@ public class WeatherConfigEntry
       if (error != null)
          return error;
 
-      ConditionsSource lastConditionsData = rti.getLastConditionsData(this);
+      ConditionsSource lastConditionsData = rti.getLastConditionsData(this, EnumSet.noneOf(ConditionsField.class)); // full or partial
       if (lastConditionsData != null)
          return PrimitiveServletBase.timeFormat.format(lastConditionsData.getUpdateTime());
 
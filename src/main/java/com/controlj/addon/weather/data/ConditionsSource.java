@@ -42,6 +42,14 @@ public abstract class ConditionsSource {
         return updateTime;
     }
 
+    /**
+     * Returns true if this source was read with only some of the fields, because the equipment it was read for
+     * only needed those.  Fields that were not read return null.  A partial source is not shown on the view pages.
+     */
+    public boolean isPartial() {
+        return false;
+    }
+
     /**
      * Returns the average cardinal direction of the wind so far today.
      */
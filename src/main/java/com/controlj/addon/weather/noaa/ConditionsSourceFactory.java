@@ -22,52 +22,114 @@
 package com.controlj.addon.weather.noaa;
 
 import com.controlj.addon.weather.data.ConditionsSource;
-import com.controlj.addon.weather.data.WeatherIcon;
+import com.controlj.addon.weather.util.HTTPHelper;
 import org.dom4j.Document;
-import org.dom4j.Node;
+import org.dom4j.io.SAXWriter;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
+/**
+ * Reads the current conditions out of a current_observation document in a single pass over the document, either
+ * straight from the response (see {@link #getReader}) or from a parsed document.  The
+ * element names for each unit system are looked up once, so a factory holds no per-call state and one instance
+ * can be shared by any number of threads.
+ */
 public class ConditionsSourceFactory {
-    private static final SimpleDateFormat rfc8222Format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
+    private enum Field { temperature, humidity, pressure, condition, dewPoint, windSpeed, windDirection, windDegrees,
+                         observationTime, icon }
 
-    ConditionsSource createSourceFromDocument(Document document, boolean isMetric) {
-        ConditionsSourceImpl weatherSource = new ConditionsSourceImpl();
-        weatherSource.setMetric(isMetric);
-        weatherSource.setTemperature(extractFloat(document, isMetric ? "temp_c" : "temp_f"));
-        weatherSource.setHumidity(extractFloat(document, "relative_humidity"));
-        weatherSource.setPressure(extractFloat(document, isMetric ? "pressure_mb" : "pressure_in"));
-        weatherSource.setCurrentCondition(extractString(document, "weather"));
-        weatherSource.setDewPoint(extractFloat(document, isMetric ? "dewpoint_c" : "dewpoint_f"));
-        weatherSource.setWindSpeed(extractFloat(document, isMetric ? "wind_kt" : "wind_mph"));
-        weatherSource.setWindDirection(extractString(document, "wind_dir"));
-        weatherSource.setWindDegrees(extractFloat(document, "wind_degrees"));
-        weatherSource.setObservationTime(extractObservationTime(document));
-        weatherSource.setIcon(mapIcon(extractString(document, "icon_url_name")));
-        return weatherSource;
-    }
+    private static final Map<String, Field> IMPERIAL_FIELDS = createFields(false);
+    private static final Map<String, Field> METRIC_FIELDS = createFields(true);
 
-    private String extractString(Document document, String element) {
-        Node node = document.selectSingleNode("/current_observation/" + element);
-        return node == null ? null : node.getText();
-    }
+    // SimpleDateFormat isn't thread safe and entries are updated in parallel, so each thread gets its own
+    private static final ThreadLocal<SimpleDateFormat> rfc822Format = new ThreadLocal<SimpleDateFormat>() {
+        @Override protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+        }
+    };
 
-    private Float extractFloat(Document document, String element) {
-        Node node = document.selectSingleNode("/current_observation/" + element);
-        return node == null ? null : toFloat(node.getText());
+    private final WeatherIconMapper iconMapper = new WeatherIconMapper();
+
+    /**
+     * Returns a reader that reads the conditions straight from a current_observation response, without building
+     * a document first.
+     */
+    HTTPHelper.ResponseReader<ConditionsSource> getReader(final boolean isMetric) {
+        return new HTTPHelper.ResponseReader<ConditionsSource>() {
+            //@Override
+            public ConditionsSource read(InputSource source) throws IOException {
+                ObservationHandler handler = new ObservationHandler(isMetric ? METRIC_FIELDS : IMPERIAL_FIELDS);
+                try {
+                    SAXParserFactory factory = SAXParserFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    factory.newSAXParser().parse(source, handler);
+                } catch (SAXException e) {
+                    throw (IOException) new IOException(e.getMessage()).initCause(e);
+                } catch (ParserConfigurationException e) {
+                    throw (IOException) new IOException(e.getMessage()).initCause(e);
+                }
+                return createSource(handler, isMetric);
+            }
+        };
     }
 
-    private Integer toInteger(String str) {
+    ConditionsSource createSourceFromDocument(Document document, boolean isMetric) {
+        ObservationHandler handler = new ObservationHandler(isMetric ? METRIC_FIELDS : IMPERIAL_FIELDS);
         try {
-            return Integer.parseInt(str);
-        } catch (NumberFormatException e) {
-            return null;
+            new SAXWriter(handler).write(document);
+        } catch (SAXException e) {
+            throw new IllegalStateException("Error reading current observation", e);   // the handler never throws
         }
+        return createSource(handler, isMetric);
+    }
+
+    private ConditionsSource createSource(ObservationHandler handler, boolean isMetric) {
+        ConditionsSourceImpl weatherSource = new ConditionsSourceImpl();
+        weatherSource.setMetric(isMetric);
+        weatherSource.setTemperature(toFloat(handler.get(Field.temperature)));
+        weatherSource.setHumidity(toFloat(handler.get(Field.humidity)));
+        weatherSource.setPressure(toFloat(handler.get(Field.pressure)));
+        weatherSource.setCurrentCondition(handler.get(Field.condition));
+        weatherSource.setDewPoint(toFloat(handler.get(Field.dewPoint)));
+        weatherSource.setWindSpeed(toFloat(handler.get(Field.windSpeed)));
+        weatherSource.setWindDirection(handler.get(Field.windDirection));
+        weatherSource.setWindDegrees(toFloat(handler.get(Field.windDegrees)));
+        weatherSource.setObservationTime(toDate(handler.get(Field.observationTime)));
+        weatherSource.setIcon(iconMapper.mapIconURL(handler.get(Field.icon)));
+        return weatherSource;
+    }
+
+    private static Map<String, Field> createFields(boolean isMetric) {
+        Map<String, Field> fields = new HashMap<String, Field>();
+        fields.put(isMetric ? "temp_c" : "temp_f", Field.temperature);
+        fields.put("relative_humidity", Field.humidity);
+        fields.put(isMetric ? "pressure_mb" : "pressure_in", Field.pressure);
+        fields.put("weather", Field.condition);
+        fields.put(isMetric ? "dewpoint_c" : "dewpoint_f", Field.dewPoint);
+        fields.put(isMetric ? "wind_kt" : "wind_mph", Field.windSpeed);
+        fields.put("wind_dir", Field.windDirection);
+        fields.put("wind_degrees", Field.windDegrees);
+        fields.put("observation_time_rfc822", Field.observationTime);
+        fields.put("icon_url_name", Field.icon);
+        return Collections.unmodifiableMap(fields);
     }
 
     private Float toFloat(String str) {
+        if (str == null)
+            return null;
         try {
             return Float.parseFloat(str);
         } catch (NumberFormatException e) {
@@ -75,16 +137,59 @@ public class ConditionsSourceFactory {
         }
     }
 
-    private Date extractObservationTime(Document document) {
-        Node node = document.selectSingleNode("/current_observation/observation_time_rfc822");
+    private Date toDate(String str) {
+        if (str == null)
+            return null;
         try {
-            return rfc8222Format.parse(node.getText());
+            return rfc822Format.get().parse(str);
         } catch (ParseException e) {
             return null;
         }
     }
 
-    private WeatherIcon mapIcon(String iconName) {
-        return new WeatherIconMapper().mapIconURL(iconName);
+    /**
+     * Collects the text of the wanted children of current_observation.  Like the XPath lookups this replaced, the
+     * first occurrence of an element wins.
+     */
+    private static class ObservationHandler extends DefaultHandler {
+        private final Map<String, Field> fields;
+        private final String[] values = new String[Field.values().length];
+        private int depth;
+        private boolean inObservation;
+        private Field field;
+        private StringBuilder text;
+
+        private ObservationHandler(Map<String, Field> fields) {
+            this.fields = fields;
+        }
+
+        private String get(Field field) {
+            return values[field.ordinal()];
+        }
+
+        @Override public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            String name = localName != null && localName.length() > 0 ? localName : qName;
+            depth++;
+            if (depth == 1) {
+                inObservation = "current_observation".equals(name);
+            } else if (depth == 2 && inObservation) {
+                field = fields.get(name);
+                if (field != null && values[field.ordinal()] == null)
+                    text = new StringBuilder();
+            }
+        }
+
+        @Override public void characters(char[] ch, int start, int length) {
+            if (text != null && depth == 2)
+                text.append(ch, start, length);
+        }
+
+        @Override public void endElement(String uri, String localName, String qName) {
+            if (depth == 2 && text != null) {
+                values[field.ordinal()] = text.toString();
+                text = null;
+            }
+            depth--;
+        }
     }
-}
\ No newline at end of file
+}
@@ -21,8 +21,11 @@
  */
 package com.controlj.addon.weather.noaa;
 
+import com.controlj.addon.weather.data.StationSource;
 import com.controlj.addon.weather.service.WeatherServiceException;
 import com.controlj.addon.weather.util.HTTPHelper;
+import com.controlj.addon.weather.util.RequestPolicy;
+import com.controlj.addon.weather.util.RetryBudget;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
@@ -30,65 +33,128 @@ import org.apache.http.message.BasicNameValuePair;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class DocumentLoader
 {
+   private final HTTPHelper httpHelper;
+   // retries are limited across all requests to the NWS, not just per request
+   private final RetryBudget retryBudget = new RetryBudget();
+
    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-   private final AtomicReference<Document> weatherStationsRef = new AtomicReference<Document>();
+
+   public DocumentLoader(HTTPHelper httpHelper)
+   {
+      this.httpHelper = httpHelper;
+   }
 
    public Document loadZipcodeDoc(String zipCode) throws WeatherServiceException
    {
        Map<String, Object> params = new HashMap<String, Object>();
        params.put("listZipCodeList", zipCode);
        try {
-           return new HTTPHelper().readDocument("http", "weather.gov", -1, "/forecasts/xml/sample_products/browser_interface/ndfdXMLclient.php", params);
+           return httpHelper.readDocument(RequestPolicy.DEFAULT, retryBudget, "http", "weather.gov", -1, "/forecasts/xml/sample_products/browser_interface/ndfdXMLclient.php", params);
        } catch (Exception e) {
            throw new WeatherServiceException(e.getMessage(), e);
        }
    }
 
-   public Document getCurrentObs(String stationID) throws WeatherServiceException
+   public <T> T getCurrentObs(String stationID, RequestPolicy policy, HTTPHelper.ResponseReader<T> reader) throws WeatherServiceException
    {
        try {
-           return new HTTPHelper().readDocument("http", "weather.gov", -1, "/xml/current_obs/"+stationID+".xml", null);
+           return httpHelper.read(policy, retryBudget, "http", "weather.gov", -1, "/xml/current_obs/"+stationID+".xml", null, reader);
        } catch (Exception e) {
            throw new WeatherServiceException(e.getMessage(), e);
        }
    }
 
-   public Document getForecast(float latitude, float longitude, int numDays, boolean isMetric) throws WeatherServiceException
+   public DwmlForecastReader getForecast(float latitude, float longitude, int numDays, boolean isMetric, RequestPolicy policy) throws WeatherServiceException
    {
        Map<String, Object> params = new HashMap<String, Object>();
        params.put("lat", Float.toString(latitude));
        params.put("lon", Float.toString(longitude));
-       params.put("startDate", dateFormat.format(new Date()));
+       synchronized (dateFormat)
+       {
+          params.put("startDate", dateFormat.format(new Date()));
+       }
+       params.put("numDays", Integer.toString(numDays));
+       params.put("format", "24 hourly");
+       params.put("Unit", isMetric ? "m":"e");
+       try {
+           return httpHelper.read(policy, retryBudget, "http", "graphical.weather.gov", -1, "/xml/sample_products/browser_interface/ndfdBrowserClientByDay.php", params,
+                                  forecastReader(isMetric));
+       } catch (Exception e) {
+           throw new WeatherServiceException(e.getMessage(), e);
+       }
+   }
+
+   /**
+    * Requests the forecast for several locations at once.  The points in the returned DWML are named
+    * point1, point2, ... in the order the locations are given (see
+    * {@link DwmlForecastReader#getForecast(String)}).
+    */
+   public DwmlForecastReader getForecasts(List<StationSource> stations, int numDays, boolean isMetric, RequestPolicy policy) throws WeatherServiceException
+   {
+       StringBuilder points = new StringBuilder();
+       for (StationSource station : stations)
+       {
+           if (points.length() > 0)
+              points.append(' ');
+           points.append(station.getLatitude()).append(',').append(station.getLongitude());
+       }
+
+       Map<String, Object> params = new HashMap<String, Object>();
+       params.put("listLatLon", points.toString());
+       synchronized (dateFormat)
+       {
+          params.put("startDate", dateFormat.format(new Date()));
+       }
        params.put("numDays", Integer.toString(numDays));
        params.put("format", "24 hourly");
        params.put("Unit", isMetric ? "m":"e");
        try {
-           return new HTTPHelper().readDocument("http", "graphical.weather.gov", -1, "/xml/sample_products/browser_interface/ndfdBrowserClientByDay.php", params);
+           return httpHelper.read(policy, retryBudget, "http", "graphical.weather.gov", -1, "/xml/sample_products/browser_interface/ndfdBrowserClientByDay.php", params,
+                                  forecastReader(isMetric));
        } catch (Exception e) {
            throw new WeatherServiceException(e.getMessage(), e);
        }
    }
 
+   /**
+    * Forecasts are read straight from the response, without building a document first.
+    */
+   private static HTTPHelper.ResponseReader<DwmlForecastReader> forecastReader(final boolean isMetric)
+   {
+      return new HTTPHelper.ResponseReader<DwmlForecastReader>()
+      {
+         //@Override
+         public DwmlForecastReader read(InputSource source) throws IOException
+         {
+            return DwmlForecastReader.read(source, isMetric);
+         }
+      };
+   }
+
    public Document getWeatherStationsDoc() throws WeatherServiceException {
-      Document weatherStations = weatherStationsRef.get();
-      if (weatherStations == null) {
-           try {
-               weatherStations = new HTTPHelper().readDocument("http", "www.weather.gov", -1, "/xml/current_obs/index.xml", null);
-               weatherStationsRef.set(weatherStations);
-           } catch (Exception e) {
-               throw new WeatherServiceException("Internal error constructing URI", e);
-           }
+       try {
+           // the station list is too large to be kept for conditional requests
+           return httpHelper.readDocument(RequestPolicy.DEFAULT, retryBudget, "http", "www.weather.gov", -1, "/xml/current_obs/index.xml", null);
+       } catch (Exception e) {
+           throw new WeatherServiceException("Internal error constructing URI", e);
        }
-       return weatherStations;
+   }
+
+   /**
+    * Returns an index of the weather stations from the shared {@link StationCatalog}.
+    */
+   public StationIndex getStationIndex() throws WeatherServiceException {
+      return StationCatalog.getSingleton().getStationIndex(this);
    }
 }
\ No newline at end of file
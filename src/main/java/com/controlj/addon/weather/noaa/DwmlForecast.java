@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa;
+
+import com.controlj.addon.weather.data.ForecastSource;
+import com.controlj.addon.weather.data.WeatherIcon;
+import com.controlj.addon.weather.service.WeatherServiceException;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The daily forecast for one point of a DWML forecast, as read by {@link DwmlForecastReader}.  Gives the same
+ * forecasts as {@link ForecastSourceFactory} does for a single point document.  Missing dates are
+ * {@link #NO_DATE} and missing numbers are NaN.
+ */
+public class DwmlForecast {
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final SimpleDateFormat dateDescriptionFormat = new SimpleDateFormat("EEEE");
+
+    private final boolean isMetric;
+    private final long[] dates;
+    private final float[] highs;
+    private final float[] lows;
+    private final float[] probPrecip;
+    private final String[] descriptions;
+    private final WeatherIcon[] icons;
+
+    DwmlForecast(boolean isMetric, long[] dates, float[] highs, float[] lows, float[] probPrecip,
+                 String[] descriptions, WeatherIcon[] icons) throws WeatherServiceException {
+        int targetSize = dates.length;
+        if (highs.length != targetSize || lows.length != targetSize || descriptions.length != targetSize ||
+            icons.length != targetSize) {
+            throw new WeatherServiceException("Not all forecast arrays are the same size");
+        }
+
+        this.isMetric = isMetric;
+        this.dates = dates;
+        this.highs = highs;
+        this.lows = lows;
+        this.probPrecip = probPrecip;
+        this.descriptions = descriptions;
+        this.icons = icons;
+    }
+
+    public ForecastSource getForecast(int day) {
+        String dateDescription = "";   // the date couldn't be read
+        if (dates[day] != NO_DATE) {
+            synchronized (dateDescriptionFormat) {
+                dateDescription = dateDescriptionFormat.format(new Date(dates[day]));
+            }
+        }
+        return new ForecastSourceImpl(isMetric, toFloat(highs[day]), toFloat(lows[day]),
+                                      day < probPrecip.length ? toFloat(probPrecip[day]) : null,
+                                      dateDescription, descriptions[day], icons[day]);
+    }
+
+    public int getNumberForecastedDays() {
+        return dates.length;
+    }
+
+    long getDate(int day) {
+        return dates[day];
+    }
+
+    float getHigh(int day) {
+        return highs[day];
+    }
+
+    float getLow(int day) {
+        return lows[day];
+    }
+
+    /**
+     * Returns the number of days with a probability of precipitation, which may differ from the number of
+     * forecasted days.
+     */
+    int getNumberPrecipDays() {
+        return probPrecip.length;
+    }
+
+    float getProbPrecip(int day) {
+        return probPrecip[day];
+    }
+
+    String getDescription(int day) {
+        return descriptions[day];
+    }
+
+    WeatherIcon getIcon(int day) {
+        return icons[day];
+    }
+
+    private static Float toFloat(float value) {
+        return Float.isNaN(value) ? null : new Float(value);
+    }
+}
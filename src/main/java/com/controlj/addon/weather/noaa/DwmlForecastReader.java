@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa;
+
+import com.controlj.addon.weather.data.WeatherIcon;
+import com.controlj.addon.weather.service.WeatherServiceException;
+import com.controlj.addon.weather.util.Logging;
+import org.dom4j.Document;
+import org.dom4j.io.SAXWriter;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the daily forecasts out of a DWML document from the NDFD service in a single pass, collecting the time
+ * layouts and, for each point, the highs, lows, probability of precipitation, descriptions and icons as they go by.
+ * This gives the same results as {@link ForecastSourceFactory} (which evaluates a separate XPath query over the
+ * whole document for each of these), and also handles multi-point documents, where the parameters of each point
+ * are kept apart.
+ * <p/>
+ * A reader is used for one document only.
+ */
+public class DwmlForecastReader extends DefaultHandler {
+    private static final SimpleDateFormat timeLayoutFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final int MAX_DEPTH = 32;
+
+    private enum Section { high, low, precip, weather, icons, other }
+
+    private final boolean isMetric;
+    private final Document document;
+    private final WeatherIconMapper iconMapper = new WeatherIconMapper();
+    private final List<TimeLayout> timeLayouts = new ArrayList<TimeLayout>();
+    private final Map<String, Point> points = new LinkedHashMap<String, Point>();
+
+    private final String[] path = new String[MAX_DEPTH];
+    private int depth;
+    private TimeLayout timeLayout;
+    private Point point;
+    private Section section;
+    private StringBuilder text;
+    private boolean problem;
+
+    private DwmlForecastReader(boolean isMetric, Document document) {
+        this.isMetric = isMetric;
+        this.document = document;
+    }
+
+    /**
+     * Reads the forecast from a parsed document.  The document is only walked once, and is written to the
+     * forecast log if there are problems reading it.
+     */
+    public static DwmlForecastReader read(Document forecast, boolean isMetric) throws WeatherServiceException {
+        DwmlForecastReader reader = new DwmlForecastReader(isMetric, forecast);
+        try {
+            new SAXWriter(reader).write(forecast);
+        } catch (SAXException e) {
+            throw new WeatherServiceException("Error reading forecast", e);
+        }
+        return reader;
+    }
+
+    /**
+     * Reads the forecast straight from XML without building a document.  This is how forecasts are read from the
+     * NDFD service (see {@link DocumentLoader#getForecast}).  Parser errors are wrapped in an IOException with the
+     * {@link SAXException} as its cause.
+     */
+    public static DwmlForecastReader read(InputSource forecast, boolean isMetric) throws IOException {
+        DwmlForecastReader reader = new DwmlForecastReader(isMetric, null);
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(forecast, reader);
+        } catch (SAXException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        } catch (ParserConfigurationException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+        return reader;
+    }
+
+    /**
+     * Returns the location keys of the points in the document (point1, point2, ...) in document order.
+     */
+    public List<String> getLocationKeys() {
+        return new ArrayList<String>(points.keySet());
+    }
+
+    /**
+     * Returns the forecast for the first point in the document, or an empty forecast if there isn't one.
+     */
+    public DwmlForecast getForecast() throws WeatherServiceException {
+        Point first = points.isEmpty() ? new Point() : points.values().iterator().next();
+        return createForecast(first);
+    }
+
+    /**
+     * Returns the forecast for the point with the given location key, or null if the document has no parameters
+     * for it.
+     */
+    public DwmlForecast getForecast(String locationKey) throws WeatherServiceException {
+        Point keyPoint = points.get(locationKey);
+        return keyPoint == null ? null : createForecast(keyPoint);
+    }
+
+    private DwmlForecast createForecast(Point forecastPoint) throws WeatherServiceException {
+        long[] dates = getDates(forecastPoint);
+        if (problem) {
+            if (document != null)
+                Logging.logDocument("forecast", "Problem parsing forecast", document);
+            else
+                Logging.println("Problem parsing forecast");
+            problem = false;   // only log once
+        }
+        return new DwmlForecast(isMetric, dates, forecastPoint.highs.toArray(), forecastPoint.lows.toArray(),
+                forecastPoint.probPrecip.toArray(), forecastPoint.descriptions.toArray(new String[forecastPoint.descriptions.size()]),
+                forecastPoint.icons.toArray(new WeatherIcon[forecastPoint.icons.size()]));
+    }
+
+    /**
+     * The days of the forecast are the start times of the time layout used by the point's high temperatures.
+     */
+    private long[] getDates(Point forecastPoint) {
+        if (forecastPoint.highTimeLayout == null) {
+            Logging.println("Can't find max temperature in forecast");
+            problem = true;
+            return new long[0];
+        }
+
+        List<String> startTimes = new ArrayList<String>();
+        for (TimeLayout layout : timeLayouts) {
+            if (forecastPoint.highTimeLayout.equals(layout.key))
+                startTimes.addAll(layout.startTimes);
+        }
+
+        long[] dates = new long[startTimes.size()];
+        for (int i = 0; i < dates.length; i++) {
+            try {
+                synchronized (timeLayoutFormat) {
+                    dates[i] = timeLayoutFormat.parse(startTimes.get(i)).getTime();
+                }
+            } catch (ParseException e) {
+                dates[i] = DwmlForecast.NO_DATE;
+                Logging.println("Couldn't parse date in the forecast", e);
+                problem = true;
+            }
+        }
+        if (dates.length == 0) {
+            Logging.println("Didn't find any days in forecast");
+            problem = true;
+        }
+        return dates;
+    }
+
+    @Override public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        String name = localName != null && localName.length() > 0 ? localName : qName;
+        if (depth < MAX_DEPTH)
+            path[depth] = name;
+        depth++;
+
+        if (depth == 3 && isDataChild()) {
+            if ("time-layout".equals(name)) {
+                timeLayout = new TimeLayout();
+                timeLayouts.add(timeLayout);
+            } else if ("parameters".equals(name)) {
+                String locationKey = attributes.getValue("applicable-location");
+                point = points.get(locationKey);
+                if (point == null) {
+                    point = new Point();
+                    points.put(locationKey, point);
+                }
+            }
+        } else if (depth == 4 && timeLayout != null) {
+            if ("layout-key".equals(name) || ("start-valid-time".equals(name) && timeLayout.key != null))
+                text = new StringBuilder();
+        } else if (depth == 4 && point != null) {
+            section = getSection(name, attributes);
+        } else if (depth == 5 && section == Section.weather && "weather-conditions".equals(name)) {
+            String summary = attributes.getValue("weather-summary");
+            point.descriptions.add(summary == null || summary.length() == 0 ? null : summary);
+        } else if (depth == 5 && section == Section.icons && "icon-link".equals(name)) {
+            text = new StringBuilder();
+        } else if (depth >= 5 && "value".equals(name) &&
+                   (section == Section.high || section == Section.low || section == Section.precip)) {
+            text = new StringBuilder();
+        }
+    }
+
+    @Override public void characters(char[] ch, int start, int length) {
+        if (text != null)
+            text.append(ch, start, length);
+    }
+
+    @Override public void endElement(String uri, String localName, String qName) {
+        if (text != null) {
+            String value = text.toString();
+            text = null;
+            if (depth == 4 && timeLayout != null) {
+                if (timeLayout.key == null)
+                    timeLayout.key = value;
+                else
+                    timeLayout.startTimes.add(value);
+            } else if (section == Section.icons) {
+                point.icons.add(iconMapper.mapIconURL(value));
+            } else if (section == Section.precip) {
+                addProbPrecip(value);
+            } else {
+                addTemperature(section == Section.high ? point.highs : point.lows, value);
+            }
+        }
+
+        if (depth == 3) {
+            timeLayout = null;
+            point = null;
+        } else if (depth == 4) {
+            section = null;
+        }
+        depth--;
+    }
+
+    private boolean isDataChild() {
+        return "dwml".equals(path[0]) && "data".equals(path[1]);
+    }
+
+    private Section getSection(String name, Attributes attributes) {
+        if ("temperature".equals(name)) {
+            String type = attributes.getValue("type");
+            if ("maximum".equals(type)) {
+                if (point.highTimeLayout == null)
+                    point.highTimeLayout = attributes.getValue("time-layout");
+                return Section.high;
+            }
+            return "minimum".equals(type) ? Section.low : Section.other;
+        }
+        if ("probability-of-precipitation".equals(name))
+            return Section.precip;
+        if ("weather".equals(name))
+            return Section.weather;
+        if ("conditions-icon".equals(name))
+            return Section.icons;
+        return Section.other;
+    }
+
+    private void addTemperature(FloatArray temperatures, String value) {
+        try {
+            temperatures.add(Float.parseFloat(value));
+        } catch (NumberFormatException e) {
+            temperatures.add(Float.NaN);
+            if (value.length() > 0) {
+                Logging.println("Error parsing temperature in forecast of '"+value+"'");
+                problem = true;
+            }
+        }
+    }
+
+    /**
+     * Precipitation data is on a 12 hour cycle, so there are 2 precipitation predictions for a day.  The day gets
+     * the max of these.
+     */
+    private void addProbPrecip(String value) {
+        try {
+            float probPrecip = Float.parseFloat(value);
+            if (point.morning) {
+                point.accumulate = probPrecip;
+            } else {
+                point.accumulate = Math.max(probPrecip, point.accumulate);
+                point.probPrecip.add(point.accumulate);
+            }
+            point.morning = !point.morning;
+        } catch (NumberFormatException e) {
+            point.probPrecip.add(Float.NaN);
+            if (value.length() > 0) {
+                Logging.println("Error parsing prob precip in forecast of '"+value+"'");
+                problem = true;
+            }
+        }
+    }
+
+    private static class TimeLayout {
+        private String key;
+        private final List<String> startTimes = new ArrayList<String>();
+    }
+
+    private static class Point {
+        private String highTimeLayout;
+        private final FloatArray highs = new FloatArray();
+        private final FloatArray lows = new FloatArray();
+        private final FloatArray probPrecip = new FloatArray();
+        private final List<String> descriptions = new ArrayList<String>();
+        private final List<WeatherIcon> icons = new ArrayList<WeatherIcon>();
+        private boolean morning = true;
+        private float accumulate;
+    }
+
+    private static class FloatArray {
+        private float[] values = new float[16];
+        private int size;
+
+        private void add(float value) {
+            if (size == values.length) {
+                float[] grown = new float[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        private float[] toArray() {
+            float[] result = new float[size];
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+    }
+}
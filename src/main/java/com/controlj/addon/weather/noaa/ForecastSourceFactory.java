@@ -64,10 +64,14 @@ public class ForecastSourceFactory {
     }
 
     public ForecastSource getForecast(int day) {
+        String dateDescription;
+        synchronized (dateDescriptionFormat) {
+            dateDescription = dateDescriptionFormat.format(dates.get(day));
+        }
         return new ForecastSourceImpl(isMetric, highs.get(day),
                                       lows.get(day),
                                       probPrecip.get(day),
-                                      dateDescriptionFormat.format(dates.get(day)),
+                                      dateDescription,
                                       descriptions.get(day), icons.get(day));
     }
 
@@ -85,7 +89,9 @@ public class ForecastSourceFactory {
                 List list = forecast.selectNodes("/dwml/data/time-layout/layout-key[text()='"+timeLayout+"']//following-sibling::start-valid-time");
                 for (Object o : list) {
                     try {
-                        result.add(timeLayoutFormat.parse(((Node) o).getText()));
+                        synchronized (timeLayoutFormat) {
+                            result.add(timeLayoutFormat.parse(((Node) o).getText()));
+                        }
                     } catch (ParseException e) {
                         result.add(null);
                         Logging.println("Couldn't parse date in the forecast", e);
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa;
+
+import com.controlj.addon.weather.service.WeatherServiceException;
+import com.controlj.addon.weather.util.Logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The NOAA weather station list, shared by all NOAA service instances.  The list is downloaded at most once
+ * a day (NOAA suggests picking it up daily) and saved to disk in a compact binary form, so a restart loads it
+ * from the file instead of downloading and parsing the large XML station index again.
+ * <p/>
+ * Once the list is older than {@link #TIME_TO_LIVE}, it is refreshed on a background thread while the old list
+ * continues to be used.  Only the very first lookup (with no saved file) has to wait for the download.
+ */
+public class StationCatalog
+{
+   static final long TIME_TO_LIVE = 24 * 60 * 60 * 1000L;
+   private static final long RETRY_AFTER_FAILURE = 15 * 60 * 1000L;
+   private static final String FILE_NAME = "nws-stations.dat";
+   private static final int MAGIC = 0x4e575353;   // "NWSS"
+   private static final int VERSION = 2;
+   private static final int NULL_LENGTH = 0xffff;   // the length saved for a null string
+
+   private static final StationCatalog singleton = new StationCatalog();
+
+   /**
+    * Gets the StationCatalog singleton.
+    */
+   public static StationCatalog getSingleton() { return singleton; }
+
+   private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+   private final AtomicBoolean refreshing = new AtomicBoolean();
+   private final Object loadLock = new Object();
+   private volatile long lastFailure;
+   private volatile File dataDir;
+
+   /**
+    * Sets the directory the station list is saved in, normally the add-on's own directory (see
+    * {@link com.controlj.addon.weather.ScheduledWeatherLookup}).  Until it is set, the list is saved in the
+    * system's temporary directory.
+    */
+   public void setDataDir(File dataDir)
+   {
+      this.dataDir = dataDir;
+   }
+
+   /**
+    * Returns the station index, loading it from disk or downloading it if this is the first use.  If the index
+    * has expired, a refresh is started in the background and the current index is returned.
+    */
+   public StationIndex getStationIndex(DocumentLoader loader) throws WeatherServiceException
+   {
+      Snapshot snapshot = current.get();
+      if (snapshot == null)
+      {
+         synchronized (loadLock)
+         {
+            snapshot = current.get();
+            if (snapshot == null)
+            {
+               snapshot = readFile(getFile());
+               if (snapshot == null)
+                  snapshot = download(loader);
+               current.set(snapshot);
+            }
+         }
+      }
+
+      if (System.currentTimeMillis() - snapshot.fetched > TIME_TO_LIVE)
+         refreshInBackground(loader);
+      return snapshot.index;
+   }
+
+   /**
+    * Loads the station index on a background thread so that it is ready before the first station lookup.
+    */
+   public void preload(final DocumentLoader loader)
+   {
+      startThread("Weather station catalog load", new Runnable()
+      {
+         //@Override
+         public void run()
+         {
+            try
+            {
+               getStationIndex(loader);
+            }
+            catch (WeatherServiceException e)
+            {
+               Logging.println("Error loading weather station list", e);
+            }
+         }
+      });
+   }
+
+   private void refreshInBackground(final DocumentLoader loader)
+   {
+      if (System.currentTimeMillis() - lastFailure < RETRY_AFTER_FAILURE || !refreshing.compareAndSet(false, true))
+         return;
+
+      startThread("Weather station catalog refresh", new Runnable()
+      {
+         //@Override
+         public void run()
+         {
+            try
+            {
+               current.set(download(loader));
+            }
+            catch (WeatherServiceException e)
+            {
+               Logging.println("Error refreshing weather station list, continuing with the old list", e);
+            }
+            finally
+            {
+               refreshing.set(false);
+            }
+         }
+      });
+   }
+
+   private static void startThread(String name, Runnable runnable)
+   {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   private Snapshot download(DocumentLoader loader) throws WeatherServiceException
+   {
+      StationIndex index;
+      try
+      {
+         index = StationIndex.fromDocument(loader.getWeatherStationsDoc());
+      }
+      catch (WeatherServiceException e)
+      {
+         lastFailure = System.currentTimeMillis();
+         throw e;
+      }
+      if (index.size() == 0)
+      {
+         lastFailure = System.currentTimeMillis();
+         throw new WeatherServiceException("The weather station list is empty");
+      }
+
+      Snapshot snapshot = new Snapshot(index, System.currentTimeMillis());
+      try
+      {
+         writeFile(getFile(), snapshot);
+      }
+      catch (IOException e)
+      {
+         Logging.println("Error saving weather station list", e);
+      }
+      return snapshot;
+   }
+
+   /**
+    * Reads the saved station list, returning null if there isn't one or it can't be read.  The file has a
+    * header (magic, version, fetch time and station count), then all latitudes, all longitudes, all ids and
+    * all names.  Strings are stored as an unsigned short byte count followed by UTF-8 bytes, or as a count of
+    * {@link #NULL_LENGTH} for null (stations without a name).
+    */
+   static Snapshot readFile(File file)
+   {
+      if (!file.isFile())
+         return null;
+
+      try
+      {
+         FileInputStream in = new FileInputStream(file);
+         try
+         {
+            // read rather than map the file, since Windows won't let a mapped file be replaced on refresh
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+               return null;
+
+            long fetched = buffer.getLong();
+            int count = buffer.getInt();
+            float[] latitudes = new float[count];
+            float[] longitudes = new float[count];
+            buffer.asFloatBuffer().get(latitudes);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asFloatBuffer().get(longitudes);
+            buffer.position(buffer.position() + count * 4);
+            String[] ids = readStrings(buffer, count);
+            String[] names = readStrings(buffer, count);
+            return new Snapshot(new StationIndex(ids, names, latitudes, longitudes), fetched);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException e)
+      {
+         Logging.println("Error reading saved weather station list", e);
+      }
+      catch (BufferUnderflowException e)
+      {
+         Logging.println("Saved weather station list is truncated, ignoring it");
+      }
+      catch (RuntimeException e)
+      {
+         Logging.println("Saved weather station list is corrupt, ignoring it", e);
+      }
+      return null;
+   }
+
+   private static String[] readStrings(ByteBuffer buffer, int count) throws IOException
+   {
+      String[] result = new String[count];
+      for (int i = 0; i < count; i++)
+      {
+         int length = buffer.getShort() & 0xffff;
+         if (length == NULL_LENGTH)
+            continue;
+         byte[] bytes = new byte[length];
+         buffer.get(bytes);
+         result[i] = new String(bytes, "UTF-8");
+      }
+      return result;
+   }
+
+   /**
+    * Writes the station list to a temporary file and then replaces the saved file with it, so a reader never
+    * sees a partly written file.
+    */
+   static void writeFile(File file, Snapshot snapshot) throws IOException
+   {
+      StationIndex index = snapshot.index;
+      int count = index.size();
+      File temp = new File(file.getPath() + ".tmp");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeLong(snapshot.fetched);
+         out.writeInt(count);
+         for (int i = 0; i < count; i++)
+            out.writeFloat(index.getLatitude(i));
+         for (int i = 0; i < count; i++)
+            out.writeFloat(index.getLongitude(i));
+         for (int i = 0; i < count; i++)
+            writeString(out, index.getId(i));
+         for (int i = 0; i < count; i++)
+            writeString(out, index.getName(i));
+      }
+      finally
+      {
+         out.close();
+      }
+
+      // renameTo won't replace an existing file on Windows
+      if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+         throw new IOException("Unable to replace " + file);
+   }
+
+   private static void writeString(DataOutputStream out, String value) throws IOException
+   {
+      if (value == null)
+      {
+         out.writeShort(NULL_LENGTH);
+         return;
+      }
+      byte[] bytes = value.getBytes("UTF-8");
+      int length = Math.min(bytes.length, NULL_LENGTH - 1);
+      out.writeShort(length);
+      out.write(bytes, 0, length);
+   }
+
+   private File getFile()
+   {
+      return new File(getDataDir(), FILE_NAME);
+   }
+
+   private File getDataDir()
+   {
+      File dir = dataDir;
+      if (dir != null && (dir.isDirectory() || dir.mkdirs()))
+         return dir;
+
+      File tempDir = new File(System.getProperty("java.io.tmpdir"));
+      Logging.println(dir == null ? "No data directory for the add-on, saving the weather station list in " + tempDir :
+                                    "Unable to create " + dir + ", saving the weather station list in " + tempDir);
+      return tempDir;
+   }
+
+   static class Snapshot
+   {
+      final StationIndex index;
+      final long fetched;
+
+      Snapshot(StationIndex index, long fetched)
+      {
+         this.index = index;
+         this.fetched = fetched;
+      }
+   }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa;
+
+import com.controlj.addon.weather.data.StationSource;
+import org.dom4j.Document;
+import org.dom4j.Element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the NOAA weather stations for finding the stations closest to a location.
+ * The stations are held in primitive arrays and arranged in a k-d tree over their positions as unit
+ * vectors on the globe.  The straight line distance between two unit vectors increases with the great
+ * circle distance, so the closest stations in the tree are exactly the closest stations on the globe.
+ * <p/>
+ * Instances are immutable and safe to share between threads.
+ */
+public class StationIndex {
+    private final String[] ids;
+    private final String[] names;
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final double[] coords;   // x, y, z for each station
+    private final int[] tree;        // station indexes, in k-d tree order
+    private final Map<String, Integer> idIndex;
+
+    /**
+     * Creates an index of the given stations.  All arrays must be the same length.
+     */
+    public StationIndex(String[] ids, String[] names, float[] latitudes, float[] longitudes) {
+        if (names.length != ids.length || latitudes.length != ids.length || longitudes.length != ids.length)
+            throw new IllegalArgumentException("Station arrays are not all the same length");
+
+        this.ids = ids;
+        this.names = names;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+
+        int count = ids.length;
+        coords = new double[count * 3];
+        idIndex = new HashMap<String, Integer>(count * 2);
+        tree = new int[count];
+        for (int i = 0; i < count; i++) {
+            toUnitVector(latitudes[i], longitudes[i], coords, i * 3);
+            idIndex.put(ids[i], i);
+            tree[i] = i;
+        }
+        build(0, count, 0);
+    }
+
+    /**
+     * Creates an index from the NOAA station index document (current_obs/index.xml).  Stations without an
+     * id or with a missing or malformed location are skipped.
+     */
+    public static StationIndex fromDocument(Document weatherStations) {
+        List<String> ids = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<Float> latitudes = new ArrayList<Float>();
+        List<Float> longitudes = new ArrayList<Float>();
+
+        for (Object node : weatherStations.selectNodes("/wx_station_index//station")) {
+            Element station = (Element) node;
+            String id = station.elementTextTrim("station_id");
+            String latitudeText = station.elementTextTrim("latitude");
+            String longitudeText = station.elementTextTrim("longitude");
+            if (id == null || id.length() == 0 || latitudeText == null || longitudeText == null)
+                continue;
+            try {
+                float latitude = Float.parseFloat(latitudeText);
+                float longitude = Float.parseFloat(longitudeText);
+                ids.add(id);
+                names.add(station.elementText("station_name"));
+                latitudes.add(latitude);
+                longitudes.add(longitude);
+            } catch (NumberFormatException e) {} // skip this one if malformed
+        }
+
+        int count = ids.size();
+        float[] lats = new float[count];
+        float[] lons = new float[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = latitudes.get(i);
+            lons[i] = longitudes.get(i);
+        }
+        return new StationIndex(ids.toArray(new String[count]), names.toArray(new String[count]), lats, lons);
+    }
+
+    /**
+     * Returns the number of stations in the index.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    public String getId(int station) {
+        return ids[station];
+    }
+
+    public String getName(int station) {
+        return names[station];
+    }
+
+    public float getLatitude(int station) {
+        return latitudes[station];
+    }
+
+    public float getLongitude(int station) {
+        return longitudes[station];
+    }
+
+    /**
+     * Returns the index of the station with the given id, or -1 if there is no such station.
+     */
+    public int indexOf(String id) {
+        Integer index = idIndex.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the station as a StationSource.
+     */
+    public StationSource getStationSource(int station) {
+        StationSource source = new StationSource();
+        source.setId(ids[station]);
+        source.setName(names[station]);
+        source.setLatitude(latitudes[station]);
+        source.setLongitude(longitudes[station]);
+        return source;
+    }
+
+    /**
+     * Returns the great circle distance from the station to the given location.
+     */
+    public float getDistanceTo(int station, float latitude, float longitude, boolean isMetric) {
+        return DistanceUtility.greatCircleDistanceDegrees(isMetric ? DistanceUtility.KILOMETERS : DistanceUtility.MILES,
+                latitude, longitude, latitudes[station], longitudes[station]);
+    }
+
+    /**
+     * Returns the index of the station closest to the given location, or -1 if the index is empty.
+     */
+    public int findNearest(float latitude, float longitude) {
+        int[] nearest = findNearest(latitude, longitude, 1);
+        return nearest.length == 0 ? -1 : nearest[0];
+    }
+
+    /**
+     * Returns the indexes of the (up to) <code>count</code> stations closest to the given location, closest first.
+     */
+    public int[] findNearest(float latitude, float longitude, int count) {
+        count = Math.min(count, ids.length);
+        if (count <= 0)
+            return new int[0];
+
+        double[] target = new double[3];
+        toUnitVector(latitude, longitude, target, 0);
+        Neighbors neighbors = new Neighbors(count);
+        search(0, tree.length, 0, target, neighbors);
+        return neighbors.stations;
+    }
+
+    private void search(int lo, int hi, int depth, double[] target, Neighbors neighbors) {
+        if (lo >= hi)
+            return;
+
+        int mid = (lo + hi) >>> 1;
+        int station = tree[mid];
+        int base = station * 3;
+        double dx = coords[base] - target[0];
+        double dy = coords[base + 1] - target[1];
+        double dz = coords[base + 2] - target[2];
+        neighbors.offer(station, dx * dx + dy * dy + dz * dz);
+
+        int axis = depth % 3;
+        double diff = coords[base + axis] - target[axis];
+        if (diff > 0) {
+            search(lo, mid, depth + 1, target, neighbors);
+            if (diff * diff < neighbors.worstDistance())
+                search(mid + 1, hi, depth + 1, target, neighbors);
+        } else {
+            search(mid + 1, hi, depth + 1, target, neighbors);
+            if (diff * diff < neighbors.worstDistance())
+                search(lo, mid, depth + 1, target, neighbors);
+        }
+    }
+
+    /**
+     * Arranges tree[lo..hi) so that the median (by the axis for this depth) is in the middle, with smaller
+     * values before it and larger after, then does the same for each half.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1)
+            return;
+
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 3);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            int pivotIndex = partition(left, right, (left + right) >>> 1, axis);
+            if (pivotIndex == k)
+                return;
+            else if (k < pivotIndex)
+                right = pivotIndex - 1;
+            else
+                left = pivotIndex + 1;
+        }
+    }
+
+    private int partition(int left, int right, int pivotIndex, int axis) {
+        double pivot = coords[tree[pivotIndex] * 3 + axis];
+        swap(pivotIndex, right);
+        int store = left;
+        for (int i = left; i < right; i++) {
+            if (coords[tree[i] * 3 + axis] < pivot)
+                swap(i, store++);
+        }
+        swap(store, right);
+        return store;
+    }
+
+    private void swap(int i, int j) {
+        int temp = tree[i];
+        tree[i] = tree[j];
+        tree[j] = temp;
+    }
+
+    private static void toUnitVector(float latitude, float longitude, double[] result, int offset) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cosLat = Math.cos(lat);
+        result[offset] = cosLat * Math.cos(lon);
+        result[offset + 1] = cosLat * Math.sin(lon);
+        result[offset + 2] = Math.sin(lat);
+    }
+
+    /**
+     * The closest stations found so far, kept sorted closest first.
+     */
+    private static class Neighbors {
+        private final int[] stations;
+        private final double[] distances;
+        private int size;
+
+        private Neighbors(int capacity) {
+            stations = new int[capacity];
+            distances = new double[capacity];
+            Arrays.fill(distances, Double.MAX_VALUE);
+        }
+
+        private double worstDistance() {
+            return distances[distances.length - 1];
+        }
+
+        private void offer(int station, double distance) {
+            if (size == stations.length && distance >= worstDistance())
+                return;
+
+            int i = size < stations.length ? size++ : stations.length - 1;
+            while (i > 0 && distances[i - 1] > distance) {
+                stations[i] = stations[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            stations[i] = station;
+            distances[i] = distance;
+        }
+    }
+}
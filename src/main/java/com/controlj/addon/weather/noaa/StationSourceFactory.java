@@ -27,9 +27,6 @@ import com.controlj.addon.weather.service.InvalidConfigurationDataException;
 import com.controlj.addon.weather.service.WeatherServiceException;
 import org.dom4j.Document;
 import org.dom4j.Node;
-import org.dom4j.XPath;
-
-import java.util.List;
 
 /**
  *
@@ -42,6 +39,11 @@ public class StationSourceFactory {
     }
 
    public StationSource findClosestWeatherStation(Document weatherStations) throws InvalidConfigurationDataException
+   {
+      return findClosestWeatherStation(StationIndex.fromDocument(weatherStations));
+   }
+
+   public StationSource findClosestWeatherStation(StationIndex stationIndex) throws InvalidConfigurationDataException
    {
       String text = getLatLong();
       float latitude;
@@ -57,8 +59,10 @@ public class StationSourceFactory {
          throw new InvalidConfigurationDataException("Error parsing lat/lon from "+text, e);
       }
 
-      String id = findClosestWeatherStationID(weatherStations, latitude, longitude);
-      return getStationSource(weatherStations, id);
+      int station = stationIndex.findNearest(latitude, longitude);
+      if (station < 0)
+         throw new InvalidConfigurationDataException("No weather stations available");
+      return stationIndex.getStationSource(station);
    }
 
    private String getLatLong() throws InvalidConfigurationDataException
@@ -69,36 +73,4 @@ public class StationSourceFactory {
        }
        return node.getText();
    }
-
-    private String findClosestWeatherStationID(Document weatherStations, float latitude, float longitude) {
-        XPath idXpath = weatherStations.createXPath("station_id");
-        float minDistance = Float.MAX_VALUE;
-        String minId= null;
-
-        List stations = weatherStations.selectNodes("/wx_station_index//station");
-        for (Object station : stations) {
-            try {
-                StationSourceImpl stationSource = new StationSourceImpl((Node) station);
-                float nextDistance = stationSource.getDistanceTo(latitude,  longitude, false);
-                if (nextDistance < minDistance) {
-                    Node id = idXpath.selectSingleNode(station);
-                    if (id != null) {
-                        minId = id.getText();
-                        minDistance = nextDistance;
-                    }
-                }
-            } catch (NumberFormatException e) {} // skip this one if malformed
-        }
-        return minId;
-    }
-
-    private StationSource getStationSource(Document weatherStations, String stationID) {
-       StationSourceImpl impl = new StationSourceImpl(weatherStations.selectSingleNode("/wx_station_index/station[station_id = '" + stationID + "']"));
-       StationSource source = new StationSource();
-       source.setId(impl.getId());
-       source.setName(impl.getName());
-       source.setLatitude(impl.getLatitude());
-       source.setLongitude(impl.getLongitude());
-       return source;
-    }
 }
@@ -24,6 +24,7 @@ package com.controlj.addon.weather.noaa;
 import com.controlj.addon.weather.data.WeatherIcon;
 import com.controlj.addon.weather.util.Logging;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -36,6 +37,9 @@ public class WeatherIconMapper
 {
    private static final Pattern ICON_URL_PATTERN = Pattern.compile("(?:.*/)?([a-zA-Z_]+)[0-9]*.*");
 
+   // built once and never changed, so mappers are cheap to create and safe to share between threads
+   private static final Map<String, WeatherIcon> ICON_MAP = Collections.unmodifiableMap(makeIconMap());
+
    /**
     * Given an icon URL, returns the associated WeatherIcon.  If none can be found, returns Unknown.
     */
@@ -47,8 +51,7 @@ public class WeatherIconMapper
       Matcher matcher = ICON_URL_PATTERN.matcher(iconUrl);
       if (matcher.matches())
       {
-         Map<String, WeatherIcon> map = makeIconMap();
-         WeatherIcon icon = map.get(matcher.group(1));
+         WeatherIcon icon = ICON_MAP.get(matcher.group(1));
          if (icon != null)
             return icon;
 
@@ -60,7 +63,7 @@ public class WeatherIconMapper
       return WeatherIcon.Unknown;
    }
 
-   private Map<String, WeatherIcon> makeIconMap()
+   private static Map<String, WeatherIcon> makeIconMap()
    {
       Map<String, WeatherIcon> map = new HashMap<String, WeatherIcon>();
 
@@ -25,54 +25,103 @@ package com.controlj.addon.weather.noaa;
 import com.controlj.addon.weather.data.ForecastSource;
 import com.controlj.addon.weather.data.StationSource;
 import com.controlj.addon.weather.data.ConditionsSource;
+import com.controlj.addon.weather.service.BatchForecastService;
 import com.controlj.addon.weather.service.InvalidConfigurationDataException;
 import com.controlj.addon.weather.service.WeatherService;
 import com.controlj.addon.weather.service.WeatherServiceException;
 import com.controlj.addon.weather.service.WeatherServiceUI;
-import org.dom4j.Document;
+import com.controlj.addon.weather.util.HTTPHelper;
+import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestPolicy;
 
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  *
  */
-public class WeatherServiceImpl implements WeatherService {
+public class WeatherServiceImpl implements WeatherService, BatchForecastService {
+    private static final int REQUESTED_DAYS = 7;  //TODO: fix me!
+    // the NDFD service rejects very long point lists, so larger batches are split over several requests
+    private static final int MAX_POINTS_PER_REQUEST = 50;
+
     static final String CONFIG_KEY_UNITS = "units";
     static final String CONFIG_VALUE_UNITS_IMPERIAL = "imperial";
     static final String CONFIG_VALUE_UNITS_METRIC = "metric";
 
-    private final DocumentLoader documentLoader = new DocumentLoader();
+    private final DocumentLoader documentLoader;
+    private final ConditionsSourceFactory conditionsFactory = new ConditionsSourceFactory();
     private WeatherServiceUI ui = new WeatherServiceUIImpl();
 
+    public WeatherServiceImpl(HTTPHelper httpHelper) {
+        documentLoader = new DocumentLoader(httpHelper);
+    }
+
+    /**
+     * Starts loading the station list in the background, so that it is ready before the first station lookup.
+     */
+    public void preloadStations() {
+        StationCatalog.getSingleton().preload(documentLoader);
+    }
+
 
    public StationSource resolveConfigurationToStation(String zipCode) throws InvalidConfigurationDataException, WeatherServiceException
    {
        StationSourceFactory factory = new StationSourceFactory(documentLoader.loadZipcodeDoc(zipCode));
-       return factory.findClosestWeatherStation(documentLoader.getWeatherStationsDoc());
+       return factory.findClosestWeatherStation(documentLoader.getStationIndex());
    }
 
    //@Override
    public ConditionsSource getConditionsSource(Map<String, String> configData, StationSource station, Map<String, String> entryData) throws WeatherServiceException {
       boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
-      Document currentObs = documentLoader.getCurrentObs(station.getId());
-      ConditionsSourceFactory wsFactory = new ConditionsSourceFactory();
-      return wsFactory.createSourceFromDocument(currentObs, isMetric);
+      return documentLoader.getCurrentObs(station.getId(), RequestPolicy.fromServiceConfig(configData), conditionsFactory.getReader(isMetric));
    }
 
    //@Override
    public ForecastSource[] getForecastSources(Map<String, String> configData, StationSource station, Map<String, String> entryData) throws WeatherServiceException {
-       int requestedDays = 7;  //TODO: fix me!
        boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
-       ForecastSource[] result = new ForecastSource[requestedDays];
-       Document forecast = documentLoader.getForecast(station.getLatitude(), station.getLongitude(), requestedDays, isMetric);
-       ForecastSourceFactory fsFactory = new ForecastSourceFactory(isMetric, forecast);
-       int returnedDays = fsFactory.getNumberForecastedDays();
-       int minDays = Math.min(returnedDays, requestedDays);
+       DwmlForecastReader forecast = documentLoader.getForecast(station.getLatitude(), station.getLongitude(), REQUESTED_DAYS, isMetric,
+                                                                  RequestPolicy.fromServiceConfig(configData));
+       return createForecastSources(forecast.getForecast());
+   }
+
+   /**
+    * Requests the forecasts for up to {@link #MAX_POINTS_PER_REQUEST} stations at a time from the NDFD
+    * multi-point interface, reading the forecast for each station out of each response.
+    */
+   //@Override
+   public Map<String, ForecastSource[]> getForecastSources(Map<String, String> configData, List<StationSource> stations) throws WeatherServiceException {
+       // the unit system is part of the request, so all the stations in one call share the configured units
+       boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
+       RequestPolicy policy = RequestPolicy.fromServiceConfig(configData);
+       Map<String, ForecastSource[]> results = new HashMap<String, ForecastSource[]>();
+
+       for (int start = 0; start < stations.size(); start += MAX_POINTS_PER_REQUEST) {
+           List<StationSource> points = stations.subList(start, Math.min(start + MAX_POINTS_PER_REQUEST, stations.size()));
+           DwmlForecastReader reader = documentLoader.getForecasts(points, REQUESTED_DAYS, isMetric, policy);
+           for (int i = 0; i < points.size(); i++) {
+               // the NDFD service names the points in the order they were requested
+               try {
+                   DwmlForecast forecast = reader.getForecast("point" + (i + 1));
+                   if (forecast != null)
+                       results.put(points.get(i).getId(), createForecastSources(forecast));
+               } catch (WeatherServiceException e) {
+                   Logging.println("Error reading forecast for station " + points.get(i).getId() + " from multi-point forecast", e);
+               }
+           }
+       }
+       return results;
+   }
+
+   private ForecastSource[] createForecastSources(DwmlForecast forecast) {
+       ForecastSource[] result = new ForecastSource[REQUESTED_DAYS];
+       int returnedDays = forecast.getNumberForecastedDays();
+       int minDays = Math.min(returnedDays, REQUESTED_DAYS);
 
        for (int i=0; i<minDays; i++) {
-           result[i] = fsFactory.getForecast(i);
+           result[i] = forecast.getForecast(i);
        }
        return result;
    }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.service;
+
+import com.controlj.addon.weather.data.ForecastSource;
+import com.controlj.addon.weather.data.StationSource;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implemented by weather services that can return the forecasts for many stations with fewer requests than
+ * asking for each station separately.
+ */
+public interface BatchForecastService
+{
+   /**
+    * Retrieves the weather forecast information for several stations.  The result maps station id to the
+    * forecasts for that station, in the same form as {@link WeatherService#getForecastSources}.  Stations the
+    * service had no forecast for are left out of the result, so callers can fall back to requesting them
+    * individually.
+    *
+    * @param configData configuration settings for the whole weather service.
+    * @param stations the stations to retrieve forecasts for.
+    * @return the forecast information by station id.
+    */
+   public Map<String, ForecastSource[]> getForecastSources(Map<String, String> configData, List<StationSource> stations) throws WeatherServiceException;
+}
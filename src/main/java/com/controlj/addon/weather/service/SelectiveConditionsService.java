@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.service;
+
+import com.controlj.addon.weather.data.ConditionsField;
+import com.controlj.addon.weather.data.ConditionsSource;
+import com.controlj.addon.weather.data.StationSource;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implemented by weather services that have a cheaper request for the current conditions when only some of the
+ * fields are needed.
+ */
+public interface SelectiveConditionsService
+{
+   /**
+    * Retrieves the current weather conditions, with at least the given fields.  The result is the same as from
+    * {@link WeatherService#getConditionsSource} unless the service can provide the fields from a smaller request,
+    * in which case the result is {@link ConditionsSource#isPartial partial}.
+    *
+    * @param configData configuration settings for the whole weather service.
+    * @param entryData configuration for the entry for which to retrieve conditions.
+    * @param fields the fields that will be read from the result.
+    * @return the current weather conditions.
+    */
+   public ConditionsSource getConditionsSource(Map<String, String> configData, StationSource stationSource, Map<String, String> entryData,
+                                               Set<ConditionsField> fields) throws WeatherServiceException;
+
+   /**
+    * Returns true if {@link #getConditionsSource(Map, StationSource, Map, Set)} would return a partial source for
+    * the given fields.
+    */
+   public boolean isPartial(Set<ConditionsField> fields);
+}
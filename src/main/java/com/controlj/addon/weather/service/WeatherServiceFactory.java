@@ -21,17 +21,19 @@
  */
 package com.controlj.addon.weather.service;
 
+import com.controlj.addon.weather.util.HTTPHelper;
+
 /**
  * Looks up a WeatherService by name.
  */
 public class WeatherServiceFactory
 {
-   public WeatherService getService(WeatherServices service) throws WeatherServiceException
+   public WeatherService getService(WeatherServices service, HTTPHelper httpHelper) throws WeatherServiceException
    {
       switch (service)
       {
-         case nws:  return new com.controlj.addon.weather.noaa.WeatherServiceImpl();
-         case wbug: return new com.controlj.addon.weather.wbug.WeatherServiceImpl();
+         case nws:  return new com.controlj.addon.weather.noaa.WeatherServiceImpl(httpHelper);
+         case wbug: return new com.controlj.addon.weather.wbug.WeatherServiceImpl(httpHelper);
       }
       throw new WeatherServiceException("No weather service named '"+service.getDisplayName()+ "' is available");
    }
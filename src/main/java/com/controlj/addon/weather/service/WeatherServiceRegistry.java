@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.service;
+
+import com.controlj.addon.weather.util.HTTPHelper;
+import com.controlj.addon.weather.util.RequestThrottle;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Holds the one instance of each weather service for the whole add-on, along with the throttle that limits
+ * the scheduled requests to it and the {@link HTTPHelper} the services make their requests with.  The
+ * configuration is reloaded for every update and every page, so anything a service keeps between requests (the
+ * NWS station index, the WeatherBug client, its retry budget, cached responses) lives as long as the add-on
+ * instead of as long as one {@link com.controlj.addon.weather.config.ConfigData}.
+ * <p/>
+ * The registry is {@link #shutdown} when the add-on stops, which also releases the HTTP connections.  Services
+ * asked for after that are created again.
+ */
+public class WeatherServiceRegistry
+{
+   private static final WeatherServiceRegistry singleton = new WeatherServiceRegistry();
+
+   /**
+    * Gets the WeatherServiceRegistry singleton.
+    */
+   public static WeatherServiceRegistry getSingleton() { return singleton; }
+
+   private final WeatherServiceFactory factory;
+   private final Map<WeatherServices, WeatherService> services = new EnumMap<WeatherServices, WeatherService>(WeatherServices.class);
+   private final Map<WeatherServices, RequestThrottle> throttles = new EnumMap<WeatherServices, RequestThrottle>(WeatherServices.class);
+   private HTTPHelper httpHelper;  // null until a service needs it
+
+   WeatherServiceRegistry()
+   {
+      this(new WeatherServiceFactory());
+   }
+
+   WeatherServiceRegistry(WeatherServiceFactory factory)
+   {
+      this.factory = factory;
+   }
+
+   /**
+    * Returns the instance of the given weather service, creating it the first time it is asked for.
+    */
+   public synchronized WeatherService getService(WeatherServices service) throws WeatherServiceException
+   {
+      WeatherService result = services.get(service);
+      if (result == null)
+      {
+         result = factory.getService(service, getHTTPHelper());
+         services.put(service, result);
+      }
+      return result;
+   }
+
+   /**
+    * Returns the HTTP helper shared by all the services, creating it the first time it is asked for.
+    */
+   public synchronized HTTPHelper getHTTPHelper()
+   {
+      if (httpHelper == null)
+         httpHelper = new HTTPHelper();
+      return httpHelper;
+   }
+
+   /**
+    * Returns the HTTP helper shared by all the services, or null if it hasn't been created (or has been shut
+    * down).  Unlike {@link #getHTTPHelper}, this never starts a connection pool.
+    */
+   public synchronized HTTPHelper peekHTTPHelper()
+   {
+      return httpHelper;
+   }
+
+   /**
+    * Returns the throttle for requests to the given weather service.  The same throttle is returned as long as the
+    * limits stay the same, so that every update shares it; when the configured limits change a new throttle is
+    * created (requests already holding the old one finish under the old limits).
+    */
+   public synchronized RequestThrottle getThrottle(WeatherServices service, int maxConcurrent, int spacingMillis)
+   {
+      RequestThrottle throttle = throttles.get(service);
+      if (throttle == null || throttle.getMaxConcurrent() != Math.max(maxConcurrent, 1) ||
+          throttle.getSpacingMillis() != Math.max(spacingMillis, 0))
+      {
+         throttle = new RequestThrottle(maxConcurrent, spacingMillis);
+         throttles.put(service, throttle);
+      }
+      return throttle;
+   }
+
+   /**
+    * Drops all the service instances and throttles and releases the HTTP connections.
+    */
+   public void shutdown()
+   {
+      HTTPHelper oldHelper;
+      synchronized (this)
+      {
+         services.clear();
+         throttles.clear();
+         oldHelper = httpHelper;
+         httpHelper = null;
+      }
+      if (oldHelper != null)
+         oldHelper.shutdown();
+   }
+}
@@ -24,6 +24,7 @@ package com.controlj.addon.weather.service;
 import com.controlj.addon.weather.ScheduledWeatherLookup;
 import com.controlj.addon.weather.config.ConfigData;
 import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestPolicy;
 import com.controlj.addon.weather.util.ResponseWriter;
 import org.apache.commons.io.IOUtils;
 
@@ -105,6 +106,20 @@ public abstract class WeatherServiceUIBase implements WeatherServiceUI {
             writer.addValidationError("forecastrefresh", "forecast rate not specified");
         }
 
+        String threadsString = req.getParameter("updatethreads");
+        if (threadsString != null) {
+            try {
+                configData.setUpdateThreads(Integer.parseInt(threadsString));
+            } catch (NumberFormatException e) {
+                writer.addValidationError("updatethreads", "\"" + threadsString + "\" is not a valid number");
+            }
+        }
+
+        updateOptionalIntegerConfigField(RequestPolicy.CONFIG_KEY_CONNECT_TIMEOUT, configData, writer, req, 1, 300);
+        updateOptionalIntegerConfigField(RequestPolicy.CONFIG_KEY_READ_TIMEOUT, configData, writer, req, 1, 300);
+        updateOptionalIntegerConfigField(RequestPolicy.CONFIG_KEY_REQUEST_TIMEOUT, configData, writer, req, 1, 600);
+        updateOptionalIntegerConfigField(RequestPolicy.CONFIG_KEY_RETRIES, configData, writer, req, 0, 10);
+
         if (rescheduleUpdates)
             ScheduledWeatherLookup.rescheduleUpdates(configData.getConditionsRefreshInMinutes(),
                                                      configData.getForecastsRefreshInMinutes());
@@ -144,4 +159,15 @@ public abstract class WeatherServiceUIBase implements WeatherServiceUI {
         }
     }
 
+    /**
+     * Like {@link #updateIntegerConfigField}, but a missing or blank value removes the field so that the
+     * default is used.
+     */
+    protected void updateOptionalIntegerConfigField(String field, ConfigData configData, ResponseWriter writer, HttpServletRequest req, int min, int max) {
+        String stringVal = req.getParameter(field);
+        if (stringVal == null || stringVal.trim().length() == 0)
+            configData.getServiceConfigData().remove(field);
+        else
+            updateIntegerConfigField(field, configData, writer, req, min, max);
+    }
 }
@@ -27,18 +27,23 @@ package com.controlj.addon.weather.service;
  */
 public enum WeatherServices
 {
-   nws("National Weather Service", 15, 60),
-   wbug("WeatherBug.com", 15, 60);
+   nws("National Weather Service", 15, 60, 4, 250),
+   wbug("WeatherBug.com", 15, 60, 2, 500);
 
    private final String displayName;
    private final int minConditionsRefresh;
    private final int minForecastsRefresh;
+   private final int maxConcurrentRequests;
+   private final int requestSpacingMillis;
 
-   WeatherServices(String displayName, int minConditionsRefresh, int minForecastsRefresh)
+   WeatherServices(String displayName, int minConditionsRefresh, int minForecastsRefresh,
+                   int maxConcurrentRequests, int requestSpacingMillis)
    {
       this.displayName = displayName;
       this.minConditionsRefresh = minConditionsRefresh;
       this.minForecastsRefresh = minForecastsRefresh;
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      this.requestSpacingMillis = requestSpacingMillis;
    }
 
    public String getDisplayName()
@@ -55,5 +60,23 @@ public enum WeatherServices
    {
       return minForecastsRefresh;
    }
+
+   /**
+    * Returns the default number of requests that may be outstanding against this service at one time
+    * during a scheduled update.
+    */
+   public int getMaxConcurrentRequests()
+   {
+      return maxConcurrentRequests;
+   }
+
+   /**
+    * Returns the default minimum time between the start of two requests to this service during a
+    * scheduled update.
+    */
+   public int getRequestSpacingMillis()
+   {
+      return requestSpacingMillis;
+   }
 }
 
@@ -22,15 +22,20 @@
 
 package com.controlj.addon.weather.servlets;
 
+import com.controlj.addon.weather.EquipmentHandler;
+import com.controlj.addon.weather.FetchCoalescer;
 import com.controlj.addon.weather.Licensing;
 import com.controlj.addon.weather.ScheduledWeatherLookup;
 import com.controlj.addon.weather.WeatherLookup;
+import com.controlj.addon.weather.WriteBehindQueue;
 import com.controlj.addon.weather.config.ConfigData;
 import com.controlj.addon.weather.config.ConfigDataFactory;
 import com.controlj.addon.weather.config.WeatherConfigEntry;
 import com.controlj.addon.weather.data.*;
 import com.controlj.addon.weather.service.*;
+import com.controlj.addon.weather.util.HTTPHelper;
 import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestPolicy;
 import com.controlj.addon.weather.util.ResponseWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -61,6 +66,7 @@ public class AjaxController extends HttpServlet {
     private static final String ACTION_DELETEROW = "deleterow";
     private static final String ACTION_ADDROW = "addrow";
     private static final String ACTION_CHANGESERVICE = "changeservice";
+    private static final String ACTION_STATS = "stats";
     private static final String ACTION_UI = "ui";   // ui specific action, forwarded to WeatheServiceUI
 
     private static final String JSON_DATA = "data";
@@ -73,6 +79,7 @@ public class AjaxController extends HttpServlet {
     private static final String JSON_FIELD    = "field";
     private static final String JSON_VALUE    = "value";
     private static final String JSON_UNITS    = "units";
+    private static final String JSON_STATS    = "stats";
 
 
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -123,6 +130,8 @@ public class AjaxController extends HttpServlet {
             } else if (ACTION_SHOWDATA.equals(action)) {
                 retrieveData(configData, writer);
                 showData(configData, writer, req);
+            } else if (ACTION_STATS.equals(action)) {
+                retrieveStats(writer);
             } else if (ACTION_UI.equals(action)) {
                 uiAction(configData, writer, req);
             } else {
@@ -134,6 +143,30 @@ public class AjaxController extends HttpServlet {
         writer.write();
     }
 
+    private void retrieveStats(ResponseWriter writer) {
+        // don't start a connection pool just to report that nothing has been requested yet
+        HTTPHelper httpHelper = WeatherServiceRegistry.getSingleton().peekHTTPHelper();
+        writer.putStringChild(JSON_STATS, "httprequests", Long.toString(httpHelper == null ? 0 : httpHelper.getRequestCount()));
+        writer.putStringChild(JSON_STATS, "httpnotmodified", Long.toString(httpHelper == null ? 0 : httpHelper.getNotModifiedCount()));
+        writer.putStringChild(JSON_STATS, "httpconnections", Integer.toString(httpHelper == null ? 0 : httpHelper.getConnectionsInPool()));
+        writer.putStringChild(JSON_STATS, "fetches", Long.toString(FetchCoalescer.getTotalFetchCount()));
+        writer.putStringChild(JSON_STATS, "savedfetches", Long.toString(FetchCoalescer.getTotalSavedCount()));
+        writer.putStringChild(JSON_STATS, "sharedlookups", Long.toString(WeatherLookup.getSharedLookupCount()));
+        writer.putStringChild(JSON_STATS, "stalelookups", Long.toString(WeatherLookup.getStaleLookupCount()));
+        writer.putStringChild(JSON_STATS, "pointwrites", Long.toString(EquipmentHandler.getPointWriteCount()));
+        writer.putStringChild(JSON_STATS, "suppressedwrites", Long.toString(EquipmentHandler.getSuppressedWriteCount()));
+
+        WriteBehindQueue writeQueue = ScheduledWeatherLookup.getWriteQueue();
+        if (writeQueue != null) {
+            writer.putStringChild(JSON_STATS, "writequeuedepth", Integer.toString(writeQueue.getDepth()));
+            writer.putStringChild(JSON_STATS, "writequeuesubmits", Long.toString(writeQueue.getSubmittedCount()));
+            writer.putStringChild(JSON_STATS, "writequeuecoalesced", Long.toString(writeQueue.getCoalescedCount()));
+            writer.putStringChild(JSON_STATS, "writequeueblocked", Long.toString(writeQueue.getBlockedCount()));
+            writer.putStringChild(JSON_STATS, "writequeuewaitms", Long.toString(writeQueue.getAverageWaitMillis()));
+            writer.putStringChild(JSON_STATS, "writelatencyms", Long.toString(writeQueue.getAverageWriteMillis()));
+        }
+    }
+
     private ConfigData changeService(ResponseWriter writer, HttpServletRequest req) throws IOException {
         WeatherServices serviceEnum = WeatherServiceUIBase.getSpecifiedService(req);
         ConfigData configData = ConfigDataFactory.create(serviceEnum);
@@ -349,6 +382,12 @@ public class AjaxController extends HttpServlet {
         writer.putString("currentservice", service.name());
         writer.putStringChild(JSON_DATA, "conditionrefresh", Integer.toString(configData.getConditionsRefreshInMinutes()));
         writer.putStringChild(JSON_DATA, "forecastrefresh", Integer.toString(configData.getForecastsRefreshInMinutes()));
+        writer.putStringChild(JSON_DATA, "updatethreads", Integer.toString(configData.getUpdateThreads()));
+        RequestPolicy policy = configData.getRequestPolicy();
+        writer.putStringChild(JSON_DATA, RequestPolicy.CONFIG_KEY_CONNECT_TIMEOUT, Integer.toString(policy.getConnectTimeoutMillis() / 1000));
+        writer.putStringChild(JSON_DATA, RequestPolicy.CONFIG_KEY_READ_TIMEOUT, Integer.toString(policy.getReadTimeoutMillis() / 1000));
+        writer.putStringChild(JSON_DATA, RequestPolicy.CONFIG_KEY_REQUEST_TIMEOUT, Integer.toString(policy.getRequestTimeoutMillis() / 1000));
+        writer.putStringChild(JSON_DATA, RequestPolicy.CONFIG_KEY_RETRIES, Integer.toString(policy.getMaxRetries()));
         Map<String,String> data = configData.getServiceConfigData();
         for (String key : data.keySet()) {
             writer.putStringChild(JSON_DATA, key, data.get(key));
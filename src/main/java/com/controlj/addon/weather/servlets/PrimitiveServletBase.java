@@ -40,7 +40,7 @@ public class PrimitiveServletBase extends HttpServlet {
     public static final SimpleDateFormat timeFormat = new SimpleDateFormat("MM/dd/yy hh:mm aa");
 
     protected ConfigData getConfigData() {
-        return ConfigDataFactory.loadConfigData();
+        return ConfigDataFactory.getSharedConfigData();
     }
 
     protected void iterateFields(ConditionsSource conditionData, StationSource stationData, ForecastSource[] forecastSources,
@@ -22,54 +22,285 @@
 package com.controlj.addon.weather.util;
 
 import org.apache.commons.lang.ObjectUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Reads XML documents from the weather services.  A helper holds an HTTP client with a pool of keep-alive
+ * connections, so repeated requests to the same host reuse a connection instead of paying for a new
+ * connection each time.  One helper is shared by all the services (see
+ * {@link com.controlj.addon.weather.service.WeatherServiceRegistry#getHTTPHelper}), and its pool is released
+ * by {@link #shutdown} when the add-on stops.
+ * <p/>
+ * When a server sends an ETag or Last-Modified header, the response body is kept along with it and the
+ * next request for the same URI is made conditional.  If the server answers 304 Not Modified, the kept
+ * body is parsed again instead of being downloaded.  Only bodies of up to {@link #MAX_CACHED_RESPONSE_BYTES}
+ * are kept, and the least recently used are dropped once they add up to more than {@link #MAX_CACHE_BYTES}.
+ * <p/>
+ * Responses are parsed directly from the connection (gzip compressed if the server supports it) rather
+ * than being read into memory first.  Callers that don't need a document can pass their own
+ * {@link ResponseReader} to {@link #read} and handle the SAX events as the response arrives.  Only the
+ * bytes that may be cached are copied as they are parsed, and the first {@link #ERROR_PREFIX_BYTES} of
+ * them are used in the error message if the response turns out not to be XML.
+ * <p/>
+ * Each request applies a {@link RequestPolicy}: connect and read timeouts for every attempt, and a deadline
+ * for the whole request after which it is aborted.  Failed requests (other than errors reported by the
+ * server for the request itself) are retried with a doubling delay, as long as the policy's retry count,
+ * the deadline and the service's {@link RetryBudget} allow it.
+ */
 public class HTTPHelper {
+    private static final int MAX_CONNECTIONS = 20;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final long MAX_KEEP_ALIVE_MILLIS = 30000;
+    private static final int MAX_CACHED_RESPONSE_BYTES = 256 * 1024;
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int ERROR_PREFIX_BYTES = 1024;
 
-    private HttpClient httpclient;
+    private final ThreadSafeClientConnManager connectionManager;
+    private final HttpClient httpclient;
+    private final ScheduledExecutorService abortTimer;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final LinkedHashMap<String, CachedResponse> responseCache = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private long cachedBytes;  // guarded by responseCache
 
     public HTTPHelper() {
-        httpclient = new DefaultHttpClient();
+        connectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy defaultStrategy = new DefaultConnectionKeepAliveStrategy();
+
+            // don't hold idle connections open forever when the server doesn't say how long to keep them
+            //@Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = defaultStrategy.getKeepAliveDuration(response, context);
+                return duration < 0 ? MAX_KEEP_ALIVE_MILLIS : Math.min(duration, MAX_KEEP_ALIVE_MILLIS);
+            }
+        });
+        httpclient = client;
+
+        abortTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            //@Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Weather request timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Closes all pooled connections and drops the kept responses.  Called when the add-on is stopped.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+        abortTimer.shutdownNow();
+        synchronized (responseCache) {
+            responseCache.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     * Returns the number of connections (both idle and in use) currently held by the pool.
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * Returns the number of requests made through this helper.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests that were answered with 304 Not Modified and served from the cache.
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
     }
 
-    public Document readDocument(String scheme, String host, int port, String path, Map<String, Object> params)
+    /**
+     * Reads a response body.  Implementations should wrap the parser's errors in an IOException, keeping the
+     * {@link SAXException} or {@link DocumentException} as its cause so that responses which aren't XML are
+     * reported as such.  A reader may be called more than once for one request if the request is retried.
+     */
+    public interface ResponseReader<T> {
+        T read(InputSource source) throws IOException;
+    }
+
+    private static final ResponseReader<Document> DOCUMENT_READER = new ResponseReader<Document>() {
+        //@Override
+        public Document read(InputSource source) throws IOException {
+            try {
+                return new SAXReader().read(source);
+            } catch (DocumentException e) {
+                throw (IOException) new IOException(e.getMessage()).initCause(e);
+            }
+        }
+    };
+
+    /**
+     * Reads a document, applying the given policy.  The retry budget may be null, in which case only the
+     * policy limits retries.
+     */
+    public Document readDocument(RequestPolicy policy, RetryBudget retryBudget, String scheme, String host, int port, String path, Map<String, Object> params)
             throws IOException, URISyntaxException {
+        return read(policy, retryBudget, scheme, host, port, path, params, DOCUMENT_READER);
+    }
+
+    /**
+     * Reads a response with the given reader, applying the policy in the same way as {@link #readDocument}.
+     */
+    public <T> T read(RequestPolicy policy, RetryBudget retryBudget, String scheme, String host, int port, String path, Map<String, Object> params,
+                      ResponseReader<T> reader) throws IOException, URISyntaxException {
         URI uri = URIUtils.createURI(scheme, host, port, path, encodeParams(params), null);
-        return httpclient.execute(new HttpGet(uri), new ResponseHandler<Document>() {
+        long deadline = System.currentTimeMillis() + policy.getRequestTimeoutMillis();
+        if (retryBudget != null)
+            retryBudget.recordRequest();
+
+        for (int retry = 1; ; retry++) {
+            try {
+                return read(uri, policy, deadline, reader);
+            } catch (IOException e) {
+                long delay = policy.getRetryDelayMillis(retry);
+                if (retry > policy.getMaxRetries() || !isRetryable(e) || System.currentTimeMillis() + delay >= deadline ||
+                    (retryBudget != null && !retryBudget.tryRetry()))
+                    throw e;
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw (IOException) new InterruptedIOException("Interrupted while waiting to retry").initCause(e);
+                }
+            }
+        }
+    }
+
+    private <T> T read(URI uri, RequestPolicy policy, long deadline, ResponseReader<T> reader) throws IOException {
+        final String cacheKey = uri.toString();
+        final CachedResponse cached = getCachedResponse(cacheKey);
+
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+            throw new IOException("Request timed out");
+
+        final HttpGet get = new HttpGet(uri);
+        HttpParams requestParams = get.getParams();
+        HttpConnectionParams.setConnectionTimeout(requestParams, policy.getConnectTimeoutMillis());
+        HttpConnectionParams.setSoTimeout(requestParams, policy.getReadTimeoutMillis());
+        // how long to wait for a pooled connection (ConnManagerPNames.TIMEOUT, which is deprecated)
+        requestParams.setLongParameter("http.conn-manager.timeout", remaining);
+        get.addHeader("Accept-Encoding", "gzip");
+        if (cached != null) {
+            if (cached.etag != null)
+                get.addHeader("If-None-Match", cached.etag);
+            if (cached.lastModified != null)
+                get.addHeader("If-Modified-Since", cached.lastModified);
+        }
+
+        closeExpiredConnections();
+        requestCount.incrementAndGet();
+
+        // the socket timeouts only bound each read, so abort the request if it runs past the deadline
+        final AtomicBoolean aborted = new AtomicBoolean();
+        ScheduledFuture<?> abort = abortTimer.schedule(new Runnable() {
             //@Override
-            public Document handleResponse(HttpResponse response) throws IOException {
-                if (response.getStatusLine().getStatusCode() != 200)
-                    throw new IOException(response.getStatusLine().getReasonPhrase());
+            public void run() {
+                aborted.set(true);
+                get.abort();
+            }
+        }, remaining, TimeUnit.MILLISECONDS);
+
+        try {
+            return execute(get, cacheKey, cached, reader);
+        } catch (IOException e) {
+            if (aborted.get())
+                throw (IOException) new IOException("Request timed out").initCause(e);
+            throw e;
+        } finally {
+            abort.cancel(false);
+        }
+    }
+
+    private <T> T execute(HttpGet get, final String cacheKey, final CachedResponse cached, final ResponseReader<T> reader) throws IOException {
+        return httpclient.execute(get, new ResponseHandler<T>() {
+            //@Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                    notModifiedCount.incrementAndGet();
+                    return reader.read(createSource(new ByteArrayInputStream(cached.body), cached.charset));
+                }
+                if (status != 200)
+                    throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
 
                 HttpEntity entity = response.getEntity();
                 if (entity != null) {
-                    String responseString = EntityUtils.toString(entity);
+                    CapturingInputStream in = new CapturingInputStream(openContent(entity), MAX_CACHED_RESPONSE_BYTES);
+                    String charset = EntityUtils.getContentCharSet(entity);
                     try {
-                        SAXReader reader = new SAXReader();
-                        return reader.read(new StringReader(responseString));
-                    } catch (DocumentException e) {
-                        throw (IOException)new IOException("Service returned \""+responseString+'"').initCause(e);
+                        T result = reader.read(createSource(in, charset));
+                        cacheResponse(cacheKey, response, in.getCaptured(), charset);
+                        return result;
+                    } catch (IOException e) {
+                        if (e.getCause() instanceof DocumentException || e.getCause() instanceof SAXException)
+                            throw (IOException) new IOException("Service returned \"" + in.getPrefix(charset) + '"').initCause(e.getCause());
+                        throw e;
+                    } finally {
+                        in.close();
                     }
                 }
 
@@ -78,6 +309,78 @@ public class HTTPHelper {
         });
     }
 
+    /**
+     * Without a charset in the header, the parser uses the XML declaration.
+     */
+    private static InputSource createSource(InputStream in, String charset) {
+        InputSource source = new InputSource(in);
+        if (charset != null)
+            source.setEncoding(charset);
+        return source;
+    }
+
+    private static InputStream openContent(HttpEntity entity) throws IOException {
+        InputStream in = entity.getContent();
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null && encoding.getValue().toLowerCase().indexOf("gzip") >= 0)
+            return new GZIPInputStream(in);
+        return in;
+    }
+
+    /**
+     * Returns true if the failure might not happen again.  Errors the server reports for the request
+     * itself (4xx) and responses that aren't XML aren't retried.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted())
+            return false;
+        if (e instanceof HttpResponseException)
+            return ((HttpResponseException) e).getStatusCode() >= 500;
+        return !(e.getCause() instanceof DocumentException);
+    }
+
+    private CachedResponse getCachedResponse(String key) {
+        synchronized (responseCache) {
+            return responseCache.get(key);
+        }
+    }
+
+    /**
+     * Keeps the response body for a conditional request next time, if the server sent a validator and the whole
+     * body was captured (it is null if it was too large).
+     */
+    private void cacheResponse(String key, HttpResponse response, byte[] body, String charset) {
+        String etag = getHeaderValue(response, "ETag");
+        String lastModified = getHeaderValue(response, "Last-Modified");
+        synchronized (responseCache) {
+            CachedResponse old;
+            if (body != null && (etag != null || lastModified != null)) {
+                old = responseCache.put(key, new CachedResponse(etag, lastModified, body, charset));
+                cachedBytes += body.length;
+            } else {
+                old = responseCache.remove(key);
+            }
+            if (old != null)
+                cachedBytes -= old.body.length;
+
+            Iterator<CachedResponse> eldest = responseCache.values().iterator();
+            while (cachedBytes > MAX_CACHE_BYTES && eldest.hasNext()) {
+                cachedBytes -= eldest.next().body.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static String getHeaderValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private void closeExpiredConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(MAX_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     private String encodeParams(Map<String, Object> params) {
         if (params == null)
             return null;
@@ -87,4 +390,76 @@ public class HTTPHelper {
             qparams.add(new BasicNameValuePair(entry.getKey(), ObjectUtils.toString(entry.getValue())));
         return URLEncodedUtils.format(qparams, "UTF-8");
     }
+
+    private static class CachedResponse {
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+        private final String charset;
+
+        private CachedResponse(String etag, String lastModified, byte[] body, String charset) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+            this.charset = charset;
+        }
+    }
+
+    /**
+     * Passes the stream through unchanged while keeping a copy of the first bytes read, up to a limit.
+     */
+    private static class CapturingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream(ERROR_PREFIX_BYTES);
+        private final int maxCaptured;
+        private boolean truncated;
+
+        private CapturingInputStream(InputStream in, int maxCaptured) {
+            super(in);
+            this.maxCaptured = maxCaptured;
+        }
+
+        @Override public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                capture(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0)
+                capture(b, off, count);
+            return count;
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            int room = maxCaptured - captured.size();
+            if (len > room)
+                truncated = true;
+            if (room > 0)
+                captured.write(b, off, Math.min(room, len));
+        }
+
+        /**
+         * Returns everything read, or null if there was more than the limit.
+         */
+        private byte[] getCaptured() {
+            return truncated ? null : captured.toByteArray();
+        }
+
+        /**
+         * Returns the first {@link #ERROR_PREFIX_BYTES} read, as text.
+         */
+        private String getPrefix(String charset) {
+            byte[] bytes = captured.toByteArray();
+            int length = Math.min(bytes.length, ERROR_PREFIX_BYTES);
+            String result;
+            try {
+                result = new String(bytes, 0, length, charset == null ? "ISO-8859-1" : charset);
+            } catch (IOException e) {
+                result = new String(bytes, 0, length);
+            }
+            return truncated || length < bytes.length ? result + "..." : result;
+        }
+    }
 }
\ No newline at end of file
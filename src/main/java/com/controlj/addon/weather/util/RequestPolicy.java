@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.util;
+
+import java.util.Map;
+
+/**
+ * Timeouts and retry limits for requests to a weather service.  These are read from the service
+ * configuration data, with the defaults used for any value that isn't set (or isn't valid).
+ */
+public final class RequestPolicy {
+    public static final String CONFIG_KEY_CONNECT_TIMEOUT = "connecttimeout";
+    public static final String CONFIG_KEY_READ_TIMEOUT = "readtimeout";
+    public static final String CONFIG_KEY_REQUEST_TIMEOUT = "requesttimeout";
+    public static final String CONFIG_KEY_RETRIES = "retries";
+
+    /** Default time (in seconds) to wait for a connection to be made. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    /** Default time (in seconds) to wait for data once connected. */
+    public static final int DEFAULT_READ_TIMEOUT = 20;
+    /** Default time (in seconds) allowed for the whole request, including any retries. */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 60;
+    /** Default number of times a failed request is retried. */
+    public static final int DEFAULT_RETRIES = 2;
+
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+
+    public static final RequestPolicy DEFAULT = new RequestPolicy(DEFAULT_CONNECT_TIMEOUT * 1000, DEFAULT_READ_TIMEOUT * 1000,
+                                                                  DEFAULT_REQUEST_TIMEOUT * 1000, DEFAULT_RETRIES);
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+
+    public RequestPolicy(int connectTimeoutMillis, int readTimeoutMillis, int requestTimeoutMillis, int maxRetries) {
+        this(connectTimeoutMillis, readTimeoutMillis, requestTimeoutMillis, maxRetries, DEFAULT_RETRY_DELAY_MILLIS);
+    }
+
+    private RequestPolicy(int connectTimeoutMillis, int readTimeoutMillis, int requestTimeoutMillis, int maxRetries,
+                          long retryDelayMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Creates the policy from the service configuration data.  Timeouts there are in seconds.
+     */
+    public static RequestPolicy fromServiceConfig(Map<String, String> config) {
+        if (config == null)
+            return DEFAULT;
+
+        return new RequestPolicy(getInt(config, CONFIG_KEY_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT, 1) * 1000,
+                                 getInt(config, CONFIG_KEY_READ_TIMEOUT, DEFAULT_READ_TIMEOUT, 1) * 1000,
+                                 getInt(config, CONFIG_KEY_REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, 1) * 1000,
+                                 getInt(config, CONFIG_KEY_RETRIES, DEFAULT_RETRIES, 0));
+    }
+
+    private static int getInt(Map<String, String> config, String key, int defaultValue, int min) {
+        String value = config.get(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Math.max(Integer.parseInt(value.trim()), min);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a copy of this policy with a different read timeout.
+     */
+    public RequestPolicy withReadTimeoutMillis(int readTimeoutMillis) {
+        return new RequestPolicy(connectTimeoutMillis, readTimeoutMillis, requestTimeoutMillis, maxRetries, retryDelayMillis);
+    }
+
+    /**
+     * Returns a copy of this policy with a different delay before the first retry.
+     */
+    public RequestPolicy withRetryDelayMillis(long retryDelayMillis) {
+        return new RequestPolicy(connectTimeoutMillis, readTimeoutMillis, requestTimeoutMillis, maxRetries, retryDelayMillis);
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns how long to wait before the given retry (starting at 1).  The delay doubles with each retry.
+     */
+    public long getRetryDelayMillis(int retry) {
+        return retryDelayMillis << Math.min(retry - 1, 10);
+    }
+}
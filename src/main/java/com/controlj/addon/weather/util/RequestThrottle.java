@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how hard the add-on leans on a weather service.  At most <code>maxConcurrent</code> callers
+ * may hold the throttle at once, and successive acquisitions are spaced at least <code>spacingMillis</code>
+ * apart so that a pool of update threads doesn't hit the upstream server in a burst.
+ */
+public class RequestThrottle {
+    private final int maxConcurrent;
+    private final int spacingMillis;
+    private final Semaphore permits;
+    private final long spacingNanos;
+    private long nextStart = System.nanoTime();
+
+    public RequestThrottle(int maxConcurrent, int spacingMillis) {
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+        this.spacingMillis = Math.max(spacingMillis, 0);
+        permits = new Semaphore(this.maxConcurrent, true);
+        spacingNanos = TimeUnit.MILLISECONDS.toNanos(this.spacingMillis);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getSpacingMillis() {
+        return spacingMillis;
+    }
+
+    /**
+     * Blocks until a request may be made.  Every successful call must be paired with a call to {@link #release}.
+     */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+        try {
+            waitForSlot();
+        } catch (InterruptedException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    private void waitForSlot() throws InterruptedException {
+        long delay;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextStart);
+            nextStart = start + spacingNanos;
+            delay = start - now;
+        }
+        if (delay > 0)
+            TimeUnit.NANOSECONDS.sleep(delay);
+    }
+}
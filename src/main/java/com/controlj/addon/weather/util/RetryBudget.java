@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.util;
+
+/**
+ * Limits retries against one weather service to a fraction of the requests made to it.  Every request
+ * earns a fraction of a retry and every retry spends a whole one, so when the service is down the add-on
+ * stops multiplying its load with retries once the saved up retries are used.
+ */
+public class RetryBudget {
+    private static final double DEFAULT_RETRY_RATIO = 0.1;
+    private static final int DEFAULT_MAX_SAVED = 10;
+
+    private final double retryRatio;
+    private final double maxSaved;
+    private double balance;
+
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MAX_SAVED);
+    }
+
+    public RetryBudget(double retryRatio, int maxSaved) {
+        this.retryRatio = retryRatio;
+        this.maxSaved = maxSaved;
+        balance = maxSaved;
+    }
+
+    /**
+     * Records a new (not retried) request.
+     */
+    public synchronized void recordRequest() {
+        balance = Math.min(balance + retryRatio, maxSaved);
+    }
+
+    /**
+     * Returns true and spends a retry if one is available.
+     */
+    public synchronized boolean tryRetry() {
+        if (balance < 1)
+            return false;
+        balance -= 1;
+        return true;
+    }
+}
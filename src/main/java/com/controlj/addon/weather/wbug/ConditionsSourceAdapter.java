@@ -23,30 +23,49 @@ package com.controlj.addon.weather.wbug;
 
 import com.controlj.addon.weather.data.ConditionsSource;
 import com.controlj.addon.weather.data.WeatherIcon;
-import com.controlj.addon.weather.wbug.service.LiveWeather;
+import com.controlj.addon.weather.wbug.service.LiveObservation;
+import com.controlj.addon.weather.wbug.service.LiveObservation.Reading;
 
-import java.math.BigDecimal;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.sql.Timestamp;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Conditions read from a {@link LiveObservation}.  The readings are kept as the observation's primitive values and
+ * only boxed when asked for, and the icon is mapped once, so this is cheap to keep for each configured location.
+ */
 public class ConditionsSourceAdapter extends ConditionsSource {
-    private final LiveWeather liveWeather;
+    private final LiveObservation observation;
     private final boolean isMetric;
+    private final WeatherIcon icon;
+    private final boolean isPartial;
+
+    public ConditionsSourceAdapter(LiveObservation observation, boolean isMetric) {
+        this(observation, isMetric, false);
+    }
 
-    public ConditionsSourceAdapter(LiveWeather liveWeather, boolean isMetric) {
-        this.liveWeather = liveWeather;
+    /**
+     * @param isPartial true if the observation is from the compact response, which only has some of the values.
+     */
+    public ConditionsSourceAdapter(LiveObservation observation, boolean isMetric, boolean isPartial) {
+        this.observation = observation;
         this.isMetric = isMetric;
+        this.icon = mapIcon(observation.getIconURL());
+        this.isPartial = isPartial;
     }
 
     @Override protected boolean isMetric() {
         return isMetric;
     }
 
+    @Override public boolean isPartial() {
+        return isPartial;
+    }
+
     @Override public String getAverageWindDirection() {
-         return liveWeather.getAvgWindDirection();
+         return observation.getAvgWindDirection();
     }
 
     @Override public Float getAverageWindDegrees() {
@@ -54,67 +73,67 @@ public class ConditionsSourceAdapter extends ConditionsSource {
     }
 
     @Override public Float getAverageWindSpeed() {
-        return toFloatNullSafe(liveWeather.getAvgWindSpeed());
+        return get(Reading.AVG_WIND_SPEED);
     }
 
     @Override public String getAverageWindSpeedUnits() {
-        return liveWeather.getAvgWindSpeedUnits();
+        return observation.getUnits(Reading.AVG_WIND_SPEED);
     }
 
     @Override public Float getFeelsLike() {
-        return toFloatNullSafe(liveWeather.getFeelsLike());
+        return get(Reading.FEELS_LIKE);
     }
 
     @Override public String getFeelsLikeUnits() {
-        return liveWeather.getFeelsLikeUnits();
+        return observation.getUnits(Reading.FEELS_LIKE);
     }
 
     @Override public Float getTemperature() {
-        return toFloatNullSafe(liveWeather.getTemperature());
+        return get(Reading.TEMPERATURE);
     }
 
     @Override public String getTemperatureUnits() {
-        return liveWeather.getTemperatureUnits();
+        return observation.getUnits(Reading.TEMPERATURE);
     }
 
     @Override public Float getHumidity() {
-        return toFloatNullSafe(liveWeather.getHumidity());
+        return get(Reading.HUMIDITY);
     }
 
     @Override public String getHumidityUnits() {
-        return liveWeather.getHumidityUnits();
+        return observation.getUnits(Reading.HUMIDITY);
     }
 
     @Override public Float getPressure() {
-        return toFloatNullSafe(liveWeather.getPressure());
+        return get(Reading.PRESSURE);
     }
 
     @Override public String getPressureUnits() {
-        return liveWeather.getPressureUnits();
+        return observation.getUnits(Reading.PRESSURE);
     }
 
     @Override public String getCurrentCondition() {
-        return liveWeather.getCurrentCondition();
+        return observation.getCurrentCondition();
     }
 
     @Override public Float getDewPoint() {
-        return toFloatNullSafe(liveWeather.getDewPoint());
+        return get(Reading.DEW_POINT);
     }
 
     @Override public String getDewPointUnits() {
-        return liveWeather.getDewPointUnits();
+        return observation.getUnits(Reading.DEW_POINT);
     }
 
     @Override public Float getWindSpeed() {
-        return toFloatNullSafe(liveWeather.getWindSpeed());
+        return get(Reading.WIND_SPEED);
     }
 
     @Override public String getWindSpeedUnits() {
-        return liveWeather.getWindSpeedUnits();
+        return observation.getUnits(Reading.WIND_SPEED);
     }
 
     @Override public String getWindDirection() {
-        return liveWeather.getWindDirection();
+        return observation.getWindDirection();
     }
 
     @Override public Float getWindDegrees() {
@@ -122,68 +141,74 @@ public class ConditionsSourceAdapter extends ConditionsSource {
     }
 
     @Override public Float getRainRate() {
-        return toFloatNullSafe(liveWeather.getRainRate());
+        return get(Reading.RAIN_RATE);
     }
 
     @Override public String getRainRateUnits() {
-        return liveWeather.getRainRateUnits();
+        return observation.getUnits(Reading.RAIN_RATE);
     }
 
     @Override public Float getRainToday() {
-        return toFloatNullSafe(liveWeather.getRainToday());
+        return get(Reading.RAIN_TODAY);
     }
 
     @Override public String getRainTodayUnits() {
-        return liveWeather.getRainTodayUnits();
+        return observation.getUnits(Reading.RAIN_TODAY);
     }
 
     @Override public Float getRainMonth() {
-        return toFloatNullSafe(liveWeather.getRainMonth());
+        return get(Reading.RAIN_MONTH);
     }
 
     @Override public String getRainMonthUnits() {
-        return liveWeather.getRainMonthUnits();
+        return observation.getUnits(Reading.RAIN_MONTH);
     }
 
     @Override public Float getRainYear() {
-        return toFloatNullSafe(liveWeather.getRainYear());
+        return get(Reading.RAIN_YEAR);
     }
 
     @Override public String getRainYearUnits() {
-        return liveWeather.getRainYearUnits();
+        return observation.getUnits(Reading.RAIN_YEAR);
     }
 
     @Override public Float getLightPercent() {
-        return toFloatNullSafe(liveWeather.getLight());
+        return get(Reading.LIGHT);
     }
 
     @Override public Float getWetBulb() {
-        return toFloatNullSafe(liveWeather.getWetBulb());
+        return get(Reading.WET_BULB);
     }
 
     @Override public String getWetBulbUnits() {
-        return liveWeather.getWetBulbUnits();
+        return observation.getUnits(Reading.WET_BULB);
     }
 
     @Override public Date getObservationTime() {
-        return toDateNullSafe(liveWeather.getObservationTime());
+        return observation.getObservationTime();
     }
 
     @Override public WeatherIcon getIcon() {
-        URL iconURL = liveWeather.getCurrentConditionIconURL();
-        return new WeatherIconMapper().mapIconURL(iconURL.getPath());
+        return icon;
     }
 
     @Override public String getSourceURL() {
-        return liveWeather.getWeatherBugSiteURL().toExternalForm();
+        return observation.getWeatherBugSiteURL();
     }
 
-    private Float toFloatNullSafe(BigDecimal value) {
-        return value != null ? value.floatValue() : null;
+    private Float get(Reading reading) {
+        float value = observation.get(reading);
+        return Float.isNaN(value) ? null : value;
     }
 
-    private Date toDateNullSafe(Timestamp value) {
-        return value != null ? new Date(value.getTime()) : null;
+    private static WeatherIcon mapIcon(String iconURL) {
+        if (iconURL == null)
+            return WeatherIcon.Unknown;
+        try {
+            return new WeatherIconMapper().mapIconURL(new URL(iconURL).getPath());
+        } catch (MalformedURLException e) {
+            return WeatherIcon.Unknown;
+        }
     }
 
     // this map is used to help convert cardinal directions (N, NE, NNE) to bearings (degrees).  It
@@ -21,28 +21,47 @@
  */
 package com.controlj.addon.weather.wbug;
 
+import com.controlj.addon.weather.data.ConditionsField;
 import com.controlj.addon.weather.data.ConditionsSource;
 import com.controlj.addon.weather.data.ForecastSource;
 import com.controlj.addon.weather.data.StationSource;
 import com.controlj.addon.weather.service.InvalidConfigurationDataException;
+import com.controlj.addon.weather.service.SelectiveConditionsService;
 import com.controlj.addon.weather.service.WeatherService;
 import com.controlj.addon.weather.service.WeatherServiceException;
 import com.controlj.addon.weather.service.WeatherServiceUI;
+import com.controlj.addon.weather.util.HTTPHelper;
+import com.controlj.addon.weather.util.RequestPolicy;
 import com.controlj.addon.weather.wbug.service.*;
 
 import java.io.*;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
-public class WeatherServiceImpl implements WeatherService {
+public class WeatherServiceImpl implements WeatherService, SelectiveConditionsService {
     static final String CONFIG_KEY_UNITS = "units";
     static final String CONFIG_VALUE_UNITS_IMPERIAL = "imperial";
     static final String CONFIG_VALUE_UNITS_METRIC = "metric";
 
+    /** The conditions fields that can be read from the compact live weather response. */
+    private static final Set<ConditionsField> COMPACT_FIELDS = Collections.unmodifiableSet(EnumSet.of(
+            ConditionsField.updateTime, ConditionsField.updateStamp, ConditionsField.temperature,
+            ConditionsField.temperature_C, ConditionsField.currentCondition, ConditionsField.windSpeed,
+            ConditionsField.windDirection, ConditionsField.windDegrees, ConditionsField.rainToday,
+            ConditionsField.iconName, ConditionsField.iconValue));
+
     private static final AtomicReference<String> LICENSE_KEY = new AtomicReference<String>();
+    private final HTTPHelper httpHelper;
+    private final AtomicReference<WeatherBugService> service = new AtomicReference<WeatherBugService>();
     private WeatherServiceUI ui = new WeatherServiceUIImpl();
 
+    public WeatherServiceImpl(HTTPHelper httpHelper) {
+        this.httpHelper = httpHelper;
+    }
+
     public StationSource resolveConfigurationToStation(boolean isZip, String cityZipCode, String stationCode) throws InvalidConfigurationDataException, WeatherServiceException {
         try {
             Station result = null;
@@ -72,21 +91,43 @@ public class WeatherServiceImpl implements WeatherService {
     public ConditionsSource getConditionsSource(Map<String, String> configData, StationSource stationSource, Map<String, String> entryData) throws WeatherServiceException {
         boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
         try {
-            LiveWeather liveWeather = getService().getLiveWeatherByStationID(stationSource.getId(), isMetric ? 1 : 0);
-            if (liveWeather == null)
+            LiveObservation observation = getService(configData).getLiveObservationByStationID(stationSource.getId(), isMetric ? 1 : 0);
+            if (observation == null)
                 throw new WeatherServiceException("Error getting live weather data");
-            return new ConditionsSourceAdapter(liveWeather, isMetric);
+            return new ConditionsSourceAdapter(observation, isMetric);
         } catch (WeatherBugServiceException e) {
             throw new WeatherServiceException(e.getMessage(), e);
         }
     }
 
+    //@Override
+    public ConditionsSource getConditionsSource(Map<String, String> configData, StationSource stationSource, Map<String, String> entryData,
+                                                Set<ConditionsField> fields) throws WeatherServiceException {
+        if (!isPartial(fields))
+            return getConditionsSource(configData, stationSource, entryData);
+
+        boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
+        try {
+            LiveObservation observation = getService(configData).getLiveCompactObservationByStationID(stationSource.getId(), isMetric ? 1 : 0);
+            if (observation == null)
+                throw new WeatherServiceException("Error getting live weather data");
+            return new ConditionsSourceAdapter(observation, isMetric, true);
+        } catch (WeatherBugServiceException e) {
+            throw new WeatherServiceException(e.getMessage(), e);
+        }
+    }
+
+    //@Override
+    public boolean isPartial(Set<ConditionsField> fields) {
+        return COMPACT_FIELDS.containsAll(fields);
+    }
+
     //@Override
     public ForecastSource[] getForecastSources(Map<String, String> configData, StationSource stationSource, Map<String, String> entryData) throws WeatherServiceException {
         boolean isMetric = CONFIG_VALUE_UNITS_METRIC.equals(configData.get(CONFIG_KEY_UNITS));
         Forecasts forecasts;
         try {
-            forecasts = getService().getForecastByLatLong(stationSource.getLatitude(), stationSource.getLongitude(), isMetric ? 1 : 0);
+            forecasts = getService(configData).getForecastByLatLong(stationSource.getLatitude(), stationSource.getLongitude(), isMetric ? 1 : 0);
             if (forecasts == null)
                 throw new WeatherServiceException("Error getting live weather data");
         } catch (WeatherBugServiceException e) {
@@ -131,8 +172,25 @@ public class WeatherServiceImpl implements WeatherService {
         return ui;
     }
 
+    /**
+     * Returns the WeatherBug client, which is kept (along with its retry budget) until the license key changes.
+     */
     private WeatherBugService getService() throws WeatherServiceException {
-        return new WeatherBugService(getKey());
+        String key = getKey();
+        WeatherBugService current = service.get();
+        if (current == null || !current.getApiKey().equals(key)) {
+            current = new WeatherBugService(key, httpHelper);
+            service.set(current);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the WeatherBug client for a request with the timeouts and retries from the given configuration.  The
+     * shared client isn't changed, since requests made with an older configuration may still be running.
+     */
+    private WeatherBugService getService(Map<String, String> configData) throws WeatherServiceException {
+        return getService().withRequestPolicy(RequestPolicy.fromServiceConfig(configData));
     }
 
     private String getKey() throws WeatherServiceException {
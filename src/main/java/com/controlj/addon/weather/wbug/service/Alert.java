@@ -23,6 +23,9 @@
 package com.controlj.addon.weather.wbug.service;
 
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
@@ -51,6 +54,9 @@ public class Alert {
     /** The type of the alert. */
     private String type;
 
+    private Alert() {
+    }
+
     /**
      * Constructs a new alert.
      * 
@@ -66,6 +72,63 @@ public class Alert {
         this.messageSummary = WeatherBugDataUtils.getString(alert, "aws:msg-summary");
     }
 
+
+    /** The children of &lt;aws:alert&gt; that are bound, see {@link #BINDER}. */
+    private enum AlertElement {
+        ID("id"), TYPE("type"), TITLE("title"), POSTED_DATE("posted-date"), EXPIRES_DATE("expires-date"),
+        MSG_SUMMARY("msg-summary");
+
+        private final String elementName;
+
+        private AlertElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The &lt;aws:alert&gt; children by element name. */
+    private static final Map<String, AlertElement> ALERT_ELEMENTS = new HashMap<String, AlertElement>();
+
+    static {
+        for (AlertElement alertElement : AlertElement.values()) {
+            ALERT_ELEMENTS.put(alertElement.elementName, alertElement);
+        }
+    }
+
+    /** Binds the &lt;aws:alert&gt; XML element, visiting each child once. */
+    static final ElementBinder<Alert> BINDER = new ElementBinder<Alert>() {
+        //@Override
+        public Alert bind(Element alert) {
+            Alert result = new Alert();
+            result.bind(alert);
+            return result;
+        }
+    };
+
+    /**
+     * Fills this alert from the &lt;aws:alert&gt; XML element.  Values that are missing from the element are set the
+     * same way as the element constructor sets them.
+     */
+    private void bind(Element alert) {
+        id = type = title = messageSummary = "";
+
+        for (Iterator it = alert.elementIterator(); it.hasNext();) {
+            Element elem = (Element) it.next();
+            AlertElement alertElement = ALERT_ELEMENTS.get(elem.getName());
+            if (alertElement == null) {
+                continue;
+            }
+
+            switch (alertElement) {
+                case ID: id = elem.getStringValue(); break;
+                case TYPE: type = elem.getStringValue(); break;
+                case TITLE: title = elem.getStringValue(); break;
+                case POSTED_DATE: postedTime = WeatherBugDataUtils.toTimestamp(elem); break;
+                case EXPIRES_DATE: expiresTime = WeatherBugDataUtils.toTimestamp(elem); break;
+                case MSG_SUMMARY: messageSummary = elem.getStringValue(); break;
+            }
+        }
+    }
+
     /**
      * Returns the expiration time.
      * 
@@ -24,7 +24,11 @@ package com.controlj.addon.weather.wbug.service;
 
 import java.math.BigDecimal;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.dom4j.Element;
@@ -65,6 +69,9 @@ public class Forecast {
     /** The title (the name of a day). */
     private String title;
 
+    private Forecast() {
+    }
+
     /**
      * Constructs a new forecast.
      * 
@@ -85,6 +92,76 @@ public class Forecast {
         this.lowestTemperatureUnits = WeatherBugDataUtils.getUnits(forecast, "aws:low/@units");
     }
 
+
+    /** The children of &lt;aws:forecast&gt; that are bound, see {@link #BINDER}. */
+    private enum ForecastElement {
+        TITLE("title"), SHORT_PREDICTION("short-prediction"), IMAGE("image"), DESCRIPTION("description"),
+        PREDICTION("prediction"), HIGH("high"), LOW("low");
+
+        private final String elementName;
+
+        private ForecastElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The &lt;aws:forecast&gt; children by element name. */
+    private static final Map<String, ForecastElement> FORECAST_ELEMENTS = new HashMap<String, ForecastElement>();
+
+    static {
+        for (ForecastElement forecastElement : ForecastElement.values()) {
+            FORECAST_ELEMENTS.put(forecastElement.elementName, forecastElement);
+        }
+    }
+
+    /** Binds the &lt;aws:forecast&gt; XML element, visiting each child once. */
+    static final ElementBinder<Forecast> BINDER = new ElementBinder<Forecast>() {
+        //@Override
+        public Forecast bind(Element forecast) {
+            Forecast result = new Forecast();
+            result.bind(forecast);
+            return result;
+        }
+    };
+
+    /**
+     * Fills this forecast from the &lt;aws:forecast&gt; XML element.  Values that are missing from the element are set
+     * the same way as the element constructor sets them.
+     */
+    private void bind(Element forecast) {
+        title = shortPrediction = iconName = description = prediction = "";
+        highestTemperatureUnits = lowestTemperatureUnits = "";
+
+        for (Iterator it = forecast.elementIterator(); it.hasNext();) {
+            Element elem = (Element) it.next();
+            ForecastElement forecastElement = FORECAST_ELEMENTS.get(elem.getName());
+            if (forecastElement == null) {
+                continue;
+            }
+
+            String value = elem.getStringValue();
+            switch (forecastElement) {
+                case TITLE: title = value; break;
+                case SHORT_PREDICTION: shortPrediction = value; break;
+                case IMAGE:
+                    isNightImage = WeatherBugDataUtils.toInt(elem.attributeValue("isNight"), 0) != 0;
+                    iconName = StringUtils.defaultString(elem.attributeValue("icon"));
+                    imageURL = WeatherBugDataUtils.toURL(value);
+                    break;
+                case DESCRIPTION: description = value; break;
+                case PREDICTION: prediction = WeatherBugDataUtils.fixDegrees(value); break;
+                case HIGH:
+                    highestTemperature = WeatherBugDataUtils.toBigDecimal(value);
+                    highestTemperatureUnits = WeatherBugDataUtils.toUnits(elem.attributeValue("units"));
+                    break;
+                case LOW:
+                    lowestTemperature = WeatherBugDataUtils.toBigDecimal(value);
+                    lowestTemperatureUnits = WeatherBugDataUtils.toUnits(elem.attributeValue("units"));
+                    break;
+            }
+        }
+    }
+
     /**
      * Returns the description.
      * 
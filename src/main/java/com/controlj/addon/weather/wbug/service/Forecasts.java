@@ -23,7 +23,11 @@
 package com.controlj.addon.weather.wbug.service;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
@@ -58,6 +62,9 @@ public class Forecasts {
     /** The zone. */
     private String zone;
 
+    private Forecasts() {
+    }
+
     /**
      * Constructs a new collection of forecasts.
      * 
@@ -77,6 +84,84 @@ public class Forecasts {
         forecasts = forecastList.toArray(new Forecast[forecastList.size()]);
     }
 
+
+    /** The children of &lt;aws:location&gt; that are bound, see {@link #BINDER}. */
+    private enum LocationElement {
+        CITY("city"), STATE("state"), COUNTRY("country"), ZIP("zip"), CITYCODE("citycode"), ZONE("zone");
+
+        private final String elementName;
+
+        private LocationElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The &lt;aws:location&gt; children by element name. */
+    private static final Map<String, LocationElement> LOCATION_ELEMENTS = new HashMap<String, LocationElement>();
+
+    static {
+        for (LocationElement locationElement : LocationElement.values()) {
+            LOCATION_ELEMENTS.put(locationElement.elementName, locationElement);
+        }
+    }
+
+    /** Binds the &lt;aws:weather&gt; XML element, visiting each child once. */
+    static final ElementBinder<Forecasts> BINDER = new ElementBinder<Forecasts>() {
+        //@Override
+        public Forecasts bind(Element weather) {
+            Forecasts forecasts = new Forecasts();
+            forecasts.bind(weather);
+            return forecasts;
+        }
+    };
+
+    /**
+     * Fills these forecasts from the &lt;aws:weather&gt; XML element.  Values that are missing from the element are set
+     * the same way as the element constructor sets them.
+     */
+    private void bind(Element weather) {
+        city = state = country = zone = "";
+        zipCode = cityCode = -1;
+        List<Forecast> forecastList = new ArrayList<Forecast>();
+
+        for (Iterator it = weather.elementIterator(); it.hasNext();) {
+            Element child = (Element) it.next();
+            if ("forecasts".equals(child.getName())) {
+                for (Iterator forecastsIt = child.elementIterator(); forecastsIt.hasNext();) {
+                    Element elem = (Element) forecastsIt.next();
+                    if ("forecast".equals(elem.getName())) {
+                        forecastList.add(Forecast.BINDER.bind(elem));
+                    } else if ("location".equals(elem.getName())) {
+                        bindLocation(elem);
+                    }
+                }
+            } else if ("WebURL".equals(child.getName())) {
+                weatherBugSiteURL = WeatherBugDataUtils.toURL(child.getStringValue());
+            }
+        }
+        forecasts = forecastList.toArray(new Forecast[forecastList.size()]);
+    }
+
+    private void bindLocation(Element location) {
+        for (Iterator it = location.elementIterator(); it.hasNext();) {
+            Element elem = (Element) it.next();
+            LocationElement locationElement = LOCATION_ELEMENTS.get(elem.getName());
+            if (locationElement == null) {
+                continue;
+            }
+
+            String value = elem.getStringValue();
+            switch (locationElement) {
+                case CITY: city = value; break;
+                case STATE: state = value; break;
+                case COUNTRY: country = value; break;
+                case ZIP: zipCode = WeatherBugDataUtils.toInt(value, -1); break;
+                case CITYCODE: cityCode = WeatherBugDataUtils.toInt(value, -1); break;
+                case ZONE: zone = value; break;
+            }
+        }
+    }
+
     /**
      * Returns the city the forecast is for.
      * 
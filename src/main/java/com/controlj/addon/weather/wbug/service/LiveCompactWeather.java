@@ -24,7 +24,11 @@ package com.controlj.addon.weather.wbug.service;
 
 import java.math.BigDecimal;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.dom4j.Element;
@@ -97,6 +101,9 @@ public class LiveCompactWeather {
     /** The ZIP code. */
     private int zipCode;
 
+    private LiveCompactWeather() {
+    }
+
     /**
      * Constructs a new live compact weather.
      * 
@@ -127,6 +134,82 @@ public class LiveCompactWeather {
         this.gustDirection = WeatherBugDataUtils.getString(weather, "aws:gust-direction");
     }
 
+
+    /** The children of &lt;aws:weather&gt; that are bound, see {@link #BINDER}. */
+    private enum WeatherElement {
+        STATION("station"), CURRENT_CONDITION("current-condition"), TEMP("temp"), RAIN_TODAY("rain-today"),
+        WIND_SPEED("wind-speed"), WIND_DIRECTION("wind-direction"), GUST_SPEED("gust-speed"), GUST_DIRECTION("gust-direction");
+
+        private final String elementName;
+
+        private WeatherElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The &lt;aws:weather&gt; children by element name. */
+    private static final Map<String, WeatherElement> WEATHER_ELEMENTS = new HashMap<String, WeatherElement>();
+
+    static {
+        for (WeatherElement weatherElement : WeatherElement.values()) {
+            WEATHER_ELEMENTS.put(weatherElement.elementName, weatherElement);
+        }
+    }
+
+    /** Binds the &lt;aws:weather&gt; XML element, visiting each child once. */
+    static final ElementBinder<LiveCompactWeather> BINDER = new ElementBinder<LiveCompactWeather>() {
+        //@Override
+        public LiveCompactWeather bind(Element weather) {
+            LiveCompactWeather liveCompactWeather = new LiveCompactWeather();
+            liveCompactWeather.bind(weather);
+            return liveCompactWeather;
+        }
+    };
+
+    /**
+     * Fills this live compact weather from the &lt;aws:weather&gt; XML element.  Values that are missing from the element
+     * are set the same way as the element constructor sets them.
+     */
+    private void bind(Element weather) {
+        stationId = stationName = state = city = country = currentCondition = windDirection = gustDirection = "";
+        temperatureUnits = rainTodayUnits = windSpeedUnits = gustSpeedUnits = "";
+        zipCode = cityCode = -1;
+
+        for (Iterator it = weather.elementIterator(); it.hasNext();) {
+            Element elem = (Element) it.next();
+            WeatherElement weatherElement = WEATHER_ELEMENTS.get(elem.getName());
+            if (weatherElement == null) {
+                continue;
+            }
+
+            String value = elem.getStringValue();
+            String units = WeatherBugDataUtils.toUnits(elem.attributeValue("units"));
+            switch (weatherElement) {
+                case STATION:
+                    stationId = StringUtils.defaultString(elem.attributeValue("id"));
+                    stationName = StringUtils.defaultString(elem.attributeValue("name"));
+                    state = StringUtils.defaultString(elem.attributeValue("state"));
+                    city = StringUtils.defaultString(elem.attributeValue("city"));
+                    zipCode = WeatherBugDataUtils.toInt(elem.attributeValue("zipcode"), -1);
+                    cityCode = WeatherBugDataUtils.toInt(elem.attributeValue("citycode"), -1);
+                    country = StringUtils.defaultString(elem.attributeValue("country"));
+                    latitude = WeatherBugDataUtils.toBigDecimal(elem.attributeValue("latitude"));
+                    longitude = WeatherBugDataUtils.toBigDecimal(elem.attributeValue("longitude"));
+                    break;
+                case CURRENT_CONDITION:
+                    currentCondition = value;
+                    currentConditionIconURL = WeatherBugDataUtils.toURL(elem.attributeValue("icon"));
+                    break;
+                case TEMP: temperature = WeatherBugDataUtils.toBigDecimal(value); temperatureUnits = units; break;
+                case RAIN_TODAY: rainToday = WeatherBugDataUtils.toBigDecimal(value); rainTodayUnits = units; break;
+                case WIND_SPEED: windSpeed = WeatherBugDataUtils.toBigDecimal(value); windSpeedUnits = units; break;
+                case WIND_DIRECTION: windDirection = value; break;
+                case GUST_SPEED: gustSpeed = WeatherBugDataUtils.toBigDecimal(value); gustSpeedUnits = units; break;
+                case GUST_DIRECTION: gustDirection = value; break;
+            }
+        }
+    }
+
     /**
      * Returns the city name.
      * 
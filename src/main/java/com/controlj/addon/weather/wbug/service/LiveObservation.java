@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.controlj.addon.weather.wbug.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.controlj.addon.weather.util.Logging;
+import org.dom4j.Element;
+
+/**
+ * A compact form of the live weather, holding only the observation values used for conditions data.  Readings are
+ * kept as primitive floats ({@link Float#NaN} if missing) and units as codes into a table of unit strings shared by
+ * every observation, so that many of these can be kept in memory at once.  Use {@link LiveWeather} for the full set
+ * of values.
+ */
+public final class LiveObservation {
+    /** The numeric readings of an observation. */
+    public enum Reading {
+        TEMPERATURE("temp"), FEELS_LIKE("feels-like"), DEW_POINT("dew-point"), WET_BULB("wet-bulb"), HUMIDITY("humidity"),
+        PRESSURE("pressure"), WIND_SPEED("wind-speed"), AVG_WIND_SPEED("wind-speed-avg"), RAIN_RATE("rain-rate"),
+        RAIN_TODAY("rain-today"), RAIN_MONTH("rain-month"), RAIN_YEAR("rain-year"), LIGHT("light");
+
+        private final String elementName;
+
+        private Reading(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The children of &lt;aws:ob&gt; that are bound other than the readings. */
+    private enum ObElement {
+        OB_DATE("ob-date"), CURRENT_CONDITION("current-condition"), WIND_DIRECTION("wind-direction"),
+        WIND_DIRECTION_AVG("wind-direction-avg");
+
+        private final String elementName;
+
+        private ObElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** Value of {@link #observationTime} when the observation has no date. */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /** The most distinct strings kept in a code table; beyond this, new strings are recorded as "". */
+    private static final int MAX_CODES = Byte.MAX_VALUE + 1;
+
+    private static final CodeTable UNITS = new CodeTable();
+    private static final CodeTable DIRECTIONS = new CodeTable();
+
+    /** The &lt;aws:ob&gt; children by element name, either a {@link Reading} or an {@link ObElement}. */
+    private static final Map<String, Enum<?>> OB_ELEMENTS = new HashMap<String, Enum<?>>();
+
+    static {
+        for (Reading reading : Reading.values()) {
+            OB_ELEMENTS.put(reading.elementName, reading);
+        }
+        for (ObElement obElement : ObElement.values()) {
+            OB_ELEMENTS.put(obElement.elementName, obElement);
+        }
+    }
+
+    /** Binds the &lt;aws:weather&gt; XML element of a getLiveWeatherRSS response, visiting each child once. */
+    static final ElementBinder<LiveObservation> BINDER = new ElementBinder<LiveObservation>() {
+        //@Override
+        public LiveObservation bind(Element weather) {
+            LiveObservation observation = new LiveObservation();
+            observation.bind(weather);
+            return observation;
+        }
+    };
+
+    /**
+     * Binds the &lt;aws:weather&gt; XML element of a getLiveCompactWeatherRSS response.  Only the temperature, rain
+     * today, wind speed and direction and the current condition are in this response, the other values are missing.
+     */
+    static final ElementBinder<LiveObservation> COMPACT_BINDER = new ElementBinder<LiveObservation>() {
+        //@Override
+        public LiveObservation bind(Element weather) {
+            LiveObservation observation = new LiveObservation();
+            observation.bindCompact(weather);
+            return observation;
+        }
+    };
+
+    private final float[] values = new float[Reading.values().length];
+    private final byte[] unitCodes = new byte[values.length];
+    private long observationTime = NO_TIME;
+    private String currentCondition = "";
+    private String iconURL;
+    private byte windDirection;
+    private byte avgWindDirection;
+    private String weatherBugSiteURL;
+
+    private LiveObservation() {
+    }
+
+    /**
+     * Returns the value of a reading.
+     * 
+     * @return the value, or {@link Float#NaN} if the observation did not include it.
+     */
+    public float get(Reading reading) {
+        return values[reading.ordinal()];
+    }
+
+    /**
+     * Returns the units of a reading.
+     * 
+     * @return the units, or "" if the observation did not include them.
+     */
+    public String getUnits(Reading reading) {
+        return UNITS.get(unitCodes[reading.ordinal()]);
+    }
+
+    /**
+     * Returns the observation time.
+     * 
+     * @return the observation time, or <code>null</code> if the observation did not include it.
+     */
+    public Date getObservationTime() {
+        return observationTime == NO_TIME ? null : new Date(observationTime);
+    }
+
+    /**
+     * Returns the textual description of the current condition.
+     * 
+     * @return the current condition.
+     */
+    public String getCurrentCondition() {
+        return currentCondition;
+    }
+
+    /**
+     * Returns the URL of the icon for the current condition.
+     * 
+     * @return the icon URL, or <code>null</code> if missing.
+     */
+    public String getIconURL() {
+        return iconURL;
+    }
+
+    /**
+     * Returns the wind direction.
+     * 
+     * @return the cardinal wind direction.
+     */
+    public String getWindDirection() {
+        return DIRECTIONS.get(windDirection);
+    }
+
+    /**
+     * Returns the average wind direction.
+     * 
+     * @return the average cardinal wind direction.
+     */
+    public String getAvgWindDirection() {
+        return DIRECTIONS.get(avgWindDirection);
+    }
+
+    /**
+     * Returns the URL of the WeatherBug web site for this location.
+     * 
+     * @return the WeatherBug site URL, or <code>null</code> if missing.
+     */
+    public String getWeatherBugSiteURL() {
+        return weatherBugSiteURL;
+    }
+
+    /**
+     * Fills this observation from the &lt;aws:weather&gt; XML element.  Missing values are set the same way as
+     * {@link LiveWeather} sets them.
+     */
+    private void bind(Element weather) {
+        Arrays.fill(values, Float.NaN);
+        for (Iterator it = weather.elementIterator(); it.hasNext();) {
+            Element child = (Element) it.next();
+            if ("ob".equals(child.getName())) {
+                for (Iterator obIt = child.elementIterator(); obIt.hasNext();) {
+                    bindObChild((Element) obIt.next());
+                }
+            } else if ("WebURL".equals(child.getName())) {
+                weatherBugSiteURL = toURLString(child.getStringValue());
+            }
+        }
+    }
+
+    /**
+     * Fills this observation from the compact &lt;aws:weather&gt; XML element, whose children have the same names as
+     * the children of &lt;aws:ob&gt; in the full response.
+     */
+    private void bindCompact(Element weather) {
+        Arrays.fill(values, Float.NaN);
+        for (Iterator it = weather.elementIterator(); it.hasNext();) {
+            bindObChild((Element) it.next());
+        }
+    }
+
+    private void bindObChild(Element obChild) {
+        Enum<?> obElement = OB_ELEMENTS.get(obChild.getName());
+        if (obElement instanceof Reading) {
+            bind((Reading) obElement, obChild);
+        } else if (obElement != null) {
+            bind((ObElement) obElement, obChild);
+        }
+    }
+
+    private void bind(Reading reading, Element elem) {
+        values[reading.ordinal()] = WeatherBugDataUtils.toFloat(elem.getStringValue());
+        unitCodes[reading.ordinal()] = UNITS.code(WeatherBugDataUtils.toUnits(elem.attributeValue("units")));
+    }
+
+    private void bind(ObElement obElement, Element elem) {
+        switch (obElement) {
+            case OB_DATE:
+                Timestamp timestamp = WeatherBugDataUtils.toTimestamp(elem);
+                observationTime = timestamp == null ? NO_TIME : timestamp.getTime();
+                break;
+            case CURRENT_CONDITION:
+                currentCondition = elem.getStringValue();
+                iconURL = toURLString(elem.attributeValue("icon"));
+                break;
+            case WIND_DIRECTION: windDirection = DIRECTIONS.code(elem.getStringValue()); break;
+            case WIND_DIRECTION_AVG: avgWindDirection = DIRECTIONS.code(elem.getStringValue()); break;
+        }
+    }
+
+    /** Keeps only values that {@link LiveWeather} would accept as a URL. */
+    private static String toURLString(String value) {
+        return WeatherBugDataUtils.toURL(value) == null ? null : value;
+    }
+
+    /**
+     * Assigns a small code to each distinct string, so observations share one copy of each.  Code 0 is always "".
+     * Codes are never removed; the strings coded are a small fixed vocabulary (units, compass directions).
+     */
+    private static class CodeTable {
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Byte> codes = new HashMap<String, Byte>();
+        private volatile String[] snapshot;
+
+        CodeTable() {
+            strings.add("");
+            codes.put("", (byte) 0);
+            snapshot = strings.toArray(new String[strings.size()]);
+        }
+
+        synchronized byte code(String string) {
+            Byte code = codes.get(string);
+            if (code == null) {
+                if (strings.size() >= MAX_CODES) {
+                    Logging.println("Too many distinct WeatherBug values, recording \"" + string + "\" as \"\"");
+                    return 0;
+                }
+                code = (byte) strings.size();
+                strings.add(string);
+                codes.put(string, code);
+                snapshot = strings.toArray(new String[strings.size()]);
+            }
+            return code;
+        }
+
+        String get(byte code) {
+            return snapshot[code];
+        }
+    }
+}
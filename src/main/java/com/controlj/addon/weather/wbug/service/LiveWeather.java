@@ -25,6 +25,9 @@ package com.controlj.addon.weather.wbug.service;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
@@ -328,7 +331,7 @@ public class LiveWeather {
         this.lowestPressure = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:pressure-low", null);
         this.lowestPressureUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:pressure-low/@units");
         this.pressureRate = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:pressure-rate", null);
-        this.pressureRateUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:pressure-low/@units");
+        this.pressureRateUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:pressure-rate/@units");
         this.rainMonth = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:rain-month", null);
         this.rainMonthUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:rain-month/@units");
         this.rainRate = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:rain-rate", null);
@@ -346,7 +349,7 @@ public class LiveWeather {
         this.lowestTemperature = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:temp-low", null);
         this.lowestTemperatureUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:temp-low/@units");
         this.temperatureRate = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:temp-rate", null);
-        this.temperatureRateUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:temp-low/@units");
+        this.temperatureRateUnits = WeatherBugDataUtils.getUnits(weather, "aws:ob/aws:temp-rate/@units");
         this.sunriseTime = WeatherBugDataUtils.getTimestamp(weather, "aws:ob/aws:sunrise");
         this.sunsetTime = WeatherBugDataUtils.getTimestamp(weather, "aws:ob/aws:sunset");
         this.wetBulb = WeatherBugDataUtils.getBigDecimal(weather, "aws:ob/aws:wet-bulb", null);
@@ -360,6 +363,142 @@ public class LiveWeather {
         this.weatherBugSiteURL = WeatherBugDataUtils.getURL(weather, "aws:WebURL");
     }
 
+    /** The children of &lt;aws:ob&gt; that are bound, see {@link #BINDER}. */
+    private enum ObElement {
+        OB_DATE("ob-date"), STATION_ID("station-id"), STATION("station"), CITY_STATE("city-state"), COUNTRY("country"),
+        LATITUDE("latitude"), LONGITUDE("longitude"), SITE_URL("site-url"), AUX_TEMP("aux-temp"), AUX_TEMP_RATE("aux-temp-rate"),
+        CURRENT_CONDITION("current-condition"), DEW_POINT("dew-point"), ELEVATION("elevation"), FEELS_LIKE("feels-like"),
+        GUST_TIME("gust-time"), GUST_DIRECTION("gust-direction"), GUST_SPEED("gust-speed"), HUMIDITY("humidity"),
+        HUMIDITY_HIGH("humidity-high"), HUMIDITY_LOW("humidity-low"), HUMIDITY_RATE("humidity-rate"), INDOOR_TEMP("indoor-temp"),
+        INDOOR_TEMP_RATE("indoor-temp-rate"), LIGHT("light"), LIGHT_RATE("light-rate"), MOON_PHASE("moon-phase"),
+        PRESSURE("pressure"), PRESSURE_HIGH("pressure-high"), PRESSURE_LOW("pressure-low"), PRESSURE_RATE("pressure-rate"),
+        RAIN_MONTH("rain-month"), RAIN_RATE("rain-rate"), RAIN_RATE_MAX("rain-rate-max"), RAIN_TODAY("rain-today"),
+        RAIN_YEAR("rain-year"), TEMP("temp"), TEMP_HIGH("temp-high"), TEMP_LOW("temp-low"), TEMP_RATE("temp-rate"),
+        SUNRISE("sunrise"), SUNSET("sunset"), WET_BULB("wet-bulb"), WIND_SPEED("wind-speed"), WIND_SPEED_AVG("wind-speed-avg"),
+        WIND_DIRECTION("wind-direction"), WIND_DIRECTION_AVG("wind-direction-avg");
+
+        private final String elementName;
+
+        private ObElement(String elementName) {
+            this.elementName = elementName;
+        }
+    }
+
+    /** The &lt;aws:ob&gt; children by element name. */
+    private static final Map<String, ObElement> OB_ELEMENTS = new HashMap<String, ObElement>();
+
+    static {
+        for (ObElement obElement : ObElement.values()) {
+            OB_ELEMENTS.put(obElement.elementName, obElement);
+        }
+    }
+
+    /** Binds the &lt;aws:weather&gt; XML element, visiting each child once. */
+    static final ElementBinder<LiveWeather> BINDER = new ElementBinder<LiveWeather>() {
+        //@Override
+        public LiveWeather bind(Element weather) {
+            LiveWeather liveWeather = new LiveWeather();
+            liveWeather.bind(weather);
+            return liveWeather;
+        }
+    };
+
+    /**
+     * Fills this live weather from the &lt;aws:weather&gt; XML element.  Values that are missing from the element are
+     * set the same way as the element constructor sets them.
+     */
+    private void bind(Element weather) {
+        stationId = stationName = cityState = country = currentCondition = gustDirection = moonPhase = "";
+        windDirection = avgWindDirection = "";
+        auxTempUnits = auxTempRateUnits = dewPointUnits = elevationUnits = feelsLikeUnits = gustSpeedUnits = "";
+        humidityUnits = highestHumidityUnits = lowestHumidityUnits = indoorTemperatureUnits = indoorTemperatureRateUnits = "";
+        pressureUnits = highestPressureUnits = lowestPressureUnits = pressureRateUnits = rainMonthUnits = rainRateUnits = "";
+        maxRainRateUnits = rainTodayUnits = rainYearUnits = temperatureUnits = highestTemperatureUnits = "";
+        lowestTemperatureUnits = temperatureRateUnits = wetBulbUnits = windSpeedUnits = avgWindSpeedUnits = "";
+        cityCode = zipCode = elevation = -1;
+
+        for (Iterator it = weather.elementIterator(); it.hasNext();) {
+            Element child = (Element) it.next();
+            if ("ob".equals(child.getName())) {
+                for (Iterator obIt = child.elementIterator(); obIt.hasNext();) {
+                    Element obChild = (Element) obIt.next();
+                    ObElement obElement = OB_ELEMENTS.get(obChild.getName());
+                    if (obElement != null) {
+                        bind(obElement, obChild);
+                    }
+                }
+            } else if ("WebURL".equals(child.getName())) {
+                weatherBugSiteURL = WeatherBugDataUtils.toURL(child.getStringValue());
+            }
+        }
+    }
+
+    private void bind(ObElement obElement, Element elem) {
+        String value = elem.getStringValue();
+        String units = WeatherBugDataUtils.toUnits(elem.attributeValue("units"));
+        switch (obElement) {
+            case OB_DATE: observationTime = WeatherBugDataUtils.toTimestamp(elem); break;
+            case STATION_ID: stationId = value; break;
+            case STATION: stationName = value; break;
+            case CITY_STATE:
+                cityState = value;
+                cityCode = WeatherBugDataUtils.toInt(elem.attributeValue("citycode"), -1);
+                zipCode = WeatherBugDataUtils.toInt(elem.attributeValue("zipcode"), -1);
+                break;
+            case COUNTRY: country = value; break;
+            case LATITUDE: latitude = WeatherBugDataUtils.toBigDecimal(value); break;
+            case LONGITUDE: longitude = WeatherBugDataUtils.toBigDecimal(value); break;
+            case SITE_URL: siteURL = WeatherBugDataUtils.toURL(value); break;
+            case AUX_TEMP: auxTemp = WeatherBugDataUtils.toBigDecimal(value); auxTempUnits = units; break;
+            case AUX_TEMP_RATE: auxTempRate = WeatherBugDataUtils.toBigDecimal(value); auxTempRateUnits = units; break;
+            case CURRENT_CONDITION:
+                currentCondition = value;
+                currentConditionIconURL = WeatherBugDataUtils.toURL(elem.attributeValue("icon"));
+                break;
+            case DEW_POINT: dewPoint = WeatherBugDataUtils.toBigDecimal(value); dewPointUnits = units; break;
+            case ELEVATION: elevation = WeatherBugDataUtils.toInt(value, -1); elevationUnits = units; break;
+            case FEELS_LIKE: feelsLike = WeatherBugDataUtils.toBigDecimal(value); feelsLikeUnits = units; break;
+            case GUST_TIME: gustTime = WeatherBugDataUtils.toTimestamp(elem); break;
+            case GUST_DIRECTION: gustDirection = value; break;
+            case GUST_SPEED: gustSpeed = WeatherBugDataUtils.toBigDecimal(value); gustSpeedUnits = units; break;
+            case HUMIDITY: humidity = WeatherBugDataUtils.toBigDecimal(value); humidityUnits = units; break;
+            case HUMIDITY_HIGH: highestHumidity = WeatherBugDataUtils.toBigDecimal(value); highestHumidityUnits = units; break;
+            case HUMIDITY_LOW: lowestHumidity = WeatherBugDataUtils.toBigDecimal(value); lowestHumidityUnits = units; break;
+            case HUMIDITY_RATE: humidityRate = WeatherBugDataUtils.toBigDecimal(value); break;
+            case INDOOR_TEMP: indoorTemperature = WeatherBugDataUtils.toBigDecimal(value); indoorTemperatureUnits = units; break;
+            case INDOOR_TEMP_RATE:
+                indoorTemperatureRate = WeatherBugDataUtils.toBigDecimal(value);
+                indoorTemperatureRateUnits = units;
+                break;
+            case LIGHT: light = WeatherBugDataUtils.toBigDecimal(value); break;
+            case LIGHT_RATE: lightRate = WeatherBugDataUtils.toBigDecimal(value); break;
+            case MOON_PHASE:
+                moonPhase = value;
+                moonPhaseImageURL = WeatherBugDataUtils.toURL(elem.attributeValue("moon-phase-img"));
+                break;
+            case PRESSURE: pressure = WeatherBugDataUtils.toBigDecimal(value); pressureUnits = units; break;
+            case PRESSURE_HIGH: highestPressure = WeatherBugDataUtils.toBigDecimal(value); highestPressureUnits = units; break;
+            case PRESSURE_LOW: lowestPressure = WeatherBugDataUtils.toBigDecimal(value); lowestPressureUnits = units; break;
+            case PRESSURE_RATE: pressureRate = WeatherBugDataUtils.toBigDecimal(value); pressureRateUnits = units; break;
+            case RAIN_MONTH: rainMonth = WeatherBugDataUtils.toBigDecimal(value); rainMonthUnits = units; break;
+            case RAIN_RATE: rainRate = WeatherBugDataUtils.toBigDecimal(value); rainRateUnits = units; break;
+            case RAIN_RATE_MAX: maxRainRate = WeatherBugDataUtils.toBigDecimal(value); maxRainRateUnits = units; break;
+            case RAIN_TODAY: rainToday = WeatherBugDataUtils.toBigDecimal(value); rainTodayUnits = units; break;
+            case RAIN_YEAR: rainYear = WeatherBugDataUtils.toBigDecimal(value); rainYearUnits = units; break;
+            case TEMP: temperature = WeatherBugDataUtils.toBigDecimal(value); temperatureUnits = units; break;
+            case TEMP_HIGH: highestTemperature = WeatherBugDataUtils.toBigDecimal(value); highestTemperatureUnits = units; break;
+            case TEMP_LOW: lowestTemperature = WeatherBugDataUtils.toBigDecimal(value); lowestTemperatureUnits = units; break;
+            case TEMP_RATE: temperatureRate = WeatherBugDataUtils.toBigDecimal(value); temperatureRateUnits = units; break;
+            case SUNRISE: sunriseTime = WeatherBugDataUtils.toTimestamp(elem); break;
+            case SUNSET: sunsetTime = WeatherBugDataUtils.toTimestamp(elem); break;
+            case WET_BULB: wetBulb = WeatherBugDataUtils.toBigDecimal(value); wetBulbUnits = units; break;
+            case WIND_SPEED: windSpeed = WeatherBugDataUtils.toBigDecimal(value); windSpeedUnits = units; break;
+            case WIND_SPEED_AVG: avgWindSpeed = WeatherBugDataUtils.toBigDecimal(value); avgWindSpeedUnits = units; break;
+            case WIND_DIRECTION: windDirection = value; break;
+            case WIND_DIRECTION_AVG: avgWindDirection = value; break;
+        }
+    }
+
     /**
      * Returns the temperature at the auxiliary probe for the station..
      * 
@@ -22,6 +22,7 @@
 
 package com.controlj.addon.weather.wbug.service;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.dom4j.Element;
@@ -75,6 +76,20 @@ public class Location {
         this.cityType = WeatherBugDataUtils.getInt(location, "@citytype", -1);
     }
 
+
+    /** Binds the &lt;aws:location&gt; XML element from its attributes. */
+    static final ElementBinder<Location> BINDER = new ElementBinder<Location>() {
+        //@Override
+        public Location bind(Element location) {
+            return new Location(StringUtils.defaultString(location.attributeValue("cityname")),
+                    StringUtils.defaultString(location.attributeValue("statename")),
+                    StringUtils.defaultString(location.attributeValue("countryname")),
+                    WeatherBugDataUtils.toInt(location.attributeValue("zipcode"), -1),
+                    WeatherBugDataUtils.toInt(location.attributeValue("citycode"), -1),
+                    WeatherBugDataUtils.toInt(location.attributeValue("citytype"), -1));
+        }
+    };
+
     /**
      * Constructs a new location.
      * 
@@ -24,6 +24,7 @@ package com.controlj.addon.weather.wbug.service;
 
 import java.math.BigDecimal;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.dom4j.Element;
@@ -66,6 +67,9 @@ public class Station {
     /** The 5 digits designation for U.S. cities only. */
     private int zipCode;
 
+    private Station() {
+    }
+
     /**
      * Constructs a new station.
      * 
@@ -86,6 +90,27 @@ public class Station {
         this.longitude = WeatherBugDataUtils.getBigDecimal(location, "@longitude", null);
     }
 
+
+    /** Binds the &lt;aws:station&gt; XML element from its attributes. */
+    static final ElementBinder<Station> BINDER = new ElementBinder<Station>() {
+        //@Override
+        public Station bind(Element station) {
+            Station result = new Station();
+            result.id = StringUtils.defaultString(station.attributeValue("id"));
+            result.name = StringUtils.defaultString(station.attributeValue("name"));
+            result.city = StringUtils.defaultString(station.attributeValue("city"));
+            result.state = StringUtils.defaultString(station.attributeValue("state"));
+            result.country = StringUtils.defaultString(station.attributeValue("country"));
+            result.zipCode = WeatherBugDataUtils.toInt(station.attributeValue("zipcode"), -1);
+            result.cityCode = WeatherBugDataUtils.toInt(station.attributeValue("citycode"), -1);
+            result.distance = WeatherBugDataUtils.toBigDecimal(station.attributeValue("distance"));
+            result.unit = StringUtils.defaultString(station.attributeValue("Unit"));
+            result.latitude = WeatherBugDataUtils.toBigDecimal(station.attributeValue("latitude"));
+            result.longitude = WeatherBugDataUtils.toBigDecimal(station.attributeValue("longitude"));
+            return result;
+        }
+    };
+
     /*
      * (non-Javadoc)
      * 
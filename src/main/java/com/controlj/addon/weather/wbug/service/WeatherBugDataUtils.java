@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
@@ -83,7 +84,21 @@ public class WeatherBugDataUtils {
      * @return the extracted units string value.
      */
     public static String getUnits(Element elem, String path) {
-        String units =  fixDegrees(elem.valueOf(path));
+        return toUnits(elem.valueOf(path));
+    }
+
+    /**
+     * Converts a units attribute value, fixing its degree representation.
+     * 
+     * @param value
+     *            the attribute value, or <code>null</code> if the attribute is missing.
+     * @return the units string (empty if the attribute is missing).
+     */
+    public static String toUnits(String value) {
+        if (value == null) {
+            return "";
+        }
+        String units = fixDegrees(value);
         if ("km".equals(units)) {
             units = "km/h";
         }
@@ -116,6 +131,19 @@ public class WeatherBugDataUtils {
         return NumberUtils.toInt(elem.valueOf(path), defaultValue);
     }
 
+    /**
+     * Converts a string value to an integer.
+     * 
+     * @param value
+     *            the string value, or <code>null</code> if the value is missing.
+     * @param defaultValue
+     *            the default value to be returned if the value cannot be converted to an integer.
+     * @return the converted integer value.
+     */
+    public static int toInt(String value, int defaultValue) {
+        return NumberUtils.toInt(value, defaultValue);
+    }
+
     /**
      * Extracts a big decimal value from a XML element.
      * 
@@ -129,10 +157,43 @@ public class WeatherBugDataUtils {
      * @return the extracted integer value.
      */
     public static BigDecimal getBigDecimal(Element elem, String path, BigDecimal defaultValue) {
+        BigDecimal value = toBigDecimal(elem.valueOf(path));
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Converts a string value to a big decimal.
+     * 
+     * @param value
+     *            the string value, or <code>null</code> if the value is missing.
+     * @return the converted value, or <code>null</code> if it cannot be converted to a big decimal.
+     */
+    public static BigDecimal toBigDecimal(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a string value to a float.
+     * 
+     * @param value
+     *            the string value, or <code>null</code> if the value is missing.
+     * @return the converted value, or {@link Float#NaN} if it cannot be converted to a number.
+     */
+    public static float toFloat(String value) {
+        if (value == null) {
+            return Float.NaN;
+        }
         try {
-            return new BigDecimal(elem.valueOf(path));
+            return Float.parseFloat(value);
         } catch (NumberFormatException e) {
-            return defaultValue;
+            return Float.NaN;
         }
     }
 
@@ -146,8 +207,22 @@ public class WeatherBugDataUtils {
      * @return the extracted URL.
      */
     public static URL getURL(Element elem, String path) {
+        return toURL(elem.valueOf(path));
+    }
+
+    /**
+     * Converts a string value to a URL.
+     * 
+     * @param value
+     *            the string value, or <code>null</code> if the value is missing.
+     * @return the URL, or <code>null</code> if the value is not a valid URL.
+     */
+    public static URL toURL(String value) {
+        if (value == null) {
+            return null;
+        }
         try {
-            return new URL(elem.valueOf(path));
+            return new URL(value);
         } catch (MalformedURLException e) {
             return null;
         }
@@ -180,6 +255,48 @@ public class WeatherBugDataUtils {
         return new Timestamp(cal.getTimeInMillis());
     }
 
+    /**
+     * Converts a timestamp element (such as &lt;aws:ob-date&gt;) to a timestamp, visiting each of its children once.
+     * 
+     * @param timestampElem
+     *            the timestamp element.
+     * @return the timestamp.
+     */
+    public static Timestamp toTimestamp(Element timestampElem) {
+        String tz = "";
+        int year = -1, month = -1, day = -1, hour = -1, minute = 0, second = 0;
+        for (Iterator it = timestampElem.elementIterator(); it.hasNext();) {
+            Element child = (Element) it.next();
+            String name = child.getName();
+            if ("year".equals(name)) {
+                year = toInt(child.attributeValue("number"), -1);
+            } else if ("month".equals(name)) {
+                month = toInt(child.attributeValue("number"), -1);
+            } else if ("day".equals(name)) {
+                day = toInt(child.attributeValue("number"), -1);
+            } else if ("hour".equals(name)) {
+                hour = toInt(child.attributeValue("hour-24"), -1);
+            } else if ("minute".equals(name)) {
+                minute = toInt(child.attributeValue("number"), 0);
+            } else if ("second".equals(name)) {
+                second = toInt(child.attributeValue("number"), 0);
+            } else if ("time-zone".equals(name)) {
+                tz = StringUtils.defaultString(child.attributeValue("abbrv"));
+            }
+        }
+
+        final GregorianCalendar cal = new GregorianCalendar( TimeZone.getTimeZone(tz) );
+        cal.set(Calendar.YEAR, year);
+        cal.set(Calendar.MONTH, month - 1); //zero based in GregorianCal
+        cal.set(Calendar.DAY_OF_MONTH, day);
+        cal.set(Calendar.HOUR_OF_DAY, hour);
+        cal.set(Calendar.MINUTE, minute);
+        cal.set(Calendar.SECOND, second);
+        cal.set(Calendar.MILLISECOND, 0);
+
+        return new Timestamp(cal.getTimeInMillis());
+    }
+
     /**
      * Navigates a XML document through an XPath and, for each encountered element, creates a specific WeatherBug data object (<i>Location</i>,
      * <i>Station</i>, and so on). Java reflection errors are silently ignored.
@@ -217,6 +334,61 @@ public class WeatherBugDataUtils {
         return objects.get(0);
     }
 
+    /**
+     * Navigates a XML document through an XPath and, for each encountered element, creates a specific WeatherBug data object
+     * using its binder.
+     * 
+     * @param doc
+     *            the XML document being accessed.
+     * @param path
+     *            the XPath used to find specific sub-elements.
+     * @param binder
+     *            the binder for the class of objects being created (such as <i>Location.BINDER</i>).
+     * @return a list of data objects.
+     */
+    public static <T> List<T> bind(Document doc, String path, ElementBinder<T> binder) throws WeatherBugServiceException {
+        List<T> objects = bind(doc.getRootElement(), path, binder);
+        if (objects.isEmpty())
+            extractError(doc);
+        return objects;
+    }
+
+    /**
+     * Navigates a XML document through an XPath and creates a specific WeatherBug data object using its binder.
+     * 
+     * @param doc
+     *            the XML document being accessed.
+     * @param path
+     *            the XPath used to find specific sub-elements.
+     * @param binder
+     *            the binder for the class of object being created (such as <i>LiveWeather.BINDER</i>).
+     * @return a data object.
+     */
+    public static <T> T bindSingle(Document doc, String path, ElementBinder<T> binder) throws WeatherBugServiceException {
+        List<T> objects = bind(doc, path, binder);
+        return objects.get(0);
+    }
+
+    /**
+     * Navigates a XML element through an XPath and, for each encountered element, creates a specific WeatherBug data object
+     * using its binder.
+     * 
+     * @param elem
+     *            the XML element being accessed.
+     * @param path
+     *            the XPath used to find specific sub-elements.
+     * @param binder
+     *            the binder for the class of objects being created.
+     * @return a list of data objects.
+     */
+    public static <T> List<T> bind(Element elem, String path, ElementBinder<T> binder) {
+        List<T> resultList = new ArrayList<T>();
+        for (Object o : elem.selectNodes(path)) {
+            resultList.add(binder.bind((Element) o));
+        }
+        return resultList;
+    }
+
     /**
      * Navigates a XML document through an XPath and, for each encountered element, creates a specific WeatherBug data object (<i>Location</i>,
      * <i>Station</i>, and so on). Java reflection errors are silently ignored.
@@ -26,6 +26,8 @@ import java.util.*;
 
 import com.controlj.addon.weather.util.HTTPHelper;
 import com.controlj.addon.weather.util.Logging;
+import com.controlj.addon.weather.util.RequestPolicy;
+import com.controlj.addon.weather.util.RetryBudget;
 import org.dom4j.Document;
 import org.dom4j.DocumentFactory;
 
@@ -40,10 +42,16 @@ public class WeatherBugService {
     /**
      * The alphanumeric license key issued by WeatherBug.
      */
-    private String apiKey;
+    private final String apiKey;
 
-    /** The current time-out (default = DEFAULT_TIMEOUT). */
-    private int timeout = DEFAULT_TIMEOUT;
+    /** The helper requests are made with. */
+    private final HTTPHelper httpHelper;
+
+    /** Retries are limited across all requests made by this service, not just per request. */
+    private final RetryBudget retryBudget;
+
+    /** The timeouts and retries used for requests (read time-out default = DEFAULT_TIMEOUT). */
+    private volatile RequestPolicy requestPolicy;
 
     /* static initializer */
     static {
@@ -60,9 +68,25 @@ public class WeatherBugService {
      * 
      * @param apiKey
      *            the alphanumeric license key issued by WeatherBug.
+     * @param httpHelper
+     *            the helper to make requests with.
      */
-    public WeatherBugService(String apiKey) {
+    public WeatherBugService(String apiKey, HTTPHelper httpHelper) {
+        this(apiKey, httpHelper, new RetryBudget(), RequestPolicy.DEFAULT.withReadTimeoutMillis(DEFAULT_TIMEOUT));
+    }
+
+    private WeatherBugService(String apiKey, HTTPHelper httpHelper, RetryBudget retryBudget, RequestPolicy requestPolicy) {
         this.apiKey = apiKey;
+        this.httpHelper = httpHelper;
+        this.retryBudget = retryBudget;
+        this.requestPolicy = requestPolicy;
+    }
+
+    /**
+     * Returns the license key requests are made with.
+     */
+    public String getApiKey() {
+        return apiKey;
     }
 
     /**
@@ -73,7 +97,18 @@ public class WeatherBugService {
      * @see #DEFAULT_TIMEOUT
      */
     public void setTimeout(int timeout) {
-        this.timeout = timeout;
+        requestPolicy = requestPolicy.withReadTimeoutMillis(timeout);
+    }
+
+    /**
+     * Returns a service that makes its requests with the given timeouts and retries.  It shares this service's
+     * license key and retry budget, and this service is left as it is.
+     *
+     * @param requestPolicy
+     *            the request policy.
+     */
+    public WeatherBugService withRequestPolicy(RequestPolicy requestPolicy) {
+        return new WeatherBugService(apiKey, httpHelper, retryBudget, requestPolicy);
     }
 
     /**
@@ -90,7 +125,7 @@ public class WeatherBugService {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("SearchString", searchString);
         Document doc = execute("getLocationsXML", params);
-        List<Location> locations = WeatherBugDataUtils.bind(doc, "aws:locations/aws:location", Location.class);
+        List<Location> locations = WeatherBugDataUtils.bind(doc, "aws:locations/aws:location", Location.BINDER);
         return locations.toArray(new Location[locations.size()]);
     }
 
@@ -107,7 +142,7 @@ public class WeatherBugService {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("zipCode", zipCode);
         Document doc = execute("getStationsXML", params);
-        List<Station> stations = WeatherBugDataUtils.bind(doc, "aws:stations/aws:station", Station.class);
+        List<Station> stations = WeatherBugDataUtils.bind(doc, "aws:stations/aws:station", Station.BINDER);
         return stations.toArray(new Station[stations.size()]);
     }
 
@@ -124,7 +159,7 @@ public class WeatherBugService {
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("cityCode", cityCode);
         Document doc = execute("getStationsXML", params);
-        List<Station> stations = WeatherBugDataUtils.bind(doc, "aws:stations/aws:station", Station.class);
+        List<Station> stations = WeatherBugDataUtils.bind(doc, "aws:stations/aws:station", Station.BINDER);
         return stations.toArray(new Station[stations.size()]);
     }
 
@@ -144,7 +179,7 @@ public class WeatherBugService {
         params.put("lat", WeatherBugDataUtils.formatNumber(latitude, "0.00"));
         params.put("long", WeatherBugDataUtils.formatNumber(longitude, "0.00"));
         Document doc = execute("getStationsXML", params);
-        List stations = WeatherBugDataUtils.bind(doc, "/aws:weather/aws:stations/aws:station", Station.class);
+        List stations = WeatherBugDataUtils.bind(doc, "/aws:weather/aws:stations/aws:station", Station.BINDER);
         return (Station[]) stations.toArray(new Station[0]);
     }
 
@@ -164,7 +199,26 @@ public class WeatherBugService {
         params.put("stationid", stationId);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.BINDER);
+    }
+
+    /**
+     * Gets the live weather based on a station, keeping only the values used for conditions data.
+     * 
+     * @param stationId
+     *            the station identifier.
+     * @param unitType
+     *            the unit type: <code>0</code> for U.S. customary units or <code>1</code> for Metric system units
+     * @return the live observation.
+     * @throws WeatherBugServiceException
+     *             if an error occurred processing the service response.
+     */
+    public LiveObservation getLiveObservationByStationID(String stationId, int unitType) throws WeatherBugServiceException {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("stationid", stationId);
+        params.put("UnitType", Integer.toString(unitType));
+        Document doc = execute("getLiveWeatherRSS", params);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveObservation.BINDER);
     }
 
     /**
@@ -183,7 +237,7 @@ public class WeatherBugService {
         params.put("zipCode", zipCode);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.BINDER);
     }
 
     /**
@@ -202,7 +256,7 @@ public class WeatherBugService {
         params.put("cityCode", Integer.toString(cityCode));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveWeather.BINDER);
     }
 
     /**
@@ -221,7 +275,27 @@ public class WeatherBugService {
         params.put("stationid", stationId);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveCompactWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.BINDER);
+    }
+
+    /**
+     * Gets the live compact weather based on a station, as an observation with only the values that the compact
+     * response includes.
+     * 
+     * @param stationId
+     *            the station identifier.
+     * @param unitType
+     *            the unit type: <code>0</code> for U.S. customary units or <code>1</code> for Metric system units
+     * @return the live observation.
+     * @throws WeatherBugServiceException
+     *             if an error occurred processing the service response.
+     */
+    public LiveObservation getLiveCompactObservationByStationID(String stationId, int unitType) throws WeatherBugServiceException {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("stationid", stationId);
+        params.put("UnitType", Integer.toString(unitType));
+        Document doc = execute("getLiveCompactWeatherRSS", params);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveObservation.COMPACT_BINDER);
     }
 
     /**
@@ -240,7 +314,7 @@ public class WeatherBugService {
         params.put("zipCode", zipCode);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveCompactWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.BINDER);
     }
 
     /**
@@ -259,7 +333,7 @@ public class WeatherBugService {
         params.put("cityCode", Integer.toString(cityCode));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveCompactWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.BINDER);
     }
 
     /**
@@ -282,7 +356,7 @@ public class WeatherBugService {
         params.put("long", WeatherBugDataUtils.formatNumber(longitude, "0.00"));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getLiveCompactWeatherRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", LiveCompactWeather.BINDER);
     }
 
     /**
@@ -301,7 +375,7 @@ public class WeatherBugService {
         params.put("zipCode", zipCode);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getForecastRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.BINDER);
     }
 
     /**
@@ -320,7 +394,7 @@ public class WeatherBugService {
         params.put("cityCode", Integer.toString(cityCode));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getForecastRSS", params);
-        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.class);
+        return WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.BINDER);
     }
 
     /**
@@ -342,7 +416,7 @@ public class WeatherBugService {
         params.put("long", WeatherBugDataUtils.formatNumber(longitude, "0.00"));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getForecastRSS", params);
-        Forecasts result = WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.class);
+        Forecasts result = WeatherBugDataUtils.bindSingle(doc, "/rss/channel/aws:weather", Forecasts.BINDER);
         return result;
     }
 
@@ -362,7 +436,7 @@ public class WeatherBugService {
         params.put("zipCode", zipCode);
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getAlertsRSS", params);
-        List<Alert> alerts = WeatherBugDataUtils.bind(doc, "/rss/channel/aws:weather/aws:alerts/aws:alert", Alert.class);
+        List<Alert> alerts = WeatherBugDataUtils.bind(doc, "/rss/channel/aws:weather/aws:alerts/aws:alert", Alert.BINDER);
         return alerts.toArray(new Alert[alerts.size()]);
     }
 
@@ -385,7 +459,7 @@ public class WeatherBugService {
         params.put("long", WeatherBugDataUtils.formatNumber(longitude, "0.00"));
         params.put("UnitType", Integer.toString(unitType));
         Document doc = execute("getAlertsRSS", params);
-        List<Alert> alerts = WeatherBugDataUtils.bind(doc, "/rss/channel/aws:weather/aws:alerts/aws:alert", Alert.class);
+        List<Alert> alerts = WeatherBugDataUtils.bind(doc, "/rss/channel/aws:weather/aws:alerts/aws:alert", Alert.BINDER);
         return alerts.toArray(new Alert[alerts.size()]);
     }
 
@@ -403,7 +477,7 @@ public class WeatherBugService {
     private Document execute(String methodName, Map<String, Object> params) throws WeatherBugServiceException {
         params.put("api_key", apiKey);
         try {
-            return new HTTPHelper().readDocument("http", "i.wxbug.net", -1, "REST/SP/" + methodName + ".aspx", params);
+            return httpHelper.readDocument(requestPolicy, retryBudget, "http", "i.wxbug.net", -1, "REST/SP/" + methodName + ".aspx", params);
         } catch (Exception e) {
             throw new WeatherBugServiceException(e);
         }
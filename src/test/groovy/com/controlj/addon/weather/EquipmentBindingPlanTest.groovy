@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.config.ConfigData
+import com.controlj.addon.weather.data.ConditionsField
+import com.controlj.addon.weather.data.ConditionsSource
+import com.controlj.green.addonsupport.access.*
+import com.controlj.green.addonsupport.access.aspect.PresentValue
+
+class EquipmentBindingPlanTest extends Specification {
+    static PresentValue presentValue(String referenceName) {
+        Location location = [getReferenceName: { referenceName }] as Location
+        return [getLocation: { location }] as PresentValue
+    }
+
+    /**
+     * A connection to a system with one equipment that has the given points, counting the plans built from it.
+     */
+    static class StubSystem {
+        int reads = 0
+        List<PresentValue> presentValues
+        SystemConnection connection
+
+        StubSystem(List<String> referenceNames) {
+            presentValues = referenceNames.collect { presentValue(it) }
+            Location equipment = [getType: { LocationType.Equipment },
+                                  find: { Class type, AspectAcceptor acceptor -> presentValues.findAll { acceptor.accept(it) } }] as Location
+            Tree tree = [resolve: { String lookup -> equipment }] as Tree
+            SystemAccess access = [getTree: { SystemTree which -> tree }] as SystemAccess
+            connection = [runReadAction: { ReadActionResult action -> reads++; action.execute(access) },
+                          runWriteAction: { Object[] args -> throw new IllegalStateException("no field access here") }] as SystemConnection
+        }
+    }
+
+    def cleanup() {
+        EquipmentBindingPlan.retain([])
+    }
+
+    def "points are matched to their fields"() {
+        setup:
+        def system = new StubSystem(["ws_latitude", "wc_temperature", "wf2_highestTemperature", "wc_noSuchField", "oat"])
+
+        when:
+        def plan = EquipmentBindingPlan.get(system.connection, "#ahu1")
+
+        then:
+        plan.stationBindings*.fieldName == ["ws_latitude"]
+        plan.conditionsBindings*.fieldName == ["wc_temperature"]
+        plan.forecastBindings*.fieldName == ["wfN_highestTemperature"]
+        plan.forecastBindings[0].day == 2
+        plan.boundFields.conditionsFields == EnumSet.of(ConditionsField.temperature)
+        plan.boundFields.forecastDays == 3
+        !plan.empty
+    }
+
+    def "plans are cached by path"() {
+        setup:
+        def system = new StubSystem(["wc_temperature"])
+
+        when:
+        def first = EquipmentBindingPlan.get(system.connection, "#ahu1", 1000)
+        def second = EquipmentBindingPlan.get(system.connection, "#ahu1", 2000)
+        def other = EquipmentBindingPlan.get(system.connection, "#ahu2", 2000)
+
+        then:
+        first.is(second)
+        !first.is(other)
+        system.reads == 2
+    }
+
+    def "a plan is rebuilt after the rescan interval"() {
+        setup:
+        def system = new StubSystem(["wc_temperature"])
+
+        when:
+        def first = EquipmentBindingPlan.get(system.connection, "#ahu1", 1000)
+        def beforeRescan = EquipmentBindingPlan.get(system.connection, "#ahu1", 1000 + EquipmentBindingPlan.RESCAN_INTERVAL - 1)
+        def afterRescan = EquipmentBindingPlan.get(system.connection, "#ahu1", 1000 + EquipmentBindingPlan.RESCAN_INTERVAL)
+
+        then:
+        first.is(beforeRescan)
+        !first.is(afterRescan)
+        system.reads == 2
+    }
+
+    def "plans are dropped when invalidated or removed from the configuration"() {
+        setup:
+        def system = new StubSystem(["wc_temperature"])
+        def first = EquipmentBindingPlan.get(system.connection, "#ahu1", 1000)
+        EquipmentBindingPlan.get(system.connection, "#ahu2", 1000)
+
+        when:
+        EquipmentBindingPlan.invalidate("#ahu1")
+        EquipmentBindingPlan.retain(["#ahu1"])
+        def second = EquipmentBindingPlan.get(system.connection, "#ahu1", 2000)
+        EquipmentBindingPlan.get(system.connection, "#ahu2", 2000)
+
+        then:
+        !first.is(second)
+        system.reads == 4
+    }
+
+    def "a failed write drops the plan"() {
+        setup:
+        def system = new StubSystem(["wc_temperature"])
+        def configData = new ConfigData(system.connection)
+        def handler = new EquipmentHandler(configData, "#ahu1")
+        ConditionsSource conditions = Mock()
+        conditions.getTemperature() >> 72f
+
+        when:
+        handler.writeConditionsData(conditions)
+
+        then:
+        thrown(EquipmentWriteException)
+
+        when:
+        new EquipmentHandler(configData, "#ahu1")
+
+        then:
+        system.reads == 2
+    }
+
+    def "values are only written when they change by at least the deadband"() {
+        setup:
+        def binding = EquipmentBindingPlan.build([presentValue("wc_temperature")], 1000).conditionsBindings[0]
+
+        expect:
+        binding.needsWrite(72f, 0f)
+        binding.needsWrite(72f, 0.5f)
+
+        when:
+        binding.setLastWritten(72f)
+
+        then:
+        !binding.needsWrite(72f, 0f)
+        binding.needsWrite(72.1f, 0f)
+        !binding.needsWrite(72.4f, 0.5f)
+        binding.needsWrite(72.5f, 0.5f)
+        binding.needsWrite(71.5f, 0.5f)
+    }
+
+    def "only changed values are queued for writing"() {
+        setup:
+        def system = new StubSystem(["wc_temperature", "wc_humidity"])
+        def configData = new ConfigData(system.connection)
+        configData.setDeadband("wc_temperature", 0.5f)
+        def handler = new EquipmentHandler(configData, "#ahu1", EquipmentBindingPlan.build(system.presentValues, 1000))
+        ConditionsSource first = Mock()
+        first.getTemperature() >> 72f
+        first.getHumidity() >> 40f
+        ConditionsSource second = Mock()
+        second.getTemperature() >> 72.2f
+        second.getHumidity() >> 41f
+        long suppressed = EquipmentHandler.suppressedWriteCount
+
+        when:
+        def firstWrites = handler.getWrites(null, first, null)
+        firstWrites.each { it.binding.setLastWritten(it.value) }
+        def secondWrites = handler.getWrites(null, second, null)
+
+        then:
+        firstWrites*.binding*.fieldName == ["wc_temperature", "wc_humidity"]
+        secondWrites*.binding*.fieldName == ["wc_humidity"]
+        EquipmentHandler.suppressedWriteCount == suppressed + 1
+    }
+}
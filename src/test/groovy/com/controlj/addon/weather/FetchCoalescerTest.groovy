@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.service.WeatherServiceException
+import com.controlj.addon.weather.service.WeatherServices
+
+class FetchCoalescerTest extends Specification {
+    def "entries for the same station share one fetch"() {
+        setup:
+        FetchCoalescer coalescer = new FetchCoalescer()
+        int calls = 0
+        def fetch = { calls++; return "data" } as FetchCoalescer.Fetch
+
+        when:
+        def first = coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.nws, "KATL", [units: "imperial"]), fetch)
+        def second = coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.nws, "KATL", [units: "imperial"]), fetch)
+
+        then:
+        first == "data"
+        second == "data"
+        calls == 1
+        coalescer.fetchCount == 1
+        coalescer.savedCount == 1
+    }
+
+    def "different stations, units or data kinds are fetched separately"() {
+        setup:
+        FetchCoalescer coalescer = new FetchCoalescer()
+        int calls = 0
+        def fetch = { calls++; return calls } as FetchCoalescer.Fetch
+
+        when:
+        coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.nws, "KATL", [units: "imperial"]), fetch)
+        coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.nws, "KPDK", [units: "imperial"]), fetch)
+        coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.nws, "KATL", [units: "metric"]), fetch)
+        coalescer.get(new FetchCoalescer.Key("forecasts", WeatherServices.nws, "KATL", [units: "imperial"]), fetch)
+        coalescer.get(new FetchCoalescer.Key("conditions", WeatherServices.wbug, "KATL", [units: "imperial"]), fetch)
+
+        then:
+        calls == 5
+        coalescer.savedCount == 0
+    }
+
+    def "a failed fetch is reported to every entry sharing it"() {
+        setup:
+        FetchCoalescer coalescer = new FetchCoalescer()
+        int calls = 0
+        def fetch = { calls++; throw new WeatherServiceException("Missing station content") } as FetchCoalescer.Fetch
+        def key = new FetchCoalescer.Key("conditions", WeatherServices.nws, "KATL", [:])
+
+        when:
+        coalescer.get(key, fetch)
+
+        then:
+        thrown(WeatherServiceException)
+
+        when:
+        coalescer.get(key, fetch)
+
+        then:
+        WeatherServiceException e = thrown()
+        e.message == "Missing station content"
+        calls == 1
+    }
+}
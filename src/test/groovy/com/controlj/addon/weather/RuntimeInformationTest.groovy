@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.config.WeatherConfigEntry
+import com.controlj.addon.weather.data.ConditionsSource
+import com.controlj.addon.weather.data.ForecastSource
+import com.controlj.addon.weather.data.StationSource
+
+class RuntimeInformationTest extends Specification {
+    def entry(String cpPath) {
+        return new WeatherConfigEntry(cpPath, new StationSource(), [:])
+    }
+
+    def "an update replaces the snapshot"() {
+        setup:
+        RuntimeInformation rti = new RuntimeInformation()
+        ConditionsSource conditions = Mock()
+        def before = rti.getSnapshot(entry("#ahu1"))
+
+        when:
+        rti.updateConditionsData(entry("#ahu1"), conditions, null)
+        rti.setObservationWritten(entry("#ahu1"), new Date(1000))
+
+        then:
+        before.conditionsSource == null
+        rti.getSnapshot(entry("#ahu1")).conditionsSource.is(conditions)
+        rti.getSnapshot(entry("#ahu1")).conditionsUpdated > 0
+        rti.isObservationWritten(entry("#ahu1"), new Date(1000))
+        !rti.isObservationWritten(entry("#ahu1"), new Date(2000))
+        rti.getLastForecastData(entry("#ahu1")) == null
+    }
+
+    def "a write error only applies to the data that was written"() {
+        setup:
+        RuntimeInformation rti = new RuntimeInformation()
+        ConditionsSource older = Mock()
+        ConditionsSource newer = Mock()
+        ForecastSource[] forecasts = [Mock(ForecastSource)]
+
+        when:
+        rti.updateConditionsData(entry("#ahu1"), older, null)
+        rti.updateConditionsData(entry("#ahu1"), newer, null)
+        rti.updateConditionsError(entry("#ahu1"), older, "Error writing data")
+        rti.updateForecastData(entry("#ahu1"), forecasts, null)
+        rti.updateForecastError(entry("#ahu1"), forecasts, "Error writing data")
+
+        then:
+        rti.getLastConditionsData(entry("#ahu1")).is(newer)
+        rti.getLastConditionsError(entry("#ahu1")) == null
+        rti.getLastForecastData(entry("#ahu1")).is(forecasts)
+        rti.getLastForecastError(entry("#ahu1")) == "Error writing data"
+    }
+
+    def "entries removed from the configuration are dropped"() {
+        setup:
+        RuntimeInformation rti = new RuntimeInformation()
+        rti.updateConditionsData(entry("#ahu1"), Mock(ConditionsSource), null)
+        rti.updateConditionsData(entry("#ahu2"), Mock(ConditionsSource), "Error reading data")
+
+        when:
+        rti.retain(["#ahu2"])
+
+        then:
+        rti.getLastConditionsData(entry("#ahu1")) == null
+        rti.getLastConditionsError(entry("#ahu2")) == "Error reading data"
+    }
+}
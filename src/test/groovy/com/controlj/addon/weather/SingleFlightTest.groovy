@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.service.WeatherServiceException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class SingleFlightTest extends Specification {
+    def "callers during a lookup share it"() {
+        setup:
+        SingleFlight lookups = new SingleFlight()
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        int calls = 0
+        def lookup = { calls++; started.countDown(); release.await(5, TimeUnit.SECONDS); return "data" } as FetchCoalescer.Fetch
+        def first = null
+        Thread thread = Thread.start { first = lookups.run("conditions for #ahu1", lookup) }
+        started.await(5, TimeUnit.SECONDS)
+
+        when:
+        def second = null
+        Thread joiner = Thread.start { second = lookups.run("conditions for #ahu1", lookup) }
+        while (lookups.sharedCount == 0)
+            Thread.sleep(10)
+        release.countDown()
+        thread.join(5000)
+        joiner.join(5000)
+
+        then:
+        first == "data"
+        second == "data"
+        calls == 1
+    }
+
+    def "a finished lookup is not reused"() {
+        setup:
+        SingleFlight lookups = new SingleFlight()
+        int calls = 0
+        def lookup = { calls++; return calls } as FetchCoalescer.Fetch
+
+        when:
+        def first = lookups.run("forecasts for #ahu1", lookup)
+        def second = lookups.run("forecasts for #ahu1", lookup)
+
+        then:
+        first == 1
+        second == 2
+        lookups.sharedCount == 0
+    }
+
+    def "the lookup's exception is thrown to the caller"() {
+        setup:
+        SingleFlight lookups = new SingleFlight()
+        def lookup = { throw new WeatherServiceException("Error reading data") } as FetchCoalescer.Fetch
+
+        when:
+        lookups.run("conditions for #ahu1", lookup)
+
+        then:
+        WeatherServiceException e = thrown()
+        e.message == "Error reading data"
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.config.ConfigData
+import com.controlj.addon.weather.config.WeatherConfigEntry
+import com.controlj.addon.weather.data.StationSource
+import com.controlj.addon.weather.service.WeatherServices
+import com.controlj.green.addonsupport.access.SystemConnection
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+class UpdateSchedulerTest extends Specification {
+    static final long MINUTE = 60000
+
+    def executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+    def scheduler = new UpdateScheduler(executor, null, 60, 120)
+
+    def cleanup() {
+        executor.shutdownNow()
+        RuntimeInformation.getSingleton().retain([])
+    }
+
+    def configData(List<WeatherConfigEntry> entries) {
+        def configData = new ConfigData([:] as SystemConnection, WeatherServices.wbug)
+        entries.each { configData.add(it) }
+        return configData
+    }
+
+    def entry(String cpPath, String stationId, int conditionsRefresh = 0, int forecastsRefresh = 0) {
+        def station = new StationSource()
+        station.setId(stationId)
+        return new WeatherConfigEntry(cpPath, station, [:], conditionsRefresh, forecastsRefresh)
+    }
+
+    /**
+     * Makes the update look as though it ran at the given time, and returns when it is next due.
+     */
+    long ranAt(String id, long started) {
+        def update = scheduler.updates[id]
+        scheduler.queue.remove(update)
+        update.running = true
+        update.started = started
+        scheduler.completed(update)
+        return update.due
+    }
+
+    void setDue(String id, long due) {
+        def update = scheduler.updates[id]
+        scheduler.queue.remove(update)
+        update.due = due
+        scheduler.queue.add(update)
+    }
+
+    boolean within(long actual, long expected, double fraction) {
+        return Math.abs(actual - expected) <= expected * fraction
+    }
+
+    def "each entry is updated at its own rate, or the configured rate if it has none"() {
+        setup:
+        scheduler.sync(configData([entry("#own", "KAAA", 10, 30), entry("#default", "KBBB")]))
+        long now = System.currentTimeMillis()
+
+        expect:
+        within(ranAt("conditions:#own", now) - now, 10 * MINUTE, UpdateScheduler.JITTER)
+        within(ranAt("forecasts:#own", now) - now, 30 * MINUTE, UpdateScheduler.JITTER)
+        within(ranAt("conditions:#default", now) - now, 60 * MINUTE, UpdateScheduler.JITTER)
+        within(ranAt("forecasts:#default", now) - now, 120 * MINUTE, UpdateScheduler.JITTER)
+    }
+
+    def "entries for the same station are kept in step"() {
+        setup:
+        scheduler.sync(configData([entry("#a", "KAAA"), entry("#b", "KAAA")]))
+        long now = System.currentTimeMillis()
+
+        expect:
+        ranAt("conditions:#a", now) == ranAt("conditions:#b", now)
+    }
+
+    def "changing the rates moves the due times from when each entry last ran"() {
+        setup:
+        scheduler.sync(configData([entry("#ran", "KAAA"), entry("#waiting", "KBBB"), entry("#own", "KCCC", 10, 0)]))
+        long lastRun = System.currentTimeMillis() - 5 * MINUTE
+        ranAt("conditions:#ran", lastRun)
+        ranAt("conditions:#own", lastRun)
+        long waitingDue = scheduler.updates["conditions:#waiting"].due
+
+        when:
+        scheduler.setRefreshRates(30, 120)
+
+        then:
+        within(scheduler.updates["conditions:#ran"].due - lastRun, 30 * MINUTE, UpdateScheduler.JITTER)
+        within(scheduler.updates["conditions:#own"].due - lastRun, 10 * MINUTE, UpdateScheduler.JITTER)
+        scheduler.updates["conditions:#waiting"].due == waitingDue
+        scheduler.queue.size() == 6
+    }
+
+    def "entries removed from the configuration are dropped"() {
+        setup:
+        def kept = entry("#kept", "KAAA")
+        scheduler.sync(configData([kept, entry("#removed", "KBBB")]))
+        RuntimeInformation.getSingleton().updateConditionsData(entry("#removed", "KBBB"), null, "error")
+        assert RuntimeInformation.getSingleton().getLastConditionsError(entry("#removed", "KBBB")) == "error"
+
+        when:
+        scheduler.sync(configData([kept]))
+
+        then:
+        scheduler.updates.keySet() == ["conditions:#kept", "forecasts:#kept"] as Set
+        scheduler.queue.collect { it.id } as Set == ["conditions:#kept", "forecasts:#kept"] as Set
+        RuntimeInformation.getSingleton().getLastConditionsError(entry("#removed", "KBBB")) == null
+    }
+
+    def "forecasts that come due soon are brought into a batch that has forecasts"() {
+        setup:
+        scheduler.sync(configData([entry("#due", "KAAA"), entry("#soon", "KBBB"), entry("#later", "KCCC")]))
+        long now = System.currentTimeMillis()
+        scheduler.updates.keySet().each { setDue(it, now + 100 * MINUTE) }
+        setDue("forecasts:#due", now - 1000)
+        setDue("forecasts:#soon", now + 5 * MINUTE)    // within a tenth of the two hour period
+        setDue("forecasts:#later", now + 30 * MINUTE)
+
+        when:
+        def batch = scheduler.takeDueUpdates()
+
+        then:
+        batch.collect { it.id } as Set == ["forecasts:#due", "forecasts:#soon"] as Set
+        batch.every { it.running }
+        !scheduler.queue.any { it.id in ["forecasts:#due", "forecasts:#soon"] }
+    }
+
+    def "conditions that come due soon are not brought forward"() {
+        setup:
+        scheduler.sync(configData([entry("#due", "KAAA"), entry("#soon", "KBBB")]))
+        long now = System.currentTimeMillis()
+        scheduler.updates.keySet().each { setDue(it, now + 100 * MINUTE) }
+        setDue("conditions:#due", now - 1000)
+        setDue("conditions:#soon", now + MINUTE)
+
+        when:
+        def batch = scheduler.takeDueUpdates()
+
+        then:
+        batch.collect { it.id } == ["conditions:#due"]
+    }
+
+    def "the scheduler keeps running after an error"() {
+        setup:
+        // the configuration can't be read outside the server, so the first sync fails
+        def thread = new Thread(scheduler)
+        thread.daemon = true
+
+        when:
+        thread.start()
+        thread.join(500)
+
+        then:
+        thread.alive
+
+        when:
+        thread.interrupt()
+        thread.join(5000)
+
+        then:
+        !thread.alive
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.config.ConfigData
+import com.controlj.addon.weather.config.WeatherConfigEntry
+import com.controlj.addon.weather.data.ConditionsField
+import com.controlj.addon.weather.data.ConditionsSource
+import com.controlj.addon.weather.data.StationSource
+import com.controlj.addon.weather.service.WeatherServiceException
+import com.controlj.addon.weather.service.WeatherServices
+import com.controlj.green.addonsupport.access.SystemConnection
+import com.controlj.green.addonsupport.access.Location
+import com.controlj.green.addonsupport.access.aspect.PresentValue
+
+class WeatherLookupTest extends Specification {
+    def configData = new ConfigData([:] as SystemConnection, WeatherServices.wbug)
+
+    def entry(String cpPath) {
+        def station = new StationSource()
+        station.setId("KXYZ")
+        return new WeatherConfigEntry(cpPath, station, [:])
+    }
+
+    def handler(String cpPath, List<String> referenceNames) {
+        def presentValues = referenceNames.collect { String name ->
+            Location location = [getReferenceName: { name }] as Location
+            [getLocation: { location }] as PresentValue
+        }
+        return new EquipmentHandler(configData, cpPath, EquipmentBindingPlan.build(presentValues, System.currentTimeMillis()))
+    }
+
+    /**
+     * The update time of a source is set when it is created (getUpdateTime is final, so it can't be stubbed).
+     */
+    static void setUpdateTime(ConditionsSource source, Date updateTime) {
+        def field = ConditionsSource.getDeclaredField("updateTime")
+        field.accessible = true
+        field.set(source, updateTime)
+    }
+
+    /**
+     * Returns a coalescer that already has the given result (or failure) for the entry's station, so nothing is
+     * read from the weather service.
+     */
+    def coalescer(WeatherConfigEntry entry, String dataKind, Object result) {
+        def coalescer = new FetchCoalescer()
+        def key = new FetchCoalescer.Key(dataKind, configData.getWeatherServiceEnum(), entry.getStationSource().getId(),
+                configData.getServiceConfigData())
+        coalescer.reserve([key])
+        if (result instanceof WeatherServiceException)
+            coalescer.fail(key, result)
+        else
+            coalescer.complete(key, result)
+        return coalescer
+    }
+
+    def "partial data read for equipment doesn't replace the data the view pages use"() {
+        setup:
+        def entry = entry("#partial_then_view")
+        def observationTime = new Date()
+        ConditionsSource full = Mock()
+        setUpdateTime(full, new Date(observationTime.time - 60000))
+        ConditionsSource partial = Mock()
+        partial.isPartial() >> true
+        partial.getObservationTime() >> observationTime
+        RuntimeInformation.getSingleton().updateConditionsData(entry, full, null)
+        RuntimeInformation.getSingleton().setObservationWritten(entry, observationTime)
+        def coalescer = coalescer(entry, "partial conditions " + EnumSet.of(ConditionsField.temperature), partial)
+
+        when:
+        def scheduled = new WeatherLookup(configData, null, coalescer).lookupConditionsData(entry, true, handler(entry.getCpPath(), ["wc_temperature"]))
+        def viewed = new WeatherLookup(configData).lookupConditionsData(entry, false)
+
+        then:
+        scheduled.is(partial)
+        viewed.is(full)
+        RuntimeInformation.getSingleton().getLastConditionsData(entry, EnumSet.of(ConditionsField.temperature)).is(partial)
+
+        cleanup:
+        RuntimeInformation.getSingleton().retain([])
+    }
+
+    def "a failed partial read doesn't drop the data the view pages use"() {
+        setup:
+        def entry = entry("#partial_failed")
+        ConditionsSource full = Mock()
+        RuntimeInformation.getSingleton().updateConditionsData(entry, full, null)
+        def coalescer = coalescer(entry, "partial conditions " + EnumSet.of(ConditionsField.temperature),
+                new WeatherServiceException("Service unavailable"))
+
+        when:
+        new WeatherLookup(configData, null, coalescer).lookupConditionsData(entry, true, handler(entry.getCpPath(), ["wc_temperature"]))
+
+        then:
+        thrown(WeatherServiceException)
+        RuntimeInformation.getSingleton().getLastConditionsData(entry).is(full)
+        RuntimeInformation.getSingleton().getLastConditionsError(entry) == "Error reading data"
+
+        cleanup:
+        RuntimeInformation.getSingleton().retain([])
+    }
+
+    def "partial data is only reused for the fields it was read for"() {
+        setup:
+        def entry = entry("#partial_fields")
+        def observationTime = new Date()
+        ConditionsSource partial = Mock()
+        partial.isPartial() >> true
+        ConditionsSource full = Mock()
+        full.getObservationTime() >> observationTime
+        RuntimeInformation.getSingleton().updatePartialConditionsData(entry, partial, EnumSet.of(ConditionsField.temperature), null)
+        RuntimeInformation.getSingleton().setObservationWritten(entry, observationTime)
+        def coalescer = coalescer(entry, "conditions", full)
+
+        when:
+        def sameFields = new WeatherLookup(configData, null, coalescer).lookupConditionsData(entry, false, handler(entry.getCpPath(), ["wc_temperature"]))
+        def moreFields = new WeatherLookup(configData, null, coalescer).lookupConditionsData(entry, false, handler(entry.getCpPath(), ["wc_temperature", "wc_humidity"]))
+
+        then:
+        sameFields.is(partial)
+        moreFields.is(full)
+
+        cleanup:
+        RuntimeInformation.getSingleton().retain([])
+    }
+}
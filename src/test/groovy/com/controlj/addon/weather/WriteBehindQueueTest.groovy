@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather
+
+import spock.lang.Specification
+import com.controlj.addon.weather.config.ConfigData
+import com.controlj.addon.weather.data.ConditionsSource
+import com.controlj.addon.weather.data.ForecastSource
+import com.controlj.addon.weather.data.StationSource
+import com.controlj.addon.weather.service.WeatherServices
+import com.controlj.green.addonsupport.access.SystemConnection
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class WriteBehindQueueTest extends Specification {
+    def configData = new ConfigData([:] as SystemConnection, WeatherServices.wbug)
+    def events = Collections.synchronizedList([])
+    def release = new CountDownLatch(1)
+    WriteBehindQueue queue
+
+    def cleanup() {
+        release.countDown()
+        queue?.shutdown()
+    }
+
+    /**
+     * Records the writes it is asked to make.  A write to "#busy" waits until the test releases it, which holds up
+     * the drain thread that took it.
+     */
+    class StubHandler extends EquipmentHandler {
+        boolean failWrite
+
+        StubHandler(ConfigData configData, String path) {
+            super(configData, path, EquipmentBindingPlan.build([], 0))
+        }
+
+        @Override
+        void writeData(StationSource stationSource, ConditionsSource conditionsSource, ForecastSource[] forecastSources) {
+            events << "start " + path + " " + conditionsSource
+            if (path.startsWith("#busy"))
+                release.await(5, TimeUnit.SECONDS)
+            events << "end " + path + " " + conditionsSource
+            if (failWrite)
+                throw new EquipmentWriteException("Failed")
+        }
+
+        @Override
+        List<EquipmentHandler.PendingWrite> getWrites(StationSource stationSource, ConditionsSource conditionsSource, ForecastSource[] forecastSources) {
+            events << "gather " + path
+            return []
+        }
+
+        @Override
+        void writeGroup(List<EquipmentHandler.PendingWrite> writes, String description) {
+            events << "group"
+            throw new EquipmentWriteException("Group failed")
+        }
+    }
+
+    StubHandler handler(String path) {
+        return new StubHandler(configData, path)
+    }
+
+    ConditionsSource conditions(String name) {
+        return [toString: { name }] as ConditionsSource
+    }
+
+    /**
+     * Returns a completion that records its outcome and counts down the given latch.
+     */
+    def completion(String name, Map outcomes, CountDownLatch done) {
+        return { EquipmentWriteException e ->
+            outcomes[name] = e
+            done.countDown()
+        } as WriteBehindQueue.Completion
+    }
+
+    /**
+     * Submits a write that holds up a drain thread until the test releases it, and waits until it has started.
+     */
+    def holdDrainThread(String path = "#busy") {
+        queue.submit(handler(path), null, conditions("held"), null, null)
+        def deadline = System.currentTimeMillis() + 5000
+        while (!events.contains("start " + path + " held") && System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+    }
+
+    def "data submitted for a control program that is still waiting replaces the data waiting"() {
+        setup:
+        queue = new WriteBehindQueue(10, 1)
+        def outcomes = [:]
+        def done = new CountDownLatch(1)
+        holdDrainThread()
+
+        when:
+        queue.submit(handler("#ahu1"), null, conditions("old"), null, completion("old", outcomes, done))
+        queue.submit(handler("#ahu1"), null, conditions("new"), null, completion("new", outcomes, done))
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        then:
+        queue.coalescedCount == 1
+        events.findAll { it.startsWith("start #ahu1") } == ["start #ahu1 new"]
+        outcomes.keySet() == ["new"] as Set
+        outcomes["new"] == null
+    }
+
+    def "submitting for another control program waits while the queue is full"() {
+        setup:
+        queue = new WriteBehindQueue(1, 1)
+        def outcomes = [:]
+        def done = new CountDownLatch(2)
+        holdDrainThread()
+        queue.submit(handler("#ahu1"), null, conditions("first"), null, completion("first", outcomes, done))
+
+        when:
+        def submitter = Thread.start {
+            queue.submit(handler("#ahu2"), null, conditions("second"), null, completion("second", outcomes, done))
+        }
+        submitter.join(200)
+
+        then:
+        submitter.alive
+        queue.blockedCount == 1
+        queue.depth == 1
+
+        when:
+        release.countDown()
+        submitter.join(5000)
+        done.await(5, TimeUnit.SECONDS)
+
+        then:
+        !submitter.alive
+        outcomes == [first: null, second: null]
+    }
+
+    def "data for a control program being written waits for that write"() {
+        setup:
+        queue = new WriteBehindQueue(10, 2)
+        def outcomes = [:]
+        def done = new CountDownLatch(1)
+        holdDrainThread("#busy1")
+
+        when:
+        queue.submit(handler("#busy1"), null, conditions("next"), null, completion("next", outcomes, done))
+        Thread.sleep(200)
+
+        then: "the idle drain thread doesn't take it"
+        !events.contains("start #busy1 next")
+        queue.depth == 1
+
+        when:
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        then:
+        events.findAll { it.startsWith("start #busy1") || it.startsWith("end #busy1") } ==
+                ["start #busy1 held", "end #busy1 held", "start #busy1 next", "end #busy1 next"]
+        outcomes == [next: null]
+    }
+
+    def "if a grouped write fails each control program is written on its own"() {
+        setup:
+        configData.setGroupWrites(true)
+        queue = new WriteBehindQueue(10, 1)
+        def outcomes = [:]
+        def done = new CountDownLatch(2)
+        holdDrainThread()
+        def failing = handler("#ahu2")
+        failing.failWrite = true
+
+        when:
+        queue.submit(handler("#ahu1"), null, conditions("a"), null, completion("a", outcomes, done))
+        queue.submit(failing, null, conditions("b"), null, completion("b", outcomes, done))
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        then:
+        events.findAll { !it.contains("held") } ==
+                ["gather #ahu1", "gather #ahu2", "group", "start #ahu1 a", "end #ahu1 a", "start #ahu2 b", "end #ahu2 b"]
+        outcomes["a"] == null
+        outcomes["b"] instanceof EquipmentWriteException
+    }
+
+    def "data still waiting at shutdown is reported as not written"() {
+        setup:
+        queue = new WriteBehindQueue(10, 1)
+        def outcomes = [:]
+        def done = new CountDownLatch(1)
+        holdDrainThread()
+        queue.submit(handler("#ahu1"), null, conditions("waiting"), null, completion("waiting", outcomes, done))
+
+        when:
+        queue.shutdown()
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        outcomes["waiting"] instanceof EquipmentWriteException
+        queue.depth == 0
+        !events.contains("start #ahu1 waiting")
+    }
+}
@@ -161,5 +161,115 @@ public class ConfigDataTest extends Specification
             props['service'] == 'wbug'
     }
 
+    def "test load of entry refresh rates"() {
+        given:
+            String propData = writeProperties(['version':'2', 'entryCount':'2',
+                    'entry1.cpPath':'#ahu1', 'entry1.station.id':'KATL', 'entry1.conditionsRefreshInMinutes':'15',
+                    'entry2.cpPath':'#ahu2', 'entry2.station.id':'KATL'])
+            def data = new ConfigData(mockSystemConnection(propData));
+            data.load()
+
+        expect:
+            data.list[0].conditionsRefreshInMinutes == 15
+            data.list[0].forecastsRefreshInMinutes == 0
+            data.list[1].conditionsRefreshInMinutes == 0
+    }
+
+    def "test save replaces the snapshot"() {
+        given:
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream()
+            def data = new ConfigData(mockSystemConnection(outputStream));
+            data.conditionsRefreshInMinutes = 30
+            long before = ConfigDataFactory.getVersion()
+            data.save()
+            def loaded = new ConfigData(Mock(SystemConnection))
+            loaded.load(ConfigDataFactory.getSnapshot(Mock(SystemConnection)))
+
+        expect:
+            ConfigDataFactory.getVersion() > before
+            data.version == ConfigDataFactory.getVersion()
+            loaded.version == data.version
+            loaded.conditionsRefreshInMinutes == 30
+    }
+
+    def "test failed save drops the snapshot"() {
+        given:
+            SystemConnection sysConn = Mock()
+            sysConn.runWriteAction(_, _) >> { throw new IOException("no datastore") }
+            long before = ConfigDataFactory.getVersion()
+
+        when:
+            new ConfigData(sysConn).save()
+
+        then:
+            thrown(IOException)
+            ConfigDataFactory.getVersion() > before
+            ConfigDataFactory.snapshot == null
+    }
+
+    def "test shared config data is kept until the next save"() {
+        given:
+            def data = new ConfigData(mockSystemConnection(new ByteArrayOutputStream()))
+            data.conditionsRefreshInMinutes = 30
+            data.save()
+
+        when:
+            def first = ConfigDataFactory.getSharedConfigData(Mock(SystemConnection))
+            def second = ConfigDataFactory.getSharedConfigData(Mock(SystemConnection))
+
+        then:
+            first.is(second)
+            first.conditionsRefreshInMinutes == 30
 
-}
\ No newline at end of file
+        when:
+            data.conditionsRefreshInMinutes = 45
+            data.save()
+            def afterSave = ConfigDataFactory.getSharedConfigData(Mock(SystemConnection))
+
+        then:
+            !afterSave.is(first)
+            afterSave.conditionsRefreshInMinutes == 45
+            afterSave.version == data.version
+    }
+
+    def "test load of deadbands and write grouping"() {
+        given:
+            String propData = writeProperties(['version':'2', 'groupWrites':'true',
+                    'deadband.wc_temperature':'0.5', 'deadband.wfN_highestTemperature':'1'])
+            def data = new ConfigData(mockSystemConnection(propData));
+            data.load()
+
+        expect:
+            data.groupWrites
+            data.getDeadband('wc_temperature') == 0.5f
+            data.getDeadband('wfN_highestTemperature') == 1f
+            data.getDeadband('wc_humidity') == 0f
+    }
+
+    def "test store of deadbands"() {
+        given:
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream()
+            def data = new ConfigData(mockSystemConnection(outputStream));
+            data.setDeadband('wc_temperature', 0.5f)
+            data.setDeadband('wc_humidity', 0f)
+            data.save()
+            def props = readProperties(outputStream.toString())
+
+        expect:
+            props['deadband.wc_temperature'] == '0.5'
+            !props.containsKey('deadband.wc_humidity')
+            !props.containsKey('groupWrites')
+    }
+
+    def "test load of max stale minutes"() {
+        given:
+            def data = new ConfigData(mockSystemConnection(writeProperties(['version':'2'])));
+            data.load()
+            def configured = new ConfigData(mockSystemConnection(writeProperties(['version':'2', 'maxStaleMinutes':'0'])));
+            configured.load()
+
+        expect:
+            data.maxStaleMinutes == 60
+            configured.maxStaleMinutes == 0
+    }
+}
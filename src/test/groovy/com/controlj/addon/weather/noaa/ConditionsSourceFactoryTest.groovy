@@ -24,6 +24,8 @@ package com.controlj.addon.weather.noaa
 import spock.lang.Specification
 import static org.hamcrest.Matchers.closeTo
 import com.controlj.addon.weather.data.WeatherIcon
+import org.xml.sax.InputSource
+import org.xml.sax.SAXException
 
 @Mixin(NOAAUtilities)
 class ConditionsSourceFactoryTest extends Specification
@@ -129,4 +131,59 @@ class ConditionsSourceFactoryTest extends Specification
       expect:
          source.icon == WeatherIcon.ClearSky
    }
+
+   def "test missing elements"()
+   {
+      given:
+         def document = getTestDocument(GOODCURRENTOBS)
+         ["temp_f", "observation_time_rfc822", "icon_url_name"].each {
+            document.rootElement.remove(document.rootElement.element(it))
+         }
+         def source = factory.createSourceFromDocument(document, false)
+      expect:
+         source.temperature == null
+         source.observationTime == null
+         source.icon == WeatherIcon.Unknown
+         source.currentCondition == "Fair"
+   }
+
+   def "test reading straight from the response"()
+   {
+      when:
+         def streamed = factory.getReader(false).read(new InputSource(NOAAUtilities.class.getResourceAsStream(GOODCURRENTOBS)))
+         def parsed = factory.createSourceFromDocument(getTestDocument(GOODCURRENTOBS), false)
+      then:
+         streamed.temperature == parsed.temperature
+         streamed.humidity == parsed.humidity
+         streamed.pressure == parsed.pressure
+         streamed.currentCondition == parsed.currentCondition
+         streamed.windDirection == parsed.windDirection
+         streamed.observationTime == parsed.observationTime
+         streamed.icon == parsed.icon
+   }
+
+   def "test reading a response that isn't XML"()
+   {
+      when:
+         factory.getReader(false).read(new InputSource(new StringReader("<html>Service unavailable")))
+      then:
+         IOException e = thrown()
+         e.cause instanceof SAXException
+   }
+
+   def "test shared between threads"()
+   {
+      given:
+         def documents = (1..8).collect { [getTestDocument(GOODCURRENTOBS), getTestDocument("nightcurrentobs.xml")] }.flatten()
+         def expected = documents.collect { factory.createSourceFromDocument(it, false).observationTime }
+         def results = Collections.synchronizedList([])
+      when:
+         def threads = documents.collect { document ->
+            Thread.start { 50.times { results << [document, factory.createSourceFromDocument(document, false).observationTime] } }
+         }
+         threads*.join()
+      then:
+         results.size() == documents.size() * 50
+         results.every { it[1] == expected[documents.indexOf(it[0])] }
+   }
 }
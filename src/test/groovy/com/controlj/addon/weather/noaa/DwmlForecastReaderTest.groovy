@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa
+
+import spock.lang.Specification
+import spock.lang.Unroll
+import org.dom4j.Document
+import org.dom4j.Element
+import org.xml.sax.InputSource
+
+@Mixin(NOAAUtilities)
+class DwmlForecastReaderTest extends Specification {
+
+    /**
+     * Builds a two point response from the single point test forecast, where point2 has the highs of point1
+     * raised by 10 degrees.
+     */
+    Document getTwoPointForecast() {
+        Document document = getTestDocument(GOODFORECAST)
+        Element data = document.rootElement.element("data")
+
+        Element location = data.element("location").createCopy()
+        location.element("location-key").text = "point2"
+        data.elements().add(data.elements().indexOf(data.element("location")) + 1, location)
+
+        Element parameters = data.element("parameters").createCopy()
+        parameters.addAttribute("applicable-location", "point2")
+        parameters.selectNodes("temperature[@type='maximum']/value").each { Element value ->
+            value.text = Integer.toString(Integer.parseInt(value.textTrim) + 10)
+        }
+        data.add(parameters)
+        return document
+    }
+
+    def toObject(float value) {
+        Float.isNaN(value) ? null : new Float(value)
+    }
+
+    @Unroll("reader matches ForecastSourceFactory for #filename")
+    def "reader matches ForecastSourceFactory"() {
+        when:
+            ForecastSourceFactory reference = new ForecastSourceFactory(false, getTestDocument(filename))
+            DwmlForecast forecast = DwmlForecastReader.read(getTestDocument(filename), false).forecast
+            int days = forecast.numberForecastedDays
+        then:
+            days == reference.numberForecastedDays
+            (0..<days).collect { forecast.getDate(it) == DwmlForecast.NO_DATE ? null : new Date(forecast.getDate(it)) } == reference.dates
+            (0..<days).collect { toObject(forecast.getHigh(it)) } == reference.highs
+            (0..<days).collect { toObject(forecast.getLow(it)) } == reference.lows
+            (0..<forecast.numberPrecipDays).collect { toObject(forecast.getProbPrecip(it)) } == reference.probPrecip
+            (0..<days).collect { forecast.getDescription(it) } == reference.descriptions
+            (0..<days).collect { forecast.getIcon(it) } == reference.icons
+
+        where:
+            filename << [GOODFORECAST, BADDATEFORECAST, MISSINGDESCFORECAST, "nightforecast.xml"]
+    }
+
+    def "precipitation is the max of the two 12 hour periods"() {
+        when:
+            DwmlForecast forecast = DwmlForecastReader.read(getTestDocument(GOODFORECAST), false).forecast
+        then:
+            (0..<forecast.numberPrecipDays).collect { toObject(forecast.getProbPrecip(it)) } == [0, 0, 12, 23, 11, 10, null].collect { it != null ? new Float(it) : null }
+            forecast.getForecast(6).probPrecipitation == null
+            forecast.getForecast(3).probPrecipitation == 23
+    }
+
+    def "forecasts match ForecastSourceFactory"() {
+        when:
+            ForecastSourceFactory reference = new ForecastSourceFactory(true, getTestDocument(GOODFORECAST))
+            DwmlForecast forecast = DwmlForecastReader.read(getTestDocument(GOODFORECAST), true).forecast
+        then:
+            (0..<7).every {
+                def expected = reference.getForecast(it)
+                def actual = forecast.getForecast(it)
+                actual.title == expected.title && actual.highestTemperature == expected.highestTemperature &&
+                actual.lowestTemperature == expected.lowestTemperature && actual.prediction == expected.prediction &&
+                actual.probPrecipitation == expected.probPrecipitation && actual.icon == expected.icon &&
+                actual.highestTemperatureUnits == expected.highestTemperatureUnits
+            }
+    }
+
+    def "reading from a stream matches reading the document"() {
+        when:
+            DwmlForecast fromStream = DwmlForecastReader.read(new InputSource(NOAAUtilities.class.getResourceAsStream(GOODFORECAST)), false).forecast
+            DwmlForecast fromDocument = DwmlForecastReader.read(getTestDocument(GOODFORECAST), false).forecast
+        then:
+            fromStream.numberForecastedDays == 7
+            (0..<7).every {
+                fromStream.getDate(it) == fromDocument.getDate(it) && fromStream.getHigh(it) == fromDocument.getHigh(it) &&
+                fromStream.getDescription(it) == fromDocument.getDescription(it) && fromStream.getIcon(it) == fromDocument.getIcon(it)
+            }
+    }
+
+    def "multiple points are kept apart"() {
+        when:
+            DwmlForecastReader reader = DwmlForecastReader.read(twoPointForecast, false)
+            DwmlForecast first = reader.getForecast("point1")
+            DwmlForecast second = reader.getForecast("point2")
+        then:
+            reader.locationKeys == ["point1", "point2"]
+            (0..<7).collect { first.getHigh(it) } == [61, 67, 65, 61, 63, 67, 68].collect { it as float }
+            (0..<7).collect { second.getHigh(it) } == [71, 77, 75, 71, 73, 77, 78].collect { it as float }
+            (0..<7).collect { second.getDate(it) } == (0..<7).collect { first.getDate(it) }
+            reader.getForecast("point3") == null
+    }
+
+    def "document without forecast parameters"() {
+        when:
+            Document document = getTestDocument(GOODFORECAST)
+            document.rootElement.element("data").remove(document.rootElement.element("data").element("parameters"))
+            DwmlForecastReader reader = DwmlForecastReader.read(document, false)
+        then:
+            reader.locationKeys.isEmpty()
+            reader.forecast.numberForecastedDays == 0
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa
+
+import spock.lang.Specification
+@Mixin(NOAAUtilities)
+
+class StationCatalogTest extends Specification {
+    def "Saved station list reads back the same"() {
+        setup:
+            File file = File.createTempFile("stations", ".dat")
+            StationIndex index = StationIndex.fromDocument(getTestDocument(STATIONS))
+            StationCatalog.writeFile(file, new StationCatalog.Snapshot(index, 1234L))
+
+        when:
+            StationCatalog.Snapshot snapshot = StationCatalog.readFile(file)
+
+        then:
+            snapshot.fetched == 1234L
+            snapshot.index.size() == index.size()
+            (0..<index.size()).every {
+                snapshot.index.getId(it) == index.getId(it) &&
+                snapshot.index.getName(it) == index.getName(it) &&
+                snapshot.index.getLatitude(it) == index.getLatitude(it) &&
+                snapshot.index.getLongitude(it) == index.getLongitude(it)
+            }
+            snapshot.index.getId(snapshot.index.findNearest(34.02f, -84.62f)) == "KRYY"
+
+        cleanup:
+            file.delete()
+    }
+
+    def "Stations without a name read back without a name"() {
+        setup:
+            File file = File.createTempFile("stations", ".dat")
+            StationIndex index = new StationIndex(["KAAA", "KBBB"] as String[], [null, "Bravo"] as String[],
+                                                  [33.0f, 34.0f] as float[], [-84.0f, -85.0f] as float[])
+            StationCatalog.writeFile(file, new StationCatalog.Snapshot(index, 1234L))
+
+        when:
+            StationCatalog.Snapshot snapshot = StationCatalog.readFile(file)
+
+        then:
+            snapshot.index.getName(0) == null
+            snapshot.index.getName(1) == "Bravo"
+            snapshot.index.getId(0) == "KAAA"
+
+        cleanup:
+            file.delete()
+    }
+
+    def "Unreadable station list is ignored"() {
+        setup:
+            File file = File.createTempFile("stations", ".dat")
+            file.bytes = contents as byte[]
+
+        expect:
+            StationCatalog.readFile(file) == null
+
+        cleanup:
+            file.delete()
+
+        where:
+        contents << [[], [1, 2, 3, 4, 5, 6, 7, 8], [0x4e, 0x57, 0x53, 0x53, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 9]]
+    }
+}
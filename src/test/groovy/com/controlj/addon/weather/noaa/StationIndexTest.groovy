@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.noaa
+
+import spock.lang.Specification
+import org.dom4j.Document
+@Mixin(NOAAUtilities)
+
+class StationIndexTest extends Specification {
+    def "Find nearest station"() {
+        setup:
+            StationIndex index = StationIndex.fromDocument(getTestDocument(STATIONS))
+
+        expect:
+            index.getId(index.findNearest(latitude, longitude)) == station
+
+        where:
+        latitude | longitude | station
+        34.02    | -84.62    | "KRYY"      // 30144 -> McCullum Field
+        33.745   | -84.390   | "KATL"      // Downtown atlanta -> Hartsfield
+        29.670   | -95.241   | "KHOU"      // Southeast Houston -> Houston Hobby
+    }
+
+    def "Nearest stations match a full scan"() {
+        setup:
+            Document stations = getTestDocument(STATIONS)
+            StationIndex index = StationIndex.fromDocument(stations)
+
+        expect:
+            index.findNearest(latitude, longitude, 5).collect { index.getId(it) } == scanNearest(index, latitude, longitude, 5)
+
+        where:
+        latitude | longitude
+        34.02    | -84.62
+        47.6     | -122.3
+        64.8     | -147.7
+        21.3     | -157.8
+        18.4     | -66.0
+        -14.3    | -170.7
+    }
+
+    def "Find station by id"() {
+        setup:
+            StationIndex index = StationIndex.fromDocument(getTestDocument(STATIONS))
+
+        expect:
+            index.getStationSource(index.indexOf(id)).getName() == name
+            index.indexOf("NOPE") == -1
+
+        where:
+        id     | name
+        "KRYY" | "Marietta, Cobb County-McCollum Field Airport"
+        "KATL" | "Hartsfield-Jackson/Atlanta International Airport"
+        "KTMH" | "Twenty Mile Hill"
+    }
+
+    def "Empty index has no nearest station"() {
+        setup:
+            StationIndex index = new StationIndex(new String[0], new String[0], new float[0], new float[0])
+
+        expect:
+            index.findNearest(34.02f, -84.62f) == -1
+            index.findNearest(34.02f, -84.62f, 3).length == 0
+    }
+
+    def scanNearest(StationIndex index, float latitude, float longitude, int count) {
+        (0..<index.size()).toList().sort { index.getDistanceTo(it, latitude, longitude, false) }.take(count).collect { index.getId(it) }
+    }
+}
@@ -24,6 +24,8 @@ package com.controlj.addon.weather.noaa
 
 import spock.lang.Specification
 import org.dom4j.Document
+import org.dom4j.DocumentHelper
+import com.controlj.addon.weather.service.InvalidConfigurationDataException
 @Mixin(NOAAUtilities)
 
 class StationSourceFactoryTest extends Specification {
@@ -32,10 +34,10 @@ class StationSourceFactoryTest extends Specification {
     def "Find Closest Weather Station ID"() {
         setup:
             Document stations = getTestDocument(STATIONS)
-            service = new StationSourceFactory(Mock(Document));
+            service = new StationSourceFactory(latLongDocument(latitude, longitude));
 
         expect:
-            service.findClosestWeatherStationID(stations, latitude, longitude) == station
+            service.findClosestWeatherStation(stations).getId() == station
 
         where:
         latitude | longitude | station
@@ -47,16 +49,29 @@ class StationSourceFactoryTest extends Specification {
     def "Find Station"() {
         setup:
             Document stations = getTestDocument(STATIONS)
-            service = new StationSourceFactory(Mock(Document));
+            service = new StationSourceFactory(latLongDocument(latitude, longitude));
 
         expect:
-            service.getStationSource(stations, id).getName()== name
+            service.findClosestWeatherStation(stations).getName() == name
 
         where:
-        id     | name
-        "KRYY" | "Marietta, Cobb County-McCollum Field Airport"
-        "KATL" | "Hartsfield-Jackson/Atlanta International Airport"
-        "KTMH" | "Twenty Mile Hill"
+        latitude | longitude | name
+        34.02    | -84.62    | "Marietta, Cobb County-McCollum Field Airport"
+        33.745   | -84.390   | "Hartsfield-Jackson/Atlanta International Airport"
     }
 
+    def "Unreadable location is a configuration error"() {
+        setup:
+            service = new StationSourceFactory(DocumentHelper.parseText("<dwml><latLonList>nowhere</latLonList></dwml>"));
+
+        when:
+            service.findClosestWeatherStation(getTestDocument(STATIONS))
+
+        then:
+            thrown(InvalidConfigurationDataException)
+    }
+
+    def latLongDocument(def latitude, def longitude) {
+        DocumentHelper.parseText("<dwml><latLonList>${latitude},${longitude}</latLonList></dwml>")
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.service
+
+import spock.lang.Specification
+import com.controlj.addon.weather.util.HTTPHelper
+
+class WeatherServiceRegistryTest extends Specification {
+    def created = []
+    def registry = new WeatherServiceRegistry(new WeatherServiceFactory() {
+        WeatherService getService(WeatherServices service, HTTPHelper httpHelper) {
+            def result = [toString: { service.name() }] as WeatherService
+            created << result
+            result
+        }
+    })
+
+    def "one instance per service"() {
+        when:
+        def nws1 = registry.getService(WeatherServices.nws)
+        def nws2 = registry.getService(WeatherServices.nws)
+        def wbug = registry.getService(WeatherServices.wbug)
+
+        then:
+        nws1.is(nws2)
+        !nws1.is(wbug)
+        created.size() == 2
+    }
+
+    def "throttle is kept until the limits change"() {
+        when:
+        def first = registry.getThrottle(WeatherServices.nws, 4, 250)
+        def same = registry.getThrottle(WeatherServices.nws, 4, 250)
+        def other = registry.getThrottle(WeatherServices.wbug, 4, 250)
+        def changed = registry.getThrottle(WeatherServices.nws, 2, 250)
+
+        then:
+        first.is(same)
+        !first.is(other)
+        !first.is(changed)
+        changed.maxConcurrent == 2
+    }
+
+    def "services are created again after shutdown"() {
+        when:
+        def before = registry.getService(WeatherServices.nws)
+        registry.shutdown()
+        def after = registry.getService(WeatherServices.nws)
+
+        then:
+        !before.is(after)
+        created.size() == 2
+    }
+
+    def "the HTTP helper is shared until shutdown"() {
+        when:
+        def first = registry.getHTTPHelper()
+        def same = registry.getHTTPHelper()
+        registry.shutdown()
+        def after = registry.getHTTPHelper()
+
+        then:
+        first.is(same)
+        !first.is(after)
+
+        cleanup:
+        registry.shutdown()
+    }
+
+    def "peeking at the HTTP helper doesn't create one"() {
+        expect:
+        registry.peekHTTPHelper() == null
+
+        when:
+        def helper = registry.getHTTPHelper()
+
+        then:
+        registry.peekHTTPHelper().is(helper)
+
+        when:
+        registry.shutdown()
+
+        then:
+        registry.peekHTTPHelper() == null
+    }
+}
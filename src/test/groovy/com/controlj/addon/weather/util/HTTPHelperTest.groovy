@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.util
+
+import spock.lang.Specification
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import java.util.zip.GZIPOutputStream
+import javax.xml.parsers.SAXParserFactory
+import org.xml.sax.Attributes
+import org.xml.sax.InputSource
+import org.xml.sax.SAXException
+import org.xml.sax.helpers.DefaultHandler
+
+class HTTPHelperTest extends Specification {
+    HTTPHelper helper = new HTTPHelper()
+    HttpServer server
+    List<HttpExchange> requests = []
+    List<Long> requestTimes = []
+    List<Closure> responses = []
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/", { HttpExchange exchange ->
+            requests << exchange
+            requestTimes << System.currentTimeMillis()
+            def respond = responses.size() > 1 ? responses.remove(0) : responses[0]
+            respond(exchange)
+            exchange.close()
+        } as HttpHandler)
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop(0)
+        helper.shutdown()
+    }
+
+    def read(String path, RequestPolicy policy = RequestPolicy.DEFAULT, RetryBudget retryBudget = null) {
+        helper.readDocument(policy, retryBudget, "http", "localhost", server.address.port, path, null)
+    }
+
+    /**
+     * Returns a policy that allows the given number of retries, starting 100ms apart, within the given time.
+     */
+    static RequestPolicy retries(int maxRetries, int requestTimeoutMillis) {
+        new RequestPolicy(1000, 1000, requestTimeoutMillis, maxRetries).withRetryDelayMillis(100)
+    }
+
+    /**
+     * Returns a response of the given status with the given headers and body.
+     */
+    static Closure response(int status, Map<String, String> headers, byte[] body) {
+        return { HttpExchange exchange ->
+            headers.each { name, value -> exchange.responseHeaders.add(name, value) }
+            exchange.sendResponseHeaders(status, body == null ? -1 : body.length)
+            if (body != null)
+                exchange.responseBody.write(body)
+        }
+    }
+
+    static Closure xml(Map<String, String> headers, String text) {
+        return response(200, headers + ["Content-Type": "text/xml; charset=UTF-8"], text.getBytes("UTF-8"))
+    }
+
+    static Closure notModifiedIfMatching(String etag, Closure otherwise) {
+        return { HttpExchange exchange ->
+            if (exchange.requestHeaders.getFirst("If-None-Match") == etag)
+                response(304, [:], null)(exchange)
+            else
+                otherwise(exchange)
+        }
+    }
+
+    def "a repeated request is conditional and answered from the cache when not modified"() {
+        setup:
+        responses << xml([ETag: '"v1"'], "<weather><temp>72</temp></weather>")
+        responses << notModifiedIfMatching('"v1"', xml([:], "<weather><temp>0</temp></weather>"))
+
+        when:
+        def first = read("/etag")
+        def second = read("/etag")
+
+        then:
+        first.rootElement.elementText("temp") == "72"
+        second.rootElement.elementText("temp") == "72"
+        requests[0].requestHeaders.getFirst("If-None-Match") == null
+        requests[1].requestHeaders.getFirst("If-None-Match") == '"v1"'
+        helper.requestCount == 2
+        helper.notModifiedCount == 1
+    }
+
+    def "Last-Modified is sent back as If-Modified-Since"() {
+        setup:
+        responses << xml(["Last-Modified": "Tue, 01 Nov 2011 15:55:00 GMT"], "<weather/>")
+
+        when:
+        read("/lastmodified")
+        read("/lastmodified")
+
+        then:
+        requests[1].requestHeaders.getFirst("If-Modified-Since") == "Tue, 01 Nov 2011 15:55:00 GMT"
+    }
+
+    def "responses without a validator are not kept"() {
+        setup:
+        responses << xml([:], "<weather/>")
+
+        when:
+        read("/novalidator")
+        read("/novalidator")
+
+        then:
+        requests[1].requestHeaders.getFirst("If-None-Match") == null
+        requests[1].requestHeaders.getFirst("If-Modified-Since") == null
+    }
+
+    def "large responses are not kept"() {
+        setup:
+        responses << xml([ETag: '"big"'], "<weather>" + ("<temp>72</temp>" * 20000) + "</weather>")
+
+        when:
+        def first = read("/large")
+        read("/large")
+
+        then:
+        first.rootElement.elements("temp").size() == 20000
+        requests[1].requestHeaders.getFirst("If-None-Match") == null
+    }
+
+    def "a changed response replaces the kept one"() {
+        setup:
+        responses << xml([ETag: '"v1"'], "<weather><temp>72</temp></weather>")
+        responses << xml([ETag: '"v2"'], "<weather><temp>75</temp></weather>")
+        responses << notModifiedIfMatching('"v2"', xml([:], "<weather><temp>0</temp></weather>"))
+
+        when:
+        read("/changed")
+        def changed = read("/changed")
+        def cached = read("/changed")
+
+        then:
+        changed.rootElement.elementText("temp") == "75"
+        cached.rootElement.elementText("temp") == "75"
+        requests[2].requestHeaders.getFirst("If-None-Match") == '"v2"'
+    }
+
+    def "gzip compressed responses are decoded"() {
+        setup:
+        def compressed = new ByteArrayOutputStream()
+        def out = new GZIPOutputStream(compressed)
+        out.write("<weather><temp>72</temp></weather>".getBytes("UTF-8"))
+        out.close()
+        responses << response(200, ["Content-Type": "text/xml", "Content-Encoding": "gzip"], compressed.toByteArray())
+
+        when:
+        def document = read("/gzip")
+
+        then:
+        requests[0].requestHeaders.getFirst("Accept-Encoding") == "gzip"
+        document.rootElement.elementText("temp") == "72"
+    }
+
+    /**
+     * Returns a reader that collects the element names from SAX events, without building a document.
+     */
+    static HTTPHelper.ResponseReader elementNames() {
+        return { InputSource source ->
+            def names = []
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(source, new DefaultHandler() {
+                    @Override
+                    void startElement(String uri, String localName, String qName, Attributes attributes) {
+                        names << qName
+                    }
+                })
+            } catch (SAXException e) {
+                throw (IOException) new IOException(e.message).initCause(e)
+            }
+            return names
+        } as HTTPHelper.ResponseReader
+    }
+
+    def "a response reader is given the response, or the kept body when not modified"() {
+        setup:
+        responses << xml([ETag: '"v1"'], "<weather><temp>72</temp></weather>")
+        responses << notModifiedIfMatching('"v1"', xml([:], "<weather/>"))
+
+        when:
+        def first = helper.read(RequestPolicy.DEFAULT, null, "http", "localhost", server.address.port, "/reader", null, elementNames())
+        def second = helper.read(RequestPolicy.DEFAULT, null, "http", "localhost", server.address.port, "/reader", null, elementNames())
+
+        then:
+        first == ["weather", "temp"]
+        second == ["weather", "temp"]
+        helper.notModifiedCount == 1
+    }
+
+    def "SAX errors from a response reader are reported with the response's first bytes"() {
+        setup:
+        responses << response(200, ["Content-Type": "text/html; charset=UTF-8"], "<html>Service unavailable".getBytes("UTF-8"))
+
+        when:
+        helper.read(RequestPolicy.DEFAULT, null, "http", "localhost", server.address.port, "/html", null, elementNames())
+
+        then:
+        IOException e = thrown()
+        e.message == 'Service returned "<html>Service unavailable"'
+        e.cause instanceof SAXException
+    }
+
+    def "a response that isn't XML is reported with its first bytes and not retried"() {
+        setup:
+        responses << response(200, ["Content-Type": "text/html; charset=UTF-8"], ("<html>Service unavailable" + ("." * 2000)).getBytes("UTF-8"))
+
+        when:
+        read("/html")
+
+        then:
+        IOException e = thrown()
+        e.message.startsWith('Service returned "<html>Service unavailable')
+        e.message.endsWith('..."')
+        e.message.length() < 1100
+        requests.size() == 1
+    }
+
+    def "failed requests are retried with a doubling delay"() {
+        setup:
+        responses << response(503, [:], null)
+        responses << response(503, [:], null)
+        responses << xml([:], "<weather><temp>72</temp></weather>")
+
+        when:
+        def document = read("/retry", retries(2, 10000))
+
+        then:
+        document.rootElement.elementText("temp") == "72"
+        requests.size() == 3
+        requestTimes[1] - requestTimes[0] >= 100
+        requestTimes[2] - requestTimes[1] >= 200
+    }
+
+    def "retries stop after the policy's count"() {
+        setup:
+        responses << response(503, [:], null)
+
+        when:
+        read("/unavailable", retries(2, 10000))
+
+        then:
+        thrown(IOException)
+        requests.size() == 3
+    }
+
+    def "errors in the request itself are not retried"() {
+        setup:
+        responses << response(404, [:], null)
+
+        when:
+        read("/missing", retries(2, 10000))
+
+        then:
+        thrown(IOException)
+        requests.size() == 1
+    }
+
+    def "retries are limited by the retry budget across requests"() {
+        setup:
+        responses << response(503, [:], null)
+        def budget = new RetryBudget(0, 1)
+
+        when:
+        read("/budget", retries(2, 10000), budget)
+
+        then:
+        thrown(IOException)
+        requests.size() == 2
+
+        when:
+        read("/budget", retries(2, 10000), budget)
+
+        then:
+        thrown(IOException)
+        requests.size() == 3
+    }
+
+    def "a retry that would pass the deadline isn't made"() {
+        setup:
+        responses << response(503, [:], null)
+
+        when:
+        read("/deadline", new RequestPolicy(1000, 1000, 300, 2).withRetryDelayMillis(500))
+
+        then:
+        thrown(IOException)
+        requests.size() == 1
+    }
+
+    def "a response still running at the deadline is aborted"() {
+        setup:
+        responses << { HttpExchange exchange ->
+            exchange.responseHeaders.add("Content-Type", "text/xml")
+            exchange.sendResponseHeaders(200, 0)
+            exchange.responseBody.write("<weather>".getBytes("UTF-8"))
+            exchange.responseBody.flush()
+            Thread.sleep(2000)  // each read is within the read timeout, the whole response isn't
+            exchange.responseBody.write("</weather>".getBytes("UTF-8"))
+        }
+        long start = System.currentTimeMillis()
+
+        when:
+        read("/slow", new RequestPolicy(1000, 5000, 300, 0))
+
+        then:
+        IOException e = thrown()
+        e.message == "Request timed out"
+        System.currentTimeMillis() - start < 1500
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.util
+
+import spock.lang.Specification
+
+class RequestPolicyTest extends Specification {
+    def "defaults are used for missing or invalid settings"() {
+        when:
+        def policy = RequestPolicy.fromServiceConfig([units: 'metric', readtimeout: 'abc'])
+
+        then:
+        policy.connectTimeoutMillis == RequestPolicy.DEFAULT_CONNECT_TIMEOUT * 1000
+        policy.readTimeoutMillis == RequestPolicy.DEFAULT_READ_TIMEOUT * 1000
+        policy.requestTimeoutMillis == RequestPolicy.DEFAULT_REQUEST_TIMEOUT * 1000
+        policy.maxRetries == RequestPolicy.DEFAULT_RETRIES
+    }
+
+    def "settings are read in seconds"() {
+        when:
+        def policy = RequestPolicy.fromServiceConfig([connecttimeout: '5', readtimeout: '15', requesttimeout: '30', retries: '0'])
+
+        then:
+        policy.connectTimeoutMillis == 5000
+        policy.readTimeoutMillis == 15000
+        policy.requestTimeoutMillis == 30000
+        policy.maxRetries == 0
+    }
+
+    def "retry delay doubles"() {
+        expect:
+        RequestPolicy.DEFAULT.getRetryDelayMillis(retry) == delay
+
+        where:
+        retry | delay
+        1     | 1000
+        2     | 2000
+        3     | 4000
+    }
+
+    def "retry budget is limited to a fraction of requests"() {
+        setup:
+        def budget = new RetryBudget(0.5, 1)
+
+        expect:
+        budget.tryRetry()
+        !budget.tryRetry()
+
+        when:
+        budget.recordRequest()
+        budget.recordRequest()
+
+        then:
+        budget.tryRetry()
+        !budget.tryRetry()
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.controlj.addon.weather.wbug
+
+import spock.lang.Specification
+import com.controlj.addon.weather.util.HTTPHelper
+import com.controlj.addon.weather.util.RequestPolicy
+
+class WeatherServiceImplTest extends Specification {
+    def "the WeatherBug client is kept between requests"() {
+        setup:
+        def impl = new WeatherServiceImpl(new HTTPHelper())
+
+        when:
+        def first = impl.getService()
+        def second = impl.getService()
+
+        then:
+        first.is(second)
+        first.apiKey == impl.getKey()
+
+        cleanup:
+        impl.httpHelper.shutdown()
+    }
+
+    def "a request's configuration doesn't change the shared client"() {
+        setup:
+        def impl = new WeatherServiceImpl(new HTTPHelper())
+        def shared = impl.getService()
+        def sharedPolicy = shared.requestPolicy
+
+        when:
+        def configured = impl.getService([(RequestPolicy.CONFIG_KEY_RETRIES): '0'])
+
+        then:
+        configured.requestPolicy.maxRetries == 0
+        shared.requestPolicy.is(sharedPolicy)
+        configured.retryBudget.is(shared.retryBudget)
+        impl.getService().is(shared)
+
+        cleanup:
+        impl.httpHelper.shutdown()
+    }
+}
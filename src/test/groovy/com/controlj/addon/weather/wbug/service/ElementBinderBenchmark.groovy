@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.controlj.addon.weather.wbug.service
+
+/**
+ * Compares the time to bind the sample payloads with the reflective, XPath based binding and with the element
+ * binders.  Not part of the test run; run the main method from the IDE or with the test classpath.
+ */
+@Mixin(WBugUtils)
+class ElementBinderBenchmark
+{
+    static final int WARMUP = 2000
+    static final int ITERATIONS = 20000
+
+    static void main(String[] args)
+    {
+        new WeatherBugService("benchmark", null)   // registers the aws namespace used by the element constructors
+        new ElementBinderBenchmark().run()
+    }
+
+    def run()
+    {
+        PAYLOADS.each { filename, path, dataClass ->
+            def document = getTestDocument(filename)
+            long reflective = time { WeatherBugDataUtils.bind(document, path, dataClass) }
+            long binder = time { WeatherBugDataUtils.bind(document, path, dataClass.BINDER) }
+            printf("%-24s reflective %8.1f us   binder %8.1f us   %5.1fx%n", filename,
+                    reflective / 1000.0, binder / 1000.0, reflective / (double) binder)
+        }
+    }
+
+    /**
+     * Returns the average nanoseconds per call after warming up.
+     */
+    long time(Closure bind)
+    {
+        WARMUP.times { bind() }
+        long start = System.nanoTime()
+        ITERATIONS.times { bind() }
+        return (System.nanoTime() - start) / ITERATIONS
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.controlj.addon.weather.wbug.service
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Mixin(WBugUtils)
+class ElementBinderTest extends Specification
+{
+    def setupSpec()
+    {
+        new WeatherBugService("test", null)   // registers the aws namespace used by the element constructors
+    }
+
+    /**
+     * Returns the properties of a data object in a form that can be compared (URL.equals resolves host names).
+     */
+    def comparable(def object)
+    {
+        object.properties.findAll { it.key != "class" }.collectEntries { key, value ->
+            if (value instanceof URL)
+                value = value.toString()
+            else if (value instanceof Object[])
+                value = value.collect { comparable(it) }
+            [key, value]
+        }
+    }
+
+    @Unroll("binder matches element constructor for #filename")
+    def "binder matches element constructor"()
+    {
+        given:
+            def document = getTestDocument(filename)
+        when:
+            def expected = WeatherBugDataUtils.bind(document, path, dataClass)
+            def actual = WeatherBugDataUtils.bind(document, path, dataClass.BINDER)
+        then:
+            !expected.isEmpty()
+            actual.collect { comparable(it) } == expected.collect { comparable(it) }
+        where:
+            [filename, path, dataClass] << PAYLOADS
+    }
+
+    def "live weather values"()
+    {
+        when:
+            LiveWeather weather = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_WEATHER), "/rss/channel/aws:weather", LiveWeather.BINDER)
+        then:
+            weather.stationId == "GTHRS"
+            weather.temperature == new BigDecimal("31.4")
+            weather.temperatureUnits == "°F"
+            weather.temperatureRateUnits == "°F/h"
+            weather.pressureRateUnits == "\"/h"
+            weather.cityCode == 58872
+            weather.zipCode == 20877
+            weather.elevation == 420
+            weather.observationTime == new java.sql.Timestamp(Date.parse("yyyy-MM-dd HH:mm zzz", "2011-12-10 08:05 EST").time)
+            weather.currentConditionIconURL.toString().endsWith("cond007.gif")
+            weather.weatherBugSiteURL != null
+    }
+
+    def "missing values are the same as the element constructor gives"()
+    {
+        when:
+            LiveCompactWeather weather = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_COMPACT_WEATHER), "/rss/channel/aws:weather", LiveCompactWeather.BINDER)
+            List<Station> stations = WeatherBugDataUtils.bind(getTestDocument(STATIONS), "/aws:weather/aws:stations/aws:station", Station.BINDER)
+            List<Location> locations = WeatherBugDataUtils.bind(getTestDocument(LOCATIONS), "aws:locations/aws:location", Location.BINDER)
+            Forecasts forecasts = WeatherBugDataUtils.bindSingle(getTestDocument(FORECASTS), "/rss/channel/aws:weather", Forecasts.BINDER)
+        then:
+            weather.cityCode == -1
+            weather.windSpeedUnits == "km/h"
+            stations[2].distance == null
+            stations[2].unit == ""
+            locations[1].stateName == ""
+            locations[1].zipCode == -1
+            forecasts.cityCode == -1
+            forecasts.country == ""
+            forecasts.forecasts.length == 3
+            forecasts.forecasts[1].prediction == "Mostly sunny. Highs around 50°. Light winds."
+            forecasts.forecasts[2].highestTemperature == null
+            forecasts.forecasts[2].nightImage
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2011 Automated Logic Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.controlj.addon.weather.wbug.service
+
+import com.controlj.addon.weather.data.WeatherIcon
+import com.controlj.addon.weather.wbug.ConditionsSourceAdapter
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static com.controlj.addon.weather.wbug.service.LiveObservation.Reading.*
+
+@Mixin(WBugUtils)
+class LiveObservationTest extends Specification
+{
+    static final String PATH = "/rss/channel/aws:weather"
+
+    def setupSpec()
+    {
+        new WeatherBugService("test", null)   // registers the aws namespace used in PATH
+    }
+
+    @Unroll("observation #reading matches live weather #property")
+    def "observation matches live weather"()
+    {
+        given:
+            def document = getTestDocument(LIVE_WEATHER)
+            LiveWeather weather = WeatherBugDataUtils.bindSingle(document, PATH, LiveWeather.BINDER)
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(document, PATH, LiveObservation.BINDER)
+        expect:
+            weather."$property" != null
+            observation.get(reading) == weather."$property".floatValue()
+            units == null || observation.getUnits(reading) == weather."$units"
+        where:
+            reading        | property        | units
+            TEMPERATURE    | "temperature"   | "temperatureUnits"
+            FEELS_LIKE     | "feelsLike"     | "feelsLikeUnits"
+            DEW_POINT      | "dewPoint"      | "dewPointUnits"
+            WET_BULB       | "wetBulb"       | "wetBulbUnits"
+            HUMIDITY       | "humidity"      | "humidityUnits"
+            PRESSURE       | "pressure"      | "pressureUnits"
+            WIND_SPEED     | "windSpeed"     | "windSpeedUnits"
+            AVG_WIND_SPEED | "avgWindSpeed"  | "avgWindSpeedUnits"
+            RAIN_RATE      | "rainRate"      | "rainRateUnits"
+            RAIN_TODAY     | "rainToday"     | "rainTodayUnits"
+            RAIN_MONTH     | "rainMonth"     | "rainMonthUnits"
+            RAIN_YEAR      | "rainYear"      | "rainYearUnits"
+            LIGHT          | "light"         | null
+    }
+
+    def "observation matches live weather text values"()
+    {
+        given:
+            def document = getTestDocument(LIVE_WEATHER)
+            LiveWeather weather = WeatherBugDataUtils.bindSingle(document, PATH, LiveWeather.BINDER)
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(document, PATH, LiveObservation.BINDER)
+        expect:
+            observation.observationTime.time == weather.observationTime.time
+            observation.currentCondition == weather.currentCondition
+            observation.iconURL == weather.currentConditionIconURL.toString()
+            observation.windDirection == weather.windDirection
+            observation.avgWindDirection == weather.avgWindDirection
+            observation.weatherBugSiteURL == weather.weatherBugSiteURL.toString()
+    }
+
+    def "units are shared between observations"()
+    {
+        when:
+            LiveObservation first = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_WEATHER), PATH, LiveObservation.BINDER)
+            LiveObservation second = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_WEATHER), PATH, LiveObservation.BINDER)
+        then:
+            first.getUnits(TEMPERATURE).is(second.getUnits(TEMPERATURE))
+            first.windDirection.is(second.windDirection)
+    }
+
+    def "missing readings are NaN"()
+    {
+        when: "the compact payload has no <aws:ob> element"
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_COMPACT_WEATHER), PATH, LiveObservation.BINDER)
+        then:
+            Float.isNaN(observation.get(TEMPERATURE))
+            Float.isNaN(observation.get(WET_BULB))
+            observation.observationTime == null
+            observation.getUnits(WET_BULB) == ""
+            observation.avgWindDirection == ""
+    }
+
+    def "compact observation matches compact live weather"()
+    {
+        given:
+            def document = getTestDocument(LIVE_COMPACT_WEATHER)
+            LiveCompactWeather weather = WeatherBugDataUtils.bindSingle(document, PATH, LiveCompactWeather.BINDER)
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(document, PATH, LiveObservation.COMPACT_BINDER)
+        expect:
+            observation.get(TEMPERATURE) == weather.temperature.floatValue()
+            observation.getUnits(TEMPERATURE) == weather.temperatureUnits
+            observation.get(RAIN_TODAY) == weather.rainToday.floatValue()
+            observation.get(WIND_SPEED) == weather.windSpeed.floatValue()
+            observation.getUnits(WIND_SPEED) == weather.windSpeedUnits
+            observation.windDirection == weather.windDirection
+            observation.currentCondition == weather.currentCondition
+            observation.iconURL == weather.currentConditionIconURL.toString()
+            Float.isNaN(observation.get(HUMIDITY))
+            observation.observationTime == null
+    }
+
+    def "compact adapter is partial"()
+    {
+        given:
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_COMPACT_WEATHER), PATH, LiveObservation.COMPACT_BINDER)
+        when:
+            def conditions = new ConditionsSourceAdapter(observation, true, true)
+        then:
+            conditions.partial
+            conditions.temperature == -0.3f
+            conditions.humidity == null
+            !new ConditionsSourceAdapter(observation, true).partial
+    }
+
+    def "adapter reads the observation"()
+    {
+        given:
+            LiveObservation observation = WeatherBugDataUtils.bindSingle(getTestDocument(LIVE_WEATHER), PATH, LiveObservation.BINDER)
+        when:
+            def conditions = new ConditionsSourceAdapter(observation, false)
+        then:
+            conditions.temperature == 31.4f
+            conditions.temperatureUnits == "°F"
+            conditions.temperatureInCelsius < 0
+            conditions.windDegrees == 292.5f
+            conditions.icon != WeatherIcon.Unknown
+            conditions.wetBulb == 27.536f
+            conditions.sourceURL == observation.weatherBugSiteURL
+    }
+}
@@ -28,6 +28,22 @@ import org.dom4j.Document
 class WBugUtils
 {
     public static final String MISSING_DATA = "missingdata.xml"
+    public static final String LIVE_WEATHER = "liveweather.xml"
+    public static final String LIVE_COMPACT_WEATHER = "livecompactweather.xml"
+    public static final String FORECASTS = "forecasts.xml"
+    public static final String ALERTS = "alerts.xml"
+    public static final String STATIONS = "stations.xml"
+    public static final String LOCATIONS = "locations.xml"
+
+    /** The document, item path and data class of each sample payload. */
+    public static final List PAYLOADS = [
+            [LIVE_WEATHER, "/rss/channel/aws:weather", LiveWeather],
+            [LIVE_COMPACT_WEATHER, "/rss/channel/aws:weather", LiveCompactWeather],
+            [FORECASTS, "/rss/channel/aws:weather", Forecasts],
+            [ALERTS, "/rss/channel/aws:weather/aws:alerts/aws:alert", Alert],
+            [STATIONS, "/aws:weather/aws:stations/aws:station", Station],
+            [LOCATIONS, "aws:locations/aws:location", Location]
+    ]
 
     def Document getTestDocument(def filename) {
         InputStream is = WBugUtils.class.getResourceAsStream(filename);